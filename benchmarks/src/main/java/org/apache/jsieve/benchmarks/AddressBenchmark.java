@@ -0,0 +1,84 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jsieve.mail.MailAdapter.Address;
+import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.parser.address.SieveAddressBuilder;
+import org.apache.jsieve.parser.generated.address.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing of address headers by {@link SieveAddressBuilder}, both
+ * directly and through {@link BenchmarkMail#parseAddresses(String)} as the
+ * <code>address</code> test does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressBenchmark {
+
+    private static final String SINGLE = "\"Alice Example\" <alice@example.net>";
+
+    private static final String LIST = "bob@example.org, \"Carol\" <carol@example.org>,"
+            + " Dave <dave.jones@mail.example.com>, erin@example.com,"
+            + " \"Frank (Sales)\" <frank+sales@example.net>";
+
+    private BenchmarkMail mail;
+
+    @Setup
+    public void setUp() {
+        mail = Fixtures.personalMail();
+    }
+
+    @Benchmark
+    public Address[] parseSingle() throws ParseException {
+        final SieveAddressBuilder builder = new SieveAddressBuilder();
+        builder.addAddresses(SINGLE);
+        return builder.getAddresses();
+    }
+
+    @Benchmark
+    public Address[] parseList() throws ParseException {
+        final SieveAddressBuilder builder = new SieveAddressBuilder();
+        builder.addAddresses(LIST);
+        return builder.getAddresses();
+    }
+
+    @Benchmark
+    public Address[] parseHeader() throws SieveMailException {
+        return mail.parseAddresses("to");
+    }
+}
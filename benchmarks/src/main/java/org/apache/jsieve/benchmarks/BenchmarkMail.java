@@ -0,0 +1,215 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.comparators.ComparatorUtils;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.HeaderIndex;
+import org.apache.jsieve.mail.MailAdapter;
+import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.parser.address.SieveAddressBuilder;
+import org.apache.jsieve.parser.generated.address.ParseException;
+
+/**
+ * <p>
+ * In memory {@link MailAdapter} used by the benchmarks.
+ * </p>
+ * <p>
+ * Headers and body are held as plain strings so that measurements reflect the
+ * cost of the Sieve engine rather than that of a MIME implementation. Actions
+ * are collected but never executed.
+ * </p>
+ */
+public class BenchmarkMail implements MailAdapter {
+
+    private final List<String> names = new ArrayList<String>();
+
+    private final List<String> values = new ArrayList<String>();
+
+    private final List<Action> actions = new ArrayList<Action>();
+
+    private String body = "";
+
+    private HeaderIndex headerIndex;
+
+    /**
+     * Adds a header field. Fields keep the order in which they are added.
+     * 
+     * @param name header name, not null
+     * @param value header value, not null
+     * @return this mail, for chaining
+     */
+    public BenchmarkMail addHeader(final String name, final String value) {
+        names.add(name);
+        values.add(value);
+        headerIndex = null;
+        return this;
+    }
+
+    /**
+     * Sets the text body.
+     * 
+     * @param body not null
+     * @return this mail, for chaining
+     */
+    public BenchmarkMail setBody(final String body) {
+        this.body = body;
+        return this;
+    }
+
+    /**
+     * Discards collected actions so that the mail can be evaluated again.
+     */
+    public void reset() {
+        actions.clear();
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#setContext(SieveContext)
+     */
+    public void setContext(SieveContext context) {
+        headerIndex = null;
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#getActions()
+     */
+    public List<Action> getActions() {
+        return Collections.unmodifiableList(actions);
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#addAction(Action)
+     */
+    public void addAction(Action action) {
+        actions.add(action);
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#executeActions()
+     */
+    public void executeActions() throws SieveException {
+        // Actions are only collected
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#getHeader(String)
+     */
+    public List<String> getHeader(String name) throws SieveMailException {
+        final List<String> results = new ArrayList<String>(2);
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equals(name)) {
+                results.add(values.get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#getMatchingHeader(String)
+     */
+    public List<String> getMatchingHeader(String name)
+            throws SieveMailException {
+        return getHeaderIndex().getMatchingHeader(name);
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#getHeaderNames()
+     */
+    public List<String> getHeaderNames() throws SieveMailException {
+        final List<String> results = new ArrayList<String>(names.size());
+        for (String name : names) {
+            if (!results.contains(name)) {
+                results.add(name);
+            }
+        }
+        return results;
+    }
+
+    private HeaderIndex getHeaderIndex() {
+        if (headerIndex == null) {
+            headerIndex = buildHeaderIndex();
+        }
+        return headerIndex;
+    }
+
+    /**
+     * Builds a new index of all the headers of this mail.
+     * 
+     * @return index, not null
+     */
+    HeaderIndex buildHeaderIndex() {
+        final HeaderIndex index = new HeaderIndex();
+        for (int i = 0; i < names.size(); i++) {
+            index.add(names.get(i), values.get(i));
+        }
+        return index;
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#getSize()
+     */
+    public int getSize() throws SieveMailException {
+        int size = body.length();
+        for (int i = 0; i < names.size(); i++) {
+            size += names.get(i).length() + values.get(i).length() + 4;
+        }
+        return size;
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#getContentType()
+     */
+    public String getContentType() throws SieveMailException {
+        final List<String> types = getMatchingHeader("Content-Type");
+        return types.isEmpty() ? "text/plain" : types.get(0);
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#isInBodyText(String)
+     */
+    public boolean isInBodyText(String phraseCaseInsensitive)
+            throws SieveMailException {
+        return ComparatorUtils.containsIgnoreCase(body, phraseCaseInsensitive);
+    }
+
+    /**
+     * @see org.apache.jsieve.mail.MailAdapter#parseAddresses(String)
+     */
+    public Address[] parseAddresses(String headerName)
+            throws SieveMailException {
+        try {
+            final SieveAddressBuilder builder = new SieveAddressBuilder();
+            for (String value : getMatchingHeader(headerName)) {
+                builder.addAddresses(value);
+            }
+            return builder.getAddresses();
+        } catch (ParseException ex) {
+            throw new SieveMailException(ex);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jsieve.comparators.AsciiCasemap;
+import org.apache.jsieve.comparators.AsciiNumeric;
+import org.apache.jsieve.comparators.Comparator;
+import org.apache.jsieve.comparators.KeyListMatcher;
+import org.apache.jsieve.comparators.MatchTypeTags;
+import org.apache.jsieve.comparators.Octet;
+import org.apache.jsieve.exception.SieveException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Measures each comparator on header sized values. <code>i;ascii-numeric</code>
+ * supports <code>:is</code> only.
+ * </p>
+ * <p>
+ * <code>keyListContains</code> and <code>keysContains</code> compare matching
+ * many keys at once through a {@link KeyListMatcher} with matching them one at
+ * a time, as a test with a long key list does.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparatorBenchmark {
+
+    private static final String SUBJECT = "Re: [jsieve] Release vote for Apache jSieve 0.6 (was: Roadmap)";
+
+    private static final String SUBJECT_UPPER = SUBJECT.toUpperCase();
+
+    private static final String PHRASE = "Apache JSIEVE";
+
+    private static final String GLOB = "*[jsieve]*vote*0.?*";
+
+    private static final int KEYS = 32;
+
+    private Comparator octet;
+
+    private Comparator casemap;
+
+    private Comparator numeric;
+
+    private List<String> keys;
+
+    private KeyListMatcher keyList;
+
+    @Setup
+    public void setUp() {
+        octet = new Octet();
+        casemap = new AsciiCasemap();
+        numeric = new AsciiNumeric();
+        keys = new ArrayList<String>(KEYS);
+        for (int i = 0; i < KEYS - 1; i++) {
+            keys.add("[list" + i + "]");
+        }
+        keys.add("(WAS:");
+        keyList = KeyListMatcher.compile(MatchTypeTags.CONTAINS_TAG, keys, true);
+    }
+
+    @Benchmark
+    public boolean octetEquals() {
+        return octet.equals(SUBJECT, SUBJECT_UPPER);
+    }
+
+    @Benchmark
+    public boolean octetContains() throws SieveException {
+        return octet.contains(SUBJECT, PHRASE);
+    }
+
+    @Benchmark
+    public boolean octetMatches() throws SieveException {
+        return octet.matches(SUBJECT, GLOB);
+    }
+
+    @Benchmark
+    public boolean casemapEquals() {
+        return casemap.equals(SUBJECT, SUBJECT_UPPER);
+    }
+
+    @Benchmark
+    public boolean casemapContains() throws SieveException {
+        return casemap.contains(SUBJECT, PHRASE);
+    }
+
+    @Benchmark
+    public boolean casemapMatches() throws SieveException {
+        return casemap.matches(SUBJECT_UPPER, GLOB);
+    }
+
+    @Benchmark
+    public boolean numericEquals() {
+        return numeric.equals("00012345 apples", "12345 pears");
+    }
+
+    @Benchmark
+    public boolean keysContains() throws SieveException {
+        for (final String key : keys) {
+            if (casemap.contains(SUBJECT, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean keyListContains() {
+        return keyList.matches(SUBJECT);
+    }
+}
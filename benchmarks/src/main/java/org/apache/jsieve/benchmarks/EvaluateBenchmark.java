@@ -0,0 +1,130 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jsieve.CompiledScript;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.parser.generated.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Measures evaluation of one mail against parsed and compiled scripts.
+ * </p>
+ * <ul>
+ * <li><code>evaluateNode</code> interprets the parse tree</li>
+ * <li><code>evaluateCompiled</code> runs the {@link CompiledScript}</li>
+ * <li><code>evaluateOptimized</code> runs the script returned by
+ * {@link SieveFactory#optimize(CompiledScript)}</li>
+ * <li><code>evaluateBatch</code> evaluates the mail against one compiled
+ * script per recipient, as done for multi recipient deliveries</li>
+ * </ul>
+ * <p>
+ * The personal mail falls through every rule of the large script whereas the
+ * list mail is filed by the last list rule.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateBenchmark {
+
+    private static final int RECIPIENTS = 8;
+
+    @Param({ "small", "large" })
+    public String script;
+
+    @Param({ "personal", "list" })
+    public String mail;
+
+    private SieveFactory factory;
+
+    private Node node;
+
+    private CompiledScript compiled;
+
+    private CompiledScript optimized;
+
+    private List<CompiledScript> scripts;
+
+    private BenchmarkMail message;
+
+    @Setup
+    public void setUp() throws Exception {
+        factory = new ConfigurationManager().build();
+        final String source = Fixtures.script(script);
+        node = factory.parse(Fixtures.toStream(source));
+        compiled = factory.compile(node);
+        optimized = factory.optimize(compiled);
+        scripts = new ArrayList<CompiledScript>(RECIPIENTS);
+        for (int i = 0; i < RECIPIENTS; i++) {
+            scripts.add(factory.compile(Fixtures.toStream(source)));
+        }
+        message = "personal".equals(mail) ? Fixtures.personalMail()
+                : Fixtures.listMail();
+    }
+
+    @Benchmark
+    public int evaluateNode() throws SieveException {
+        message.reset();
+        factory.evaluate(message, node);
+        return message.getActions().size();
+    }
+
+    @Benchmark
+    public int evaluateCompiled() throws SieveException {
+        message.reset();
+        factory.evaluate(message, compiled);
+        return message.getActions().size();
+    }
+
+    @Benchmark
+    public int evaluateOptimized() throws SieveException {
+        message.reset();
+        factory.evaluate(message, optimized);
+        return message.getActions().size();
+    }
+
+    @Benchmark
+    public List<List<Action>> evaluateBatch() throws SieveException {
+        return factory.evaluate(message, scripts);
+    }
+}
@@ -0,0 +1,209 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Scripts and messages shared by the benchmarks. They are modelled on the
+ * filters and traffic seen by a typical mailbox: mailing list sorting, spam
+ * scores added by an upstream filter, vacation style address checks and
+ * occasional body tests.
+ */
+public final class Fixtures {
+
+    /** A short script with a handful of rules */
+    public static final String SMALL_SCRIPT = "require \"fileinto\";\r\n"
+            + "if header :contains \"subject\" \"[jsieve]\" {\r\n"
+            + "  fileinto \"lists.jsieve\";\r\n"
+            + "} elsif address :is :domain \"from\" \"example.org\" {\r\n"
+            + "  fileinto \"work\";\r\n"
+            + "} elsif size :over 1M {\r\n"
+            + "  discard;\r\n"
+            + "}\r\n";
+
+    /** Number of list rules generated into {@link #LARGE_SCRIPT} */
+    public static final int LIST_RULES = 40;
+
+    /** A script of the size typically produced by filter management UIs */
+    public static final String LARGE_SCRIPT = largeScript();
+
+    private static String largeScript() {
+        final StringBuilder builder = new StringBuilder(8192);
+        builder.append("require [\"fileinto\", \"reject\", \"body\"];\r\n");
+        builder.append("# Spam scored upstream\r\n");
+        builder.append("if anyof (header :contains \"X-Spam-Flag\" \"YES\",\r\n");
+        builder.append("          header :matches \"X-Spam-Level\" \"\\\\*\\\\*\\\\*\\\\*\\\\*\\\\**\") {\r\n");
+        builder.append("  fileinto \"Junk\";\r\n");
+        builder.append("  stop;\r\n");
+        builder.append("}\r\n");
+        builder.append("if allof (not exists \"Message-ID\", size :over 100K) {\r\n");
+        builder.append("  reject text:\r\n");
+        builder.append("Messages without a Message-ID over 100K are refused.\r\n");
+        builder.append("..Please contact the postmaster.\r\n");
+        builder.append(".\r\n");
+        builder.append("  ;\r\n");
+        builder.append("  stop;\r\n");
+        builder.append("}\r\n");
+        for (int i = 0; i < LIST_RULES; i++) {
+            builder.append("if anyof (header :is \"List-Id\" \"<list").append(i)
+                    .append(".lists.example.org>\",\r\n");
+            builder.append("          address :all :comparator \"i;octet\" :is [\"to\", \"cc\"] \"list")
+                    .append(i).append("@lists.example.org\") {\r\n");
+            builder.append("  fileinto \"lists.list").append(i).append("\";\r\n");
+            builder.append("  stop;\r\n");
+            builder.append("}\r\n");
+        }
+        builder.append("if address :domain :is [\"from\", \"sender\"] [\"example.com\", \"example.net\", \"example.org\"] {\r\n");
+        builder.append("  fileinto \"work\";\r\n");
+        builder.append("} elsif header :matches \"subject\" [\"*invoice*\", \"*receipt*\", \"order #*\"] {\r\n");
+        builder.append("  fileinto \"receipts\";\r\n");
+        builder.append("} elsif body :contains [\"unsubscribe\", \"opt out\", \"view this email in your browser\"] {\r\n");
+        builder.append("  fileinto \"newsletters\";\r\n");
+        builder.append("}\r\n");
+        return builder.toString();
+    }
+
+    /** Number of lines in the reject message of {@link #TEXT_SCRIPT} */
+    public static final int TEXT_LINES = 400;
+
+    /** A script dominated by a multi kilobyte <code>text:</code> literal */
+    public static final String TEXT_SCRIPT = textScript();
+
+    private static String textScript() {
+        final StringBuilder builder = new StringBuilder(TEXT_LINES * 64);
+        builder.append("require \"reject\";\r\n");
+        builder.append("if size :over 10M {\r\n");
+        builder.append("  reject text:\r\n");
+        for (int i = 0; i < TEXT_LINES; i++) {
+            if (i % 10 == 0) {
+                builder.append("..\r\n");
+            }
+            builder.append("Your message exceeds the size limit of this mailbox (line ")
+                    .append(i).append(").\r\n");
+        }
+        builder.append(".\r\n");
+        builder.append("  ;\r\n");
+        builder.append("}\r\n");
+        return builder.toString();
+    }
+
+    /**
+     * Gets a script by name.
+     * 
+     * @param name <code>small</code>, <code>large</code> or
+     *            <code>text</code>
+     * @return script source, not null
+     */
+    public static String script(final String name) {
+        if ("small".equals(name)) {
+            return SMALL_SCRIPT;
+        } else if ("large".equals(name)) {
+            return LARGE_SCRIPT;
+        } else if ("text".equals(name)) {
+            return TEXT_SCRIPT;
+        }
+        throw new IllegalArgumentException("Unknown script: " + name);
+    }
+
+    /**
+     * Creates a personal message which falls through every list rule of
+     * {@link #LARGE_SCRIPT}.
+     * 
+     * @return mail, not null
+     */
+    public static BenchmarkMail personalMail() {
+        return receivedHeaders(new BenchmarkMail(), 6)
+                .addHeader("Message-ID", "<20081231.1234@mx.example.net>")
+                .addHeader("Date", "Wed, 31 Dec 2008 12:34:56 +0000")
+                .addHeader("From", "\"Alice Example\" <alice@example.net>")
+                .addHeader("To", "bob@example.org, \"Carol\" <carol@example.org>")
+                .addHeader("Cc", "dave@example.com")
+                .addHeader("Subject", "Re: lunch on Friday?")
+                .addHeader("MIME-Version", "1.0")
+                .addHeader("Content-Type", "text/plain; charset=us-ascii")
+                .addHeader("X-Spam-Flag", "NO")
+                .addHeader("X-Spam-Level", "*")
+                .setBody(body("Sounds good, see you at noon.\r\n", 20));
+    }
+
+    /**
+     * Creates a mailing list message matched by the last list rule of
+     * {@link #LARGE_SCRIPT}.
+     * 
+     * @return mail, not null
+     */
+    public static BenchmarkMail listMail() {
+        final int list = LIST_RULES - 1;
+        return receivedHeaders(new BenchmarkMail(), 12)
+                .addHeader("Message-ID", "<4960.5030@lists.example.org>")
+                .addHeader("Date", "Wed, 31 Dec 2008 12:34:56 +0000")
+                .addHeader("From", "Erin <erin@example.com>")
+                .addHeader("To", "list" + list + "@lists.example.org")
+                .addHeader("Subject", "[list" + list + "] Release vote")
+                .addHeader("List-Id", "<list" + list + ".lists.example.org>")
+                .addHeader("List-Unsubscribe", "<mailto:list" + list
+                        + "-unsubscribe@lists.example.org>")
+                .addHeader("Precedence", "list")
+                .addHeader("MIME-Version", "1.0")
+                .addHeader("Content-Type", "text/plain; charset=us-ascii")
+                .setBody(body("+1 from me, the signatures check out.\r\n", 40));
+    }
+
+    private static BenchmarkMail receivedHeaders(final BenchmarkMail mail,
+            final int hops) {
+        for (int i = 0; i < hops; i++) {
+            mail.addHeader("Received", "from mx" + i
+                    + ".example.net (mx" + i + ".example.net [192.0.2." + i
+                    + "]) by mx" + (i + 1)
+                    + ".example.org with ESMTP id 1234" + i
+                    + "; Wed, 31 Dec 2008 12:34:5" + (i % 10) + " +0000");
+        }
+        return mail;
+    }
+
+    private static String body(final String line, final int lines) {
+        final StringBuilder builder = new StringBuilder(line.length() * lines);
+        for (int i = 0; i < lines; i++) {
+            builder.append(line);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Opens a stream over the UTF-8 encoding of the given script.
+     * 
+     * @param script not null
+     * @return stream, not null
+     */
+    public static InputStream toStream(final String script) {
+        try {
+            return new ByteArrayInputStream(script.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Fixtures() {
+    }
+}
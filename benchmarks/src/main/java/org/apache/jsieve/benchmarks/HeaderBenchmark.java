@@ -0,0 +1,84 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jsieve.mail.HeaderIndex;
+import org.apache.jsieve.mail.MailUtils;
+import org.apache.jsieve.mail.SieveMailException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Measures case insensitive header lookup on a mailing list message.
+ * </p>
+ * <ul>
+ * <li><code>scan</code> is {@link MailUtils#getMatchingHeader}, which scans
+ * every header name per lookup</li>
+ * <li><code>buildIndex</code> is the one off cost of a {@link HeaderIndex}
+ * per evaluation</li>
+ * <li><code>indexed</code> is a lookup against an existing index</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmark {
+
+    private BenchmarkMail mail;
+
+    private HeaderIndex index;
+
+    @Setup
+    public void setUp() {
+        mail = Fixtures.listMail();
+        index = mail.buildHeaderIndex();
+    }
+
+    @Benchmark
+    public List<String> scan() throws SieveMailException {
+        return MailUtils.getMatchingHeader(mail, "list-id");
+    }
+
+    @Benchmark
+    public HeaderIndex buildIndex() {
+        return mail.buildHeaderIndex();
+    }
+
+    @Benchmark
+    public List<String> indexed() {
+        return index.getMatchingHeader("list-id");
+    }
+}
@@ -0,0 +1,127 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jsieve.CompiledScript;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.ParseException;
+import org.apache.jsieve.parser.generated.SieveParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Measures turning script source into an executable form.
+ * </p>
+ * <ul>
+ * <li><code>parseOnly</code> runs the generated parser alone</li>
+ * <li><code>parse</code> is {@link SieveFactory#parse}, that is parsing
+ * followed by validation against the configured commands and tests. The cost
+ * of validation is the difference from <code>parseOnly</code></li>
+ * <li><code>parseText</code> parses the script from a <code>String</code>
+ * without encoding it to bytes</li>
+ * <li><code>compileNode</code> builds the executable form of an already
+ * parsed script</li>
+ * <li><code>compile</code> is the full {@link SieveFactory#compile} path</li>
+ * <li><code>deserialize</code> loads the binary form written by
+ * {@link SieveFactory#serialize}</li>
+ * </ul>
+ * <p>
+ * The <code>text</code> script is dominated by a large dot stuffed
+ * <code>text:</code> literal and so measures string literal decoding.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({ "small", "large", "text" })
+    public String script;
+
+    private SieveFactory factory;
+
+    private String source;
+
+    private Node node;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws Exception {
+        factory = new ConfigurationManager().build();
+        source = Fixtures.script(script);
+        node = factory.parse(Fixtures.toStream(source));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.serialize(factory.compile(node), out);
+        serialized = out.toByteArray();
+    }
+
+    @Benchmark
+    public Node parseOnly() throws ParseException {
+        return new SieveParser(Fixtures.toStream(source), "UTF-8").start();
+    }
+
+    @Benchmark
+    public Node parse() throws ParseException {
+        return factory.parse(Fixtures.toStream(source));
+    }
+
+    @Benchmark
+    public Node parseText() throws ParseException {
+        return factory.parse(source);
+    }
+
+    @Benchmark
+    public CompiledScript compileNode() throws SieveException {
+        return factory.compile(node);
+    }
+
+    @Benchmark
+    public CompiledScript compile() throws ParseException {
+        return factory.compile(Fixtures.toStream(source));
+    }
+
+    @Benchmark
+    public CompiledScript deserialize() throws IOException, SieveException {
+        return factory.deserialize(new ByteArrayInputStream(serialized));
+    }
+}
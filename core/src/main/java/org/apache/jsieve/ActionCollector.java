@@ -0,0 +1,210 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jsieve.exception.InternetAddressException;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.MailAdapter;
+import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.mail.optional.BodyAccessors;
+import org.apache.jsieve.mail.optional.BodyHandler;
+import org.apache.jsieve.mail.optional.EnvelopeAccessors;
+
+/**
+ * <p>
+ * A view of a mail which reads through to the mail but collects Actions into
+ * a list of its own, so that one mail may be evaluated against several
+ * scripts in turn without their Actions being mixed or executed.
+ * </p>
+ * <p>
+ * The view implements {@link EnvelopeAccessors} and {@link BodyAccessors}
+ * when the mail does, and otherwise calls the mail directly. Calls to
+ * <code>setContext</code> and <code>executeActions</code> are not passed on,
+ * so state the mail derives during an evaluation is kept across scripts.
+ * </p>
+ */
+class ActionCollector implements MailAdapter {
+
+    /**
+     * Constructs a collector for the given mail, implementing the optional
+     * interfaces of the mail.
+     * 
+     * @param mail not null
+     * @return collector, not null
+     */
+    static ActionCollector of(final MailAdapter mail) {
+        final boolean envelope = mail instanceof EnvelopeAccessors;
+        final boolean body = mail instanceof BodyAccessors;
+        if (envelope && body) {
+            return new EnvelopeBodyCollector(mail);
+        } else if (envelope) {
+            return new EnvelopeCollector(mail);
+        } else if (body) {
+            return new BodyCollector(mail);
+        } else {
+            return new ActionCollector(mail);
+        }
+    }
+
+    protected final MailAdapter mail;
+
+    private List<Action> actions;
+
+    private ActionCollector(final MailAdapter mail) {
+        this.mail = mail;
+    }
+
+    /**
+     * Sets the list into which Actions added to the view are collected.
+     * 
+     * @param actions not null
+     */
+    void setActions(final List<Action> actions) {
+        this.actions = actions;
+    }
+
+    public void setContext(SieveContext context) {
+        // The mail keeps the context of the first script
+    }
+
+    public List<Action> getActions() {
+        return Collections.unmodifiableList(actions);
+    }
+
+    public void addAction(Action action) {
+        actions.add(action);
+    }
+
+    public void executeActions() throws SieveException {
+        // Actions are answered to the caller
+    }
+
+    public List<String> getHeader(String name) throws SieveMailException {
+        return mail.getHeader(name);
+    }
+
+    public List<String> getMatchingHeader(String name)
+            throws SieveMailException {
+        return mail.getMatchingHeader(name);
+    }
+
+    public List<String> getHeaderNames() throws SieveMailException {
+        return mail.getHeaderNames();
+    }
+
+    public int getSize() throws SieveMailException {
+        return mail.getSize();
+    }
+
+    public String getContentType() throws SieveMailException {
+        return mail.getContentType();
+    }
+
+    public boolean isInBodyText(String phraseCaseInsensitive)
+            throws SieveMailException {
+        return mail.isInBodyText(phraseCaseInsensitive);
+    }
+
+    public Address[] parseAddresses(String headerName)
+            throws SieveMailException, InternetAddressException {
+        return mail.parseAddresses(headerName);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return mail.toString();
+    }
+
+    private static final class EnvelopeCollector extends ActionCollector
+            implements EnvelopeAccessors {
+
+        EnvelopeCollector(final MailAdapter mail) {
+            super(mail);
+        }
+
+        public List<String> getEnvelope(String name) throws SieveMailException {
+            return ((EnvelopeAccessors) mail).getEnvelope(name);
+        }
+
+        public List<String> getEnvelopeNames() throws SieveMailException {
+            return ((EnvelopeAccessors) mail).getEnvelopeNames();
+        }
+
+        public List<String> getMatchingEnvelope(String name)
+                throws SieveMailException {
+            return ((EnvelopeAccessors) mail).getMatchingEnvelope(name);
+        }
+    }
+
+    private static final class BodyCollector extends ActionCollector
+            implements BodyAccessors {
+
+        BodyCollector(final MailAdapter mail) {
+            super(mail);
+        }
+
+        public boolean isInBodyText(List<String> phrasesCaseInsensitive)
+                throws SieveMailException {
+            return ((BodyAccessors) mail).isInBodyText(phrasesCaseInsensitive);
+        }
+
+        public void visitBody(String transform, List<String> contentTypes,
+                BodyHandler handler) throws SieveException {
+            ((BodyAccessors) mail).visitBody(transform, contentTypes, handler);
+        }
+    }
+
+    private static final class EnvelopeBodyCollector extends ActionCollector
+            implements EnvelopeAccessors, BodyAccessors {
+
+        EnvelopeBodyCollector(final MailAdapter mail) {
+            super(mail);
+        }
+
+        public List<String> getEnvelope(String name) throws SieveMailException {
+            return ((EnvelopeAccessors) mail).getEnvelope(name);
+        }
+
+        public List<String> getEnvelopeNames() throws SieveMailException {
+            return ((EnvelopeAccessors) mail).getEnvelopeNames();
+        }
+
+        public List<String> getMatchingEnvelope(String name)
+                throws SieveMailException {
+            return ((EnvelopeAccessors) mail).getMatchingEnvelope(name);
+        }
+
+        public boolean isInBodyText(List<String> phrasesCaseInsensitive)
+                throws SieveMailException {
+            return ((BodyAccessors) mail).isInBodyText(phrasesCaseInsensitive);
+        }
+
+        public void visitBody(String transform, List<String> contentTypes,
+                BodyHandler handler) throws SieveException {
+            ((BodyAccessors) mail).visitBody(transform, contentTypes, handler);
+        }
+    }
+}
@@ -22,7 +22,8 @@ package org.apache.jsieve;
 import org.apache.commons.logging.Log;
 
 /**
- * Bean based implementation of context.
+ * Bean based implementation of context. A context may be {@link #reset()} and
+ * reused by successive evaluations on the same thread.
  */
 public class BaseSieveContext extends SieveContext {
 
@@ -30,6 +31,8 @@ public class BaseSieveContext extends SieveContext {
 
     private ConditionManager conditionManager;
 
+    private final ConditionManager initialConditionManager;
+
     private final CommandStateManager commandStateManager;
 
     private final CommandManager commandManager;
@@ -44,13 +47,26 @@ public class BaseSieveContext extends SieveContext {
                             final ComparatorManager comparatorManager,
                             final TestManager testManager, final Log log) {
         this.commandStateManager = new CommandStateManager();
-        this.conditionManager = new ConditionManager();
+        this.initialConditionManager = new ConditionManager();
+        this.conditionManager = initialConditionManager;
         this.testManager = testManager;
         this.commandManager = commandManager;
         this.comparatorManager = comparatorManager;
         this.log = log;
     }
 
+    /**
+     * Restores the initial state of this context, ready for the evaluation
+     * of another mail.
+     */
+    public void reset() {
+        coordinate = null;
+        conditionManager = initialConditionManager;
+        conditionManager.reset();
+        commandStateManager.initialize();
+        forgetTestResults();
+    }
+
     /**
      * Gets the script position of the current operation.
      *
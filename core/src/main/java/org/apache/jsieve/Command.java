@@ -120,6 +120,16 @@ public class Command implements Executable {
         return fieldBlock;
     }
 
+    /**
+     * Returns the coordinate in the script recorded when this Command was
+     * parsed.
+     * 
+     * @return ScriptCoordinate
+     */
+    public ScriptCoordinate getCoordinate() {
+        return coordinate;
+    }
+
     /**
      * Sets the arguments.
      * 
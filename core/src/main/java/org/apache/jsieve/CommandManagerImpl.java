@@ -22,12 +22,18 @@ package org.apache.jsieve;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.jsieve.exception.LookupException;
 
 /**
  * <p>Maps command names to common implementations.</p>
+ * <p>
+ * Each name is resolved to its class once. Unless the class implements
+ * {@link Stateful}, a single instance is then shared by all lookups of that
+ * name. Changes to the mapping of names already resolved are not seen.
+ * </p>
  * <h4>Thread Safety</h4>
  * <p>
  * Instances may safely be accessed concurrently by multiple threads.
@@ -44,6 +50,12 @@ public class CommandManagerImpl implements CommandManager {
 
     private final ConcurrentMap<String, String> classNameMap;
 
+    /** Resolved command classes indexed by name */
+    private final ConcurrentMap<String, Class> classMap = new ConcurrentHashMap<String, Class>();
+
+    /** Shared command instances indexed by name */
+    private final ConcurrentMap<String, ExecutableCommand> commandMap = new ConcurrentHashMap<String, ExecutableCommand>();
+
     /**
      * Constructor for CommandManager.
      */
@@ -63,7 +75,9 @@ public class CommandManagerImpl implements CommandManager {
      * @throws LookupException
      */
     private Class lookup(String name) throws LookupException {
-        Class cmdClass;
+        Class cmdClass = classMap.get(name);
+        if (null != cmdClass)
+            return cmdClass;
         try {
             cmdClass = getClass().getClassLoader()
                     .loadClass(getClassName(name));
@@ -73,13 +87,15 @@ public class CommandManagerImpl implements CommandManager {
         if (!ExecutableCommand.class.isAssignableFrom(cmdClass))
             throw new LookupException("Class " + cmdClass.getName()
                     + " must implement " + ExecutableCommand.class.getName());
+        classMap.putIfAbsent(name, cmdClass);
         return cmdClass;
     }
 
     /**
      * <p>
      * Method newInstance answers an instance of the class to which a Command
-     * name is mapped.
+     * name is mapped. The instance is shared unless the class implements
+     * {@link Stateful}.
      * </p>
      * 
      * @param name -
@@ -88,8 +104,22 @@ public class CommandManagerImpl implements CommandManager {
      * @throws LookupException
      */
     public ExecutableCommand getCommand(String name) throws LookupException {
+        ExecutableCommand command = commandMap.get(name);
+        if (null == command) {
+            final Class cmdClass = lookup(name);
+            command = newInstance(cmdClass);
+            if (!Stateful.class.isAssignableFrom(cmdClass)) {
+                final ExecutableCommand shared = commandMap.putIfAbsent(name, command);
+                if (null != shared)
+                    command = shared;
+            }
+        }
+        return command;
+    }
+
+    private ExecutableCommand newInstance(Class cmdClass) throws LookupException {
         try {
-            return (ExecutableCommand) lookup(name).newInstance();
+            return (ExecutableCommand) cmdClass.newInstance();
         } catch (InstantiationException e) {
             throw new LookupException(e.getMessage());
         } catch (IllegalAccessException e) {
@@ -24,6 +24,7 @@ import static org.apache.jsieve.Constants.COMPARATOR_OCTET_NAME;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -32,6 +33,11 @@ import org.apache.jsieve.exception.LookupException;
 
 /**
  * <p>Maps Comparator names to configured Comparator implementation classes.</p>
+ * <p>
+ * Each name is resolved to its class once. Unless the class implements
+ * {@link Stateful}, a single instance is then shared by all lookups of that
+ * name. Changes to the mapping of names already resolved are not seen.
+ * </p>
  * <h4>Thread Safety</h4>
  * <p>
  * Instances may safely be accessed concurrently by multiple threads.
@@ -52,6 +58,10 @@ public class ComparatorManagerImpl implements ComparatorManager {
     }
     
     private final ConcurrentMap<String, String> classNameMap;
+    /** Resolved comparator classes indexed by name */
+    private final ConcurrentMap<String, Class> classMap = new ConcurrentHashMap<String, Class>();
+    /** Shared comparator instances indexed by name */
+    private final ConcurrentMap<String, Comparator> comparatorMap = new ConcurrentHashMap<String, Comparator>();
     /** 
      * The names of those comparisons for which <code>require</code> is not necessary before usage.
      * See <a href='http://tools.ietf.org/html/rfc5228#section-2.7.3'>RFC5228, 2.7.3 Comparators</a>. 
@@ -99,7 +109,9 @@ public class ComparatorManagerImpl implements ComparatorManager {
      * @throws LookupException
      */
     public Class lookup(String name) throws LookupException {
-        Class comparatorClass;
+        Class comparatorClass = classMap.get(name);
+        if (null != comparatorClass)
+            return comparatorClass;
         try {
             comparatorClass = getClass().getClassLoader().loadClass(
                     getClassName(name));
@@ -110,13 +122,15 @@ public class ComparatorManagerImpl implements ComparatorManager {
         if (!Comparator.class.isAssignableFrom(comparatorClass))
             throw new LookupException("Class " + comparatorClass.getName()
                     + " must implement " + Comparator.class.getName());
+        classMap.putIfAbsent(name, comparatorClass);
         return comparatorClass;
     }
 
     /**
      * <p>
      * Method newInstance answers an instance of the class to which a Comparator
-     * name is mapped.
+     * name is mapped. The instance is shared unless the class implements
+     * {@link Stateful}.
      * </p>
      * 
      * @param name -
@@ -125,8 +139,22 @@ public class ComparatorManagerImpl implements ComparatorManager {
      * @throws LookupException
      */
     public Comparator getComparator(String name) throws LookupException {
+        Comparator comparator = comparatorMap.get(name);
+        if (null == comparator) {
+            final Class comparatorClass = lookup(name);
+            comparator = newInstance(comparatorClass);
+            if (!Stateful.class.isAssignableFrom(comparatorClass)) {
+                final Comparator shared = comparatorMap.putIfAbsent(name, comparator);
+                if (null != shared)
+                    comparator = shared;
+            }
+        }
+        return comparator;
+    }
+
+    private Comparator newInstance(Class comparatorClass) throws LookupException {
         try {
-            return (Comparator) lookup(name).newInstance();
+            return (Comparator) comparatorClass.newInstance();
         } catch (InstantiationException e) {
             throw new LookupException(e.getMessage());
         } catch (IllegalAccessException e) {
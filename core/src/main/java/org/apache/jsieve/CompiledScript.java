@@ -0,0 +1,150 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * <p>
+ * An executable form of a parsed and validated Sieve script. The Commands,
+ * Tests and Arguments are built once, when the script is compiled by
+ * {@link SieveFactory#compile(java.io.InputStream)}, rather than being rebuilt
+ * from the parsed nodes on every evaluation.
+ * </p>
+ * <p>
+ * A script may also be optimized by {@link SieveFactory#optimize(CompiledScript)}.
+ * An optimized script keeps its Block, which remains the canonical form, but is
+ * executed by a specialised form compiled from it. A {@link SieveFactory}
+ * configured with an optimization threshold counts the evaluations of each
+ * script and optimizes those evaluated often in the background, replacing the
+ * form executed by this script in place.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * Instances may be safely shared by concurrent threads. Evaluation only
+ * updates the execution count and, once, the executed form. Typically a
+ * compiled script is stored for reuse in all subsequent evaluations of the
+ * script.
+ * </p>
+ */
+public final class CompiledScript implements Executable {
+
+    /** The implicit top level Block */
+    private final Block block;
+
+    private static final AtomicIntegerFieldUpdater<CompiledScript> EXECUTIONS = AtomicIntegerFieldUpdater
+            .newUpdater(CompiledScript.class, "executions");
+
+    /** Executes the script, the Block unless optimized */
+    private volatile Executable executable;
+
+    /** Evaluations counted while not optimized */
+    private volatile int executions;
+
+    /**
+     * Constructor for CompiledScript.
+     * 
+     * @param block
+     *            the implicit top level Block, not null
+     */
+    public CompiledScript(final Block block) {
+        this(block, block);
+    }
+
+    /**
+     * Constructor for an optimized CompiledScript.
+     * 
+     * @param block
+     *            the implicit top level Block, not null
+     * @param executable
+     *            executes the same Commands as the block, not null
+     */
+    public CompiledScript(final Block block, final Executable executable) {
+        super();
+        this.block = block;
+        this.executable = executable;
+    }
+
+    /**
+     * Returns the top level Block.
+     * 
+     * @return Block, not null
+     */
+    public Block getBlock() {
+        return block;
+    }
+
+    /**
+     * Is this script executed by an optimized form rather than by
+     * interpreting its Block?
+     * 
+     * @return true when optimized, false otherwise
+     */
+    public boolean isOptimized() {
+        return executable != block;
+    }
+
+    /**
+     * Counts an evaluation of this script. The count saturates rather than
+     * overflowing.
+     * 
+     * @return the number of evaluations counted, including this one
+     */
+    int countExecution() {
+        for (;;) {
+            final int count = executions;
+            if (count == Integer.MAX_VALUE) {
+                return count;
+            }
+            if (EXECUTIONS.compareAndSet(this, count, count + 1)) {
+                return count + 1;
+            }
+        }
+    }
+
+    /**
+     * Replaces the executed form of this script by an optimized form of its
+     * Block. Evaluations already in progress complete with the previous form.
+     * 
+     * @param optimized
+     *            executes the same Commands as the block, not null
+     */
+    void promote(final Executable optimized) {
+        executable = optimized;
+    }
+
+    /**
+     * @see org.apache.jsieve.Executable#execute(MailAdapter, SieveContext)
+     */
+    public Object execute(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        return executable.execute(mail, context);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "SCRIPT: " + block;
+    }
+}
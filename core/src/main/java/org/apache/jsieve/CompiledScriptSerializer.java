@@ -0,0 +1,425 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.jsieve.exception.SieveException;
+
+/**
+ * <p>
+ * Reads and writes the binary form of a {@link CompiledScript}, so that a
+ * script can be loaded without lexing, parsing or validating its source.
+ * </p>
+ * <p>
+ * The format is
+ * </p>
+ * <ul>
+ * <li>the magic number <code>JSVC</code> and a format version</li>
+ * <li>a fingerprint of the extensions registered when the script was
+ * written, and of the classes implementing them and the standard commands,
+ * tests and comparators. A script written with a different registry is
+ * rejected, since it was validated against implementations which may no
+ * longer be available</li>
+ * <li>a table of the distinct strings used by the script: names, tags and
+ * string list values</li>
+ * <li>the top level block, written depth first with strings as indexes into
+ * the table</li>
+ * </ul>
+ * <p>
+ * Counts, indexes and numbers are written as unsigned variable length
+ * integers.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * Instances are used by a single thread for a single read or write.
+ * </p>
+ */
+final class CompiledScriptSerializer {
+
+    /** "JSVC" */
+    private static final int MAGIC = 0x4A535643;
+
+    /** Incremented whenever the format changes */
+    static final int VERSION = 1;
+
+    private static final int ABSENT = 0;
+
+    private static final int PRESENT = 1;
+
+    private static final int STRING_LIST = 0;
+
+    private static final int TAG = 1;
+
+    private static final int NUMBER = 2;
+
+    private static final String UTF_8 = "UTF-8";
+
+    /**
+     * Strings longer than this are read in chunks of this size, and lists
+     * are at first sized no larger, so that a corrupt length fails when the
+     * data runs out rather than when allocating
+     */
+    private static final int CHUNK = 8192;
+
+    /**
+     * Computes the fingerprint of the given extensions and implementations.
+     * The order of the entries does not matter.
+     * 
+     * @param entries not null
+     * @return fingerprint
+     */
+    static long fingerprint(final List<String> entries) {
+        final List<String> sorted = new ArrayList<String>(entries);
+        Collections.sort(sorted);
+        final CRC32 crc = new CRC32();
+        try {
+            for (final String entry : sorted) {
+                crc.update(entry.getBytes(UTF_8));
+                crc.update('\n');
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the given script.
+     * 
+     * @param script not null
+     * @param fingerprint of the current extension registry
+     * @param out not null, not closed
+     * @throws IOException
+     */
+    static void write(final CompiledScript script, final long fingerprint,
+            final OutputStream out) throws IOException {
+        new CompiledScriptSerializer().writeScript(script, fingerprint,
+                new DataOutputStream(out));
+    }
+
+    /**
+     * Reads a script.
+     * 
+     * @param in not null, not closed
+     * @param fingerprint of the current extension registry
+     * @param log used by the coordinates of the commands read
+     * @return CompiledScript, not null
+     * @throws IOException when the data cannot be read or is malformed
+     * @throws SieveException when the data was written by a different format
+     *             version or against a different extension registry
+     */
+    static CompiledScript read(final InputStream in, final long fingerprint,
+            final Log log) throws IOException, SieveException {
+        return new CompiledScriptSerializer().readScript(
+                new DataInputStream(in), fingerprint, log);
+    }
+
+    /** Strings in order of first use, when writing or reading */
+    private final List<String> strings = new ArrayList<String>();
+
+    /** Index of each string, when writing */
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    private Log log;
+
+    private CompiledScriptSerializer() {
+    }
+
+    private void writeScript(final CompiledScript script,
+            final long fingerprint, final DataOutputStream out)
+            throws IOException {
+        // The string table precedes the tree, so the tree is written first
+        // into a buffer while the strings are collected
+        final ByteArrayOutputStream tree = new ByteArrayOutputStream(256);
+        final DataOutputStream treeOut = new DataOutputStream(tree);
+        writeBlock(script.getBlock(), treeOut);
+        treeOut.flush();
+
+        out.writeInt(MAGIC);
+        writeNumber(VERSION, out);
+        out.writeLong(fingerprint);
+        writeNumber(strings.size(), out);
+        for (final String string : strings) {
+            final byte[] bytes = string.getBytes(UTF_8);
+            writeNumber(bytes.length, out);
+            out.write(bytes);
+        }
+        tree.writeTo(out);
+        out.flush();
+    }
+
+    private void writeBlock(final Block block, final DataOutputStream out)
+            throws IOException {
+        final List<Command> commands = block.getChildren().getChildren();
+        writeNumber(commands.size(), out);
+        for (final Command command : commands) {
+            writeString(command.getName(), out);
+            final ScriptCoordinate coordinate = command.getCoordinate();
+            if (coordinate == null) {
+                writeNumber(ABSENT, out);
+            } else {
+                writeNumber(PRESENT, out);
+                writeNumber(coordinate.getStartLineNumber(), out);
+                writeNumber(coordinate.getStartColumnNumber(), out);
+                writeNumber(coordinate.getEndLineNumber(), out);
+                writeNumber(coordinate.getEndColumnNumber(), out);
+            }
+            writeArguments(command.getArguments(), out);
+            final Block child = command.getBlock();
+            if (child == null) {
+                writeNumber(ABSENT, out);
+            } else {
+                writeNumber(PRESENT, out);
+                writeBlock(child, out);
+            }
+        }
+    }
+
+    private void writeArguments(final Arguments arguments,
+            final DataOutputStream out) throws IOException {
+        if (arguments == null) {
+            writeNumber(ABSENT, out);
+            return;
+        }
+        writeNumber(PRESENT, out);
+        final List<Argument> argumentList = arguments.getArgumentList();
+        writeNumber(argumentList.size(), out);
+        for (final Argument argument : argumentList) {
+            if (argument instanceof StringListArgument) {
+                final List<String> list = ((StringListArgument) argument)
+                        .getList();
+                writeNumber(STRING_LIST, out);
+                writeNumber(list.size(), out);
+                for (final String string : list) {
+                    writeString(string, out);
+                }
+            } else if (argument instanceof TagArgument) {
+                writeNumber(TAG, out);
+                writeString(((TagArgument) argument).getTag(), out);
+            } else if (argument instanceof NumberArgument) {
+                writeNumber(NUMBER, out);
+                writeNumber(((NumberArgument) argument).getInteger()
+                        .intValue(), out);
+            } else {
+                throw new IOException("Cannot serialize argument " + argument);
+            }
+        }
+        final TestList testList = arguments.getTestList();
+        if (testList == null) {
+            writeNumber(ABSENT, out);
+        } else {
+            writeNumber(PRESENT, out);
+            final List<Test> tests = testList.getTests();
+            writeNumber(tests.size(), out);
+            for (final Test test : tests) {
+                writeString(test.getName(), out);
+                writeArguments(test.getArguments(), out);
+            }
+        }
+    }
+
+    private void writeString(final String string, final DataOutputStream out)
+            throws IOException {
+        Integer index = indexes.get(string);
+        if (index == null) {
+            index = Integer.valueOf(strings.size());
+            strings.add(string);
+            indexes.put(string, index);
+        }
+        writeNumber(index.intValue(), out);
+    }
+
+    /**
+     * Writes an int as an unsigned variable length integer, seven bits per
+     * byte with the high bit set on all but the last byte.
+     */
+    private static void writeNumber(int number, final DataOutputStream out)
+            throws IOException {
+        while ((number & ~0x7F) != 0) {
+            out.writeByte((number & 0x7F) | 0x80);
+            number >>>= 7;
+        }
+        out.writeByte(number);
+    }
+
+    private CompiledScript readScript(final DataInputStream in,
+            final long fingerprint, final Log log) throws IOException,
+            SieveException {
+        this.log = log;
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compiled Sieve script");
+        }
+        final int version = readNumber(in);
+        if (version != VERSION) {
+            throw new SieveException("Compiled script format version "
+                    + version + " is not supported. Expected version "
+                    + VERSION + ".");
+        }
+        if (in.readLong() != fingerprint) {
+            throw new SieveException(
+                    "Compiled script was validated against different extensions or implementations.");
+        }
+        final int count = readLength(in);
+        for (int i = 0; i < count; i++) {
+            strings.add(new String(readBytes(in, readLength(in)), UTF_8));
+        }
+        return new CompiledScript(readBlock(in));
+    }
+
+    private Block readBlock(final DataInputStream in) throws IOException {
+        final int count = readLength(in);
+        final List<Command> commands = new ArrayList<Command>(presize(count));
+        for (int i = 0; i < count; i++) {
+            final String name = readString(in);
+            ScriptCoordinate coordinate = null;
+            if (readPresence(in)) {
+                coordinate = new ScriptCoordinate(readNumber(in),
+                        readNumber(in), readNumber(in), readNumber(in));
+                coordinate.setLog(log);
+            }
+            final Arguments arguments = readArguments(in);
+            final Block block = readPresence(in) ? readBlock(in) : null;
+            commands.add(new Command(name, arguments, block, coordinate));
+        }
+        return new Block(new Commands(commands));
+    }
+
+    private Arguments readArguments(final DataInputStream in)
+            throws IOException {
+        if (!readPresence(in)) {
+            return null;
+        }
+        final int count = readLength(in);
+        final List<Argument> argumentList = new ArrayList<Argument>(
+                presize(count));
+        for (int i = 0; i < count; i++) {
+            final int type = readNumber(in);
+            switch (type) {
+            case STRING_LIST:
+                final int size = readLength(in);
+                final List<String> list = new ArrayList<String>(presize(size));
+                for (int j = 0; j < size; j++) {
+                    list.add(readString(in));
+                }
+                argumentList.add(new StringListArgument(list));
+                break;
+            case TAG:
+                argumentList.add(new TagArgument(readString(in)));
+                break;
+            case NUMBER:
+                argumentList.add(new NumberArgument(Integer
+                        .valueOf(readNumber(in))));
+                break;
+            default:
+                throw new IOException("Unknown argument type " + type);
+            }
+        }
+        TestList testList = null;
+        if (readPresence(in)) {
+            final int size = readLength(in);
+            final List<Test> tests = new ArrayList<Test>(presize(size));
+            for (int i = 0; i < size; i++) {
+                final String name = readString(in);
+                tests.add(new Test(name, readArguments(in)));
+            }
+            testList = new TestList(tests);
+        }
+        return new Arguments(argumentList, testList);
+    }
+
+    private boolean readPresence(final DataInputStream in) throws IOException {
+        final int presence = readNumber(in);
+        if (presence == PRESENT) {
+            return true;
+        } else if (presence == ABSENT) {
+            return false;
+        }
+        throw new IOException("Malformed compiled script");
+    }
+
+    private String readString(final DataInputStream in) throws IOException {
+        final int index = readNumber(in);
+        if (index < 0 || index >= strings.size()) {
+            throw new IOException("Malformed compiled script");
+        }
+        return strings.get(index);
+    }
+
+    /**
+     * Reads the given number of bytes, in chunks when there are many.
+     */
+    private static byte[] readBytes(final DataInputStream in, final int length)
+            throws IOException {
+        if (length <= CHUNK) {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK);
+        final byte[] chunk = new byte[CHUNK];
+        int remaining = length;
+        while (remaining > 0) {
+            final int size = Math.min(remaining, CHUNK);
+            in.readFully(chunk, 0, size);
+            out.write(chunk, 0, size);
+            remaining -= size;
+        }
+        return out.toByteArray();
+    }
+
+    private static int presize(final int count) {
+        return Math.min(count, CHUNK);
+    }
+
+    private static int readLength(final DataInputStream in) throws IOException {
+        final int length = readNumber(in);
+        if (length < 0) {
+            throw new IOException("Malformed compiled script");
+        }
+        return length;
+    }
+
+    private static int readNumber(final DataInputStream in) throws IOException {
+        int number = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int next = in.readUnsignedByte();
+            number |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return number;
+            }
+        }
+        throw new IOException("Malformed compiled script");
+    }
+}
@@ -19,12 +19,29 @@
 
 package org.apache.jsieve;
 
+import java.util.Arrays;
+
 /**
+ * <p>
  * Thread singleton class ConditionManager manages Conditional Commands during a
  * Sieve evaluation.
+ * </p>
+ * <p>
+ * The Commands in the Block of a Conditional Command are related to each other
+ * but not to the Commands around it. A Conditional Command therefore calls
+ * {@link #push()} before executing its Block, which saves and then resets the
+ * state, and {@link #pop()} afterwards, which restores the saved state. The
+ * state of the enclosing Blocks is held on a stack rather than in a new
+ * ConditionManager for each Block.
+ * </p>
  */
 public class ConditionManager {
 
+    /**
+     * Initial capacity of the stack of saved states
+     */
+    private static final int INITIAL_DEPTH = 8;
+
     /**
      * Is an Else Condition allowed
      */
@@ -35,6 +52,21 @@ public class ConditionManager {
      */
     private boolean fieldTestResult;
 
+    /**
+     * The saved elseAllowed of each enclosing Block
+     */
+    private boolean[] savedElseAllowed = new boolean[INITIAL_DEPTH];
+
+    /**
+     * The saved testResult of each enclosing Block
+     */
+    private boolean[] savedTestResult = new boolean[INITIAL_DEPTH];
+
+    /**
+     * The number of saved states
+     */
+    private int depth;
+
     /**
      * Constructor for ConditionManager.
      */
@@ -43,6 +75,39 @@ public class ConditionManager {
         initialize();
     }
 
+    /**
+     * Method push saves the current state then initializes the receiver for
+     * the Commands of a nested Block.
+     */
+    public void push() {
+        if (depth == savedElseAllowed.length) {
+            savedElseAllowed = Arrays.copyOf(savedElseAllowed, depth * 2);
+            savedTestResult = Arrays.copyOf(savedTestResult, depth * 2);
+        }
+        savedElseAllowed[depth] = isElseAllowed();
+        savedTestResult[depth] = isTestResult();
+        depth++;
+        initialize();
+    }
+
+    /**
+     * Method pop restores the state saved by the matching {@link #push()}.
+     */
+    public void pop() {
+        depth--;
+        setElseAllowed(savedElseAllowed[depth]);
+        setTestResult(savedTestResult[depth]);
+    }
+
+    /**
+     * Method reset discards any saved states and initializes the receiver, so
+     * that it may be reused by another evaluation.
+     */
+    public void reset() {
+        depth = 0;
+        initialize();
+    }
+
     /**
      * Initialize the receiver.
      */
@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 /**
  * <p>
@@ -97,6 +98,16 @@ public class ConfigurationManager {
      */
     private int initialConcurrencyLevel = DEFAULT_INITIAL_CONCURRENCY_LEVEL;
 
+    /**
+     * Evaluations after which a compiled script is optimized, 0 for never.
+     */
+    private int optimizationThreshold = 0;
+
+    /**
+     * Runs the optimization of compiled scripts, null for the default.
+     */
+    private Executor optimizationExecutor;
+
     private static final Log LOG = LogFactory.getLog("org.apache.jsieve");
 
     private Log log = LOG;
@@ -139,6 +150,48 @@ public class ConfigurationManager {
         this.initialConcurrencyLevel = initialConcurrencyLevel;
     }
 
+    /**
+     * Gets the number of evaluations after which the factories built optimize
+     * a compiled script.
+     *
+     * @return evaluations, or 0 when compiled scripts are never optimized
+     */
+    public int getOptimizationThreshold() {
+        return optimizationThreshold;
+    }
+
+    /**
+     * Sets the number of evaluations after which the factories built optimize
+     * a compiled script in the background. Scripts evaluated less often are
+     * only ever interpreted, and so take no more memory than their Block.
+     *
+     * @param optimizationThreshold evaluations, or 0 to never optimize
+     * compiled scripts
+     * @see SieveFactory#optimize(CompiledScript)
+     */
+    public void setOptimizationThreshold(int optimizationThreshold) {
+        this.optimizationThreshold = optimizationThreshold;
+    }
+
+    /**
+     * Gets the executor which runs the optimization of compiled scripts.
+     *
+     * @return executor, or null when a shared daemon thread is used
+     */
+    public Executor getOptimizationExecutor() {
+        return optimizationExecutor;
+    }
+
+    /**
+     * Sets the executor which runs the optimization of compiled scripts.
+     *
+     * @param optimizationExecutor executor, or null to use a shared low
+     * priority daemon thread
+     */
+    public void setOptimizationExecutor(Executor optimizationExecutor) {
+        this.optimizationExecutor = optimizationExecutor;
+    }
+
 
     /**
      * <p>
@@ -294,6 +347,7 @@ public class ConfigurationManager {
 
     public SieveFactory build() {
         return new SieveFactory(getCommandManager(), getComparatorManager(),
-                getTestManager(), getLog());
+                getTestManager(), getLog(), getOptimizationThreshold(),
+                getOptimizationExecutor());
     }
 }
@@ -58,6 +58,17 @@ public class NumberArgument implements Argument {
         setValue(token);
     }
 
+    /**
+     * Constructor for NumberArgument.
+     * 
+     * @param number
+     *            the absolute value, after applying any quantifier
+     */
+    public NumberArgument(Integer number) {
+        this();
+        setValue(number);
+    }
+
     /**
      * Sets the value of the reciver to an Integer.
      * 
@@ -19,6 +19,8 @@
 
 package org.apache.jsieve;
 
+import java.util.Arrays;
+
 import org.apache.commons.logging.Log;
 
 /**
@@ -27,6 +29,18 @@ import org.apache.commons.logging.Log;
  */
 public abstract class SieveContext {
 
+    private static final byte UNKNOWN_RESULT = 0;
+
+    private static final byte FALSE_RESULT = 1;
+
+    private static final byte TRUE_RESULT = 2;
+
+    /**
+     * Results of tests remembered during the current evaluation, indexed by
+     * the slot of the test.
+     */
+    private byte[] testResults = new byte[0];
+
     /**
      * Gets the script position of the current operation.
      * 
@@ -83,4 +97,43 @@ public abstract class SieveContext {
      * @return log, not null
      */
     public abstract Log getLog();
+
+    /**
+     * Gets the result of a test remembered during the current evaluation.
+     * Compiled scripts remember the results of tests repeated within them.
+     * 
+     * @param slot
+     *            identifies the test within the script being evaluated
+     * @return the result, or null when not remembered
+     */
+    public Boolean getTestResult(final int slot) {
+        if (slot >= testResults.length || testResults[slot] == UNKNOWN_RESULT) {
+            return null;
+        }
+        return Boolean.valueOf(testResults[slot] == TRUE_RESULT);
+    }
+
+    /**
+     * Remembers the result of a test for the rest of the current evaluation.
+     * 
+     * @param slot
+     *            identifies the test within the script being evaluated
+     * @param result
+     *            the result of the test
+     */
+    public void setTestResult(final int slot, final boolean result) {
+        if (slot >= testResults.length) {
+            testResults = Arrays.copyOf(testResults, Math.max(slot + 1,
+                    testResults.length * 2));
+        }
+        testResults[slot] = result ? TRUE_RESULT : FALSE_RESULT;
+    }
+
+    /**
+     * Forgets every remembered test result. Called when evaluation starts and
+     * whenever the mail may have been changed.
+     */
+    public void forgetTestResults() {
+        Arrays.fill(testResults, UNKNOWN_RESULT);
+    }
 }
@@ -19,15 +19,31 @@
 
 package org.apache.jsieve;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
+import org.apache.jsieve.compiler.ScriptCompiler;
+import org.apache.jsieve.compiler.ScriptOptimizer;
+import org.apache.jsieve.exception.LookupException;
 import org.apache.jsieve.exception.SieveException;
 import org.apache.jsieve.exception.StopException;
+import org.apache.jsieve.mail.Action;
 import org.apache.jsieve.mail.ActionKeep;
 import org.apache.jsieve.mail.MailAdapter;
+import org.apache.jsieve.parser.CharSequenceReader;
+import org.apache.jsieve.parser.generated.ASTstart;
 import org.apache.jsieve.parser.generated.Node;
 import org.apache.jsieve.parser.generated.ParseException;
 import org.apache.jsieve.parser.generated.SieveParser;
@@ -44,13 +60,28 @@ import org.apache.jsieve.parser.generated.SimpleNode;
  * means the script is lexically and gramatically valid according to RFC 3028,
  * section 8. The result is the start node of the parsed Sieve script. The start
  * node is resuable. Typically it is stored for reuse in all subsequent
- * evaluations of the script. </dd>
+ * evaluations of the script. Scripts already in memory may be parsed from a
+ * {@link CharSequence}, {@link Reader} or {@link ByteBuffer} instead. </dd>
  * <dt>{@link #evaluate(MailAdapter, Node)}</dt>
  * <dd> Evaluate an RFC 822 compliant mail message wrapped in a {@link MailAdapter}
  * against the parse result referenced by the start node from the Parse
  * operation above. As evaluation proceeds a List of {@link org.apache.jsieve.mail.Action}s 
  * is added to the MailAdapter. At the end of evaluation, each Action in the List is executed in
  * the order they were added. </dd>
+ * <dt>{@link #compile(InputStream)}</dt>
+ * <dd> Parse a Sieve script and build its Commands, Tests and Arguments once
+ * into a reusable {@link CompiledScript}. Evaluating a compiled script only
+ * executes it. Typically the compiled script is stored for reuse in all
+ * subsequent evaluations of the script. A compiled script may be saved by
+ * {@link #serialize(CompiledScript, OutputStream)} and loaded again, without
+ * parsing, by {@link #deserialize(InputStream)}. Scripts evaluated often may
+ * be compiled further by {@link #optimize(CompiledScript)}. A factory
+ * constructed with an optimization threshold does so itself, in the
+ * background, for each compiled script evaluated at least that many
+ * times. </dd>
+ * <dt>{@link #evaluate(MailAdapter, CompiledScript)}</dt>
+ * <dd> Evaluate a mail message against a compiled script. Actions are added
+ * and then executed as for evaluation of a start node. </dd>
  * <dt>{@link #interpret(MailAdapter, InputStream)}</dt>
  * <dd>A concatenation of parse and evaluate. Useful for testing, but generally
  * the parse result should be stored for reuse in subsequent evaluations. </dd>
@@ -61,11 +92,27 @@ import org.apache.jsieve.parser.generated.SimpleNode;
  * An instance can be safely accessed concurrently by multiple threads
  * provided that the managers used to construct the instance 
  * (when {@link #SieveFactory(CommandManager, ComparatorManager, TestManager, Log)} 
- * is called) are thread safe.
+ * is called) are thread safe. Each thread reuses its own {@link SieveContext}
+ * for successive evaluations, so a context must not be retained once the
+ * evaluation which set it on the mail has completed.
  * </p>
  */
 public class SieveFactory {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Commands which scripts may use without require */
+    private static final String[] STANDARD_COMMANDS = { "if", "elsif",
+            "else", "require", "stop", "keep", "discard", "redirect" };
+
+    /** Tests which scripts may use without require */
+    private static final String[] STANDARD_TESTS = { "address", "allof",
+            "anyof", "exists", "false", "header", "not", "size", "true" };
+
+    /** Comparators which scripts may use without require */
+    private static final String[] STANDARD_COMPARATORS = { "i;octet",
+            "i;ascii-casemap" };
+
     private final CommandManager commandManager;
 
     private final ComparatorManager comparatorManager;
@@ -74,17 +121,54 @@ public class SieveFactory {
 
     private final Log log;
 
+    /** Evaluations after which a compiled script is optimized, 0 for never */
+    private final int optimizationThreshold;
+
+    /** Runs the optimization of compiled scripts */
+    private final Executor optimizationExecutor;
+
+    /** The evaluation state reused by successive evaluations on each thread */
+    private final ThreadLocal<Evaluation> evaluations = new ThreadLocal<Evaluation>() {
+        protected Evaluation initialValue() {
+            return new Evaluation();
+        }
+    };
+
     /**
      * Constructor for SieveFactory.
      */
     public SieveFactory(final CommandManager commandManager,
             final ComparatorManager comparatorManager,
             final TestManager testManager, final Log log) {
+        this(commandManager, comparatorManager, testManager, log, 0, null);
+    }
+
+    /**
+     * Constructor for a SieveFactory which optimizes the compiled scripts
+     * evaluated often. Each compiled script is interpreted until it has been
+     * evaluated <code>optimizationThreshold</code> times. It is then optimized,
+     * as by {@link #optimize(CompiledScript)}, by a task passed to the
+     * executor, and executed in its optimized form once the task completes.
+     * 
+     * @param optimizationThreshold
+     *            evaluations after which a compiled script is optimized, or 0
+     *            to never optimize compiled scripts
+     * @param optimizationExecutor
+     *            runs the optimization tasks, or null to run them on a shared
+     *            low priority daemon thread
+     */
+    public SieveFactory(final CommandManager commandManager,
+            final ComparatorManager comparatorManager,
+            final TestManager testManager, final Log log,
+            final int optimizationThreshold,
+            final Executor optimizationExecutor) {
         super();
         this.commandManager = commandManager;
         this.comparatorManager = comparatorManager;
         this.testManager = testManager;
         this.log = log;
+        this.optimizationThreshold = optimizationThreshold;
+        this.optimizationExecutor = optimizationExecutor;
     }
 
     /**
@@ -99,9 +183,53 @@ public class SieveFactory {
      * @throws ParseException
      */
     public Node parse(InputStream inputStream) throws ParseException {
+        return parse(new SieveParser(inputStream, "UTF-8"));
+    }
+
+    /**
+     * Method parse parses a Sieve script read as characters. Unlike
+     * {@link #parse(InputStream)} no bytes are decoded, so scripts already
+     * held as text need not be encoded first.
+     * 
+     * @param reader not null
+     * @return Node
+     * @throws ParseException
+     * @see #parse(InputStream)
+     */
+    public Node parse(Reader reader) throws ParseException {
+        return parse(new SieveParser(reader));
+    }
+
+    /**
+     * Method parse parses a Sieve script held in memory as text. The
+     * characters are read in place.
+     * 
+     * @param script not null
+     * @return Node
+     * @throws ParseException
+     * @see #parse(InputStream)
+     */
+    public Node parse(CharSequence script) throws ParseException {
+        return parse(new CharSequenceReader(script));
+    }
+
+    /**
+     * Method parse parses a UTF-8 encoded Sieve script held in a buffer, for
+     * example a memory mapped file. The remaining bytes are decoded in a single
+     * pass and the position of the buffer is left unchanged.
+     * 
+     * @param script not null
+     * @return Node
+     * @throws ParseException
+     * @see #parse(InputStream)
+     */
+    public Node parse(ByteBuffer script) throws ParseException {
+        return parse(UTF_8.decode(script.duplicate()));
+    }
+
+    private Node parse(final SieveParser parser) throws ParseException {
         try {
-            final SimpleNode node = new SieveParser(inputStream, "UTF-8")
-                    .start();
+            final SimpleNode node = parser.start();
             SieveValidationVisitor visitor = new SieveValidationVisitor(
                     commandManager, testManager, comparatorManager);
             node.jjtAccept(visitor, null);
@@ -121,6 +249,164 @@ public class SieveFactory {
         }
     }
 
+    /**
+     * Method compile parses a Sieve script and builds the executable form of
+     * the parse result. The compiled script is reusable. Typically it is stored
+     * for reuse in subsequent evaluations of the script.
+     * 
+     * @param inputStream
+     * @return CompiledScript, not null
+     * @throws ParseException
+     */
+    public CompiledScript compile(InputStream inputStream) throws ParseException {
+        final Node startNode = parse(inputStream);
+        try {
+            return compile(startNode);
+        } catch (SieveException ex) {
+            if (log.isErrorEnabled())
+                log.error("Compilation failed. Reason: " + ex.getMessage());
+            if (log.isDebugEnabled())
+                log.debug("Compilation failed.", ex);
+            throw new ParseException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Method compile builds the executable form of a parsed Sieve script.
+     * Constant tests, commands which can never run and blocks which always
+     * run are simplified away, as described by {@link ScriptOptimizer}.
+     * 
+     * @param startNode
+     *            the start node returned by {@link #parse(InputStream)}, not null
+     * @return CompiledScript, not null
+     * @throws SieveException
+     */
+    public CompiledScript compile(Node startNode) throws SieveException {
+        if (!(startNode instanceof ASTstart))
+            throw new SieveException("Expecting an instance of "
+                    + ASTstart.class.getName()
+                    + " as start node, received an instance of "
+                    + (startNode == null ? "<null>" : startNode.getClass().getName())
+                    + ".");
+        final SieveContext context = new BaseSieveContext(commandManager,
+                comparatorManager, testManager, log);
+        final Block block = new SieveParserVisitorImpl(context).toBlock((ASTstart) startNode);
+        final ScriptOptimizer optimizer = new ScriptOptimizer(context);
+        final Block optimized = optimizer.optimize(block);
+        if (log.isDebugEnabled() && optimized != block)
+            log.debug("Simplified script: " + optimizer.getReport());
+        return new CompiledScript(optimized);
+    }
+
+    /**
+     * <p>
+     * Method optimize compiles a script into a form which is faster to
+     * evaluate. Conditional commands become direct branches and the standard
+     * tests are resolved once, so that no lookups or argument parsing happen
+     * for each mail. Anything which cannot be compiled, such as extensions,
+     * is interpreted as before.
+     * </p>
+     * <p>
+     * Optimizing takes longer than compiling, so it pays for scripts which
+     * are evaluated often.
+     * </p>
+     * 
+     * @param script
+     *            not null
+     * @return optimized script, not null
+     * @see ScriptCompiler
+     */
+    public CompiledScript optimize(CompiledScript script) {
+        final Block block = script.getBlock();
+        return new CompiledScript(block, compileOptimized(block));
+    }
+
+    /**
+     * Compiles the optimized form of a Block.
+     * 
+     * @param block
+     *            not null
+     * @return Executable, not null
+     */
+    private Executable compileOptimized(final Block block) {
+        final SieveContext context = new BaseSieveContext(commandManager,
+                comparatorManager, testManager, log);
+        return new ScriptCompiler(context).compile(block);
+    }
+
+    /**
+     * Counts an evaluation of a compiled script and, when the script reaches
+     * the optimization threshold, submits its optimization.
+     * 
+     * @param script
+     *            not null
+     */
+    private void countExecution(final CompiledScript script) {
+        if (optimizationThreshold > 0 && !script.isOptimized()
+                && script.countExecution() == optimizationThreshold) {
+            final Executor executor = optimizationExecutor == null ? DefaultOptimizer.EXECUTOR
+                    : optimizationExecutor;
+            try {
+                executor.execute(new Optimization(script));
+            } catch (RejectedExecutionException ex) {
+                if (log.isWarnEnabled())
+                    log.warn("Optimization rejected. Reason: "
+                            + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Method serialize writes a compact binary form of a compiled script. The
+     * result may be stored alongside the script source and loaded by
+     * {@link #deserialize(InputStream)}, which is much faster than parsing
+     * the source again.
+     * </p>
+     * <p>
+     * The binary form records the extensions of this factory. It can only be
+     * loaded by a factory with the same extensions.
+     * </p>
+     * 
+     * @param script
+     *            not null
+     * @param outputStream
+     *            not null, flushed but not closed
+     * @throws IOException
+     */
+    public void serialize(CompiledScript script, OutputStream outputStream)
+            throws IOException {
+        CompiledScriptSerializer.write(script, CompiledScriptSerializer
+                .fingerprint(getImplementations()), outputStream);
+    }
+
+    /**
+     * <p>
+     * Method deserialize loads a compiled script written by
+     * {@link #serialize(CompiledScript, OutputStream)} without lexing, parsing
+     * or validating its source.
+     * </p>
+     * <p>
+     * A script written by a different format version, or by a factory with
+     * different extensions or implementations, is rejected. The caller should then compile the
+     * source again, and may serialize the result to replace the stale form.
+     * </p>
+     * 
+     * @param inputStream
+     *            not null, not closed
+     * @return CompiledScript, not null
+     * @throws IOException
+     *             when the binary form cannot be read or is malformed
+     * @throws SieveException
+     *             when the binary form is stale
+     */
+    public CompiledScript deserialize(InputStream inputStream)
+            throws IOException, SieveException {
+        return CompiledScriptSerializer.read(inputStream,
+                CompiledScriptSerializer.fingerprint(getImplementations()),
+                log);
+    }
+
     /**
      * <p>
      * Method evaluate evaluates an RFC 822 compliant mail message wrapped in a
@@ -143,13 +429,13 @@ public class SieveFactory {
      */
     public void evaluate(MailAdapter mail, Node startNode)
             throws SieveException {
-        final SieveContext context = new BaseSieveContext(commandManager,
-                comparatorManager, testManager, log);
+        final Evaluation evaluation = openEvaluation();
+        final SieveContext context = evaluation.context;
         try {
             // Ensure that the context is set on the mail
             mail.setContext(context);
             
-            SieveParserVisitor visitor = new SieveParserVisitorImpl(context);
+            SieveParserVisitor visitor = evaluation.visitor;
             try {
                 // Evaluate the Nodes
                 startNode.jjtAccept(visitor, mail);
@@ -164,15 +450,44 @@ public class SieveFactory {
                 throw ex;
             }
     
-            // If after evaluating all of the nodes or stopping, implicitKeep is
-            // still
-            // in effect, add a Keep to the list of Actions.
-            if (context.getCommandStateManager().isImplicitKeep())
-                mail.addAction(new ActionKeep());
-    
-            // Execute the List of Actions
+            executeActions(mail, context);
+        } finally {
+            // Tidy up by ensuring that a reference to the context is not held by the adapter.
+            // This prevents leaks when the adapter stores the context in a thread local variable.
+            mail.setContext(null);
+            evaluation.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Method evaluate evaluates an RFC 822 compliant mail message wrapped in a
+     * MailAdapter by executing a compiled script. As evaluation proceeds a List
+     * of Actions is added to the MailAdapter. Implicit keep and the execution
+     * of the accumulated Actions follow the same rules as
+     * {@link #evaluate(MailAdapter, Node)}.
+     * </p>
+     * 
+     * @param mail
+     * @param script
+     *            compiled by {@link #compile(InputStream)}, not null
+     * @throws SieveException
+     */
+    public void evaluate(MailAdapter mail, CompiledScript script)
+            throws SieveException {
+        final Evaluation evaluation = openEvaluation();
+        final SieveContext context = evaluation.context;
+        try {
+            // Ensure that the context is set on the mail
+            mail.setContext(context);
+            
+            countExecution(script);
             try {
-                mail.executeActions();
+                // Execute the Commands
+                script.execute(mail, context);
+    
+            } catch (StopException ex) {
+                // Stop is OK
             } catch (SieveException ex) {
                 if (log.isErrorEnabled())
                     log.error("Evaluation failed. Reason: " + ex.getMessage());
@@ -180,10 +495,132 @@ public class SieveFactory {
                     log.debug("Evaluation failed.", ex);
                 throw ex;
             }
+    
+            executeActions(mail, context);
         } finally {
             // Tidy up by ensuring that a reference to the context is not held by the adapter.
             // This prevents leaks when the adapter stores the context in a thread local variable.
             mail.setContext(null);
+            evaluation.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Method evaluate evaluates one mail against several compiled scripts,
+     * such as the scripts of each recipient of a mail, and answers the Actions
+     * of each script rather than executing them.
+     * </p>
+     * <p>
+     * The scripts see a view of the mail, so anything the mail derives from
+     * the message during evaluation, such as a header index or decoded body
+     * parts, is shared by all of them. {@link MailAdapter#setContext(SieveContext)}
+     * is called once at the start and once at the end of the batch. Actions
+     * are collected for each script in turn and are never added to the mail
+     * itself, nor executed. A Keep is added to the Actions of each script that
+     * leaves implicit keep in effect.
+     * </p>
+     * <p>
+     * A script that fails is logged and answers null in place of its Actions,
+     * so that one bad script does not prevent delivery to the other
+     * recipients. The caller decides how to handle the failure.
+     * </p>
+     * 
+     * @param mail not null
+     * @param scripts compiled by {@link #compile(InputStream)}, not null
+     * @return the Actions of each script in the order of the scripts, or null
+     *         for each script whose evaluation failed
+     * @throws SieveException
+     */
+    public List<List<Action>> evaluate(MailAdapter mail,
+            List<CompiledScript> scripts) throws SieveException {
+        final List<List<Action>> results = new ArrayList<List<Action>>(scripts
+                .size());
+        final ActionCollector view = ActionCollector.of(mail);
+        final Evaluation evaluation = openEvaluation();
+        final BaseSieveContext context = evaluation.context;
+        try {
+            for (final CompiledScript script : scripts) {
+                if (results.isEmpty()) {
+                    // Ensure that the context is set on the mail
+                    mail.setContext(context);
+                } else {
+                    context.reset();
+                }
+                final List<Action> actions = new ArrayList<Action>();
+                view.setActions(actions);
+                countExecution(script);
+                try {
+                    // Execute the Commands
+                    script.execute(view, context);
+
+                } catch (StopException ex) {
+                    // Stop is OK
+                } catch (SieveException ex) {
+                    if (log.isErrorEnabled())
+                        log.error("Evaluation failed. Reason: "
+                                + ex.getMessage());
+                    if (log.isDebugEnabled())
+                        log.debug("Evaluation failed.", ex);
+                    results.add(null);
+                    continue;
+                }
+
+                if (context.getCommandStateManager().isImplicitKeep())
+                    actions.add(new ActionKeep());
+                results.add(actions);
+            }
+        } finally {
+            // Tidy up by ensuring that a reference to the context is not held by the adapter.
+            mail.setContext(null);
+            evaluation.close();
+        }
+        return results;
+    }
+
+    /**
+     * Answers the evaluation state of the current thread, reset for a new
+     * evaluation. An evaluation nested within another on the same thread,
+     * such as one started while executing the Actions of a mail, is given
+     * new state instead.
+     * 
+     * @return Evaluation, not null, to be closed once evaluation completes
+     */
+    private Evaluation openEvaluation() {
+        final Evaluation evaluation = evaluations.get();
+        if (evaluation.open) {
+            return new Evaluation();
+        }
+        evaluation.open = true;
+        evaluation.context.reset();
+        return evaluation;
+    }
+
+    /**
+     * Adds a Keep if implicit keep is still in effect then executes the
+     * List of Actions accumulated by the mail.
+     * 
+     * @param mail not null
+     * @param context not null
+     * @throws SieveException
+     */
+    private void executeActions(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        // If after evaluating all of the nodes or stopping, implicitKeep is
+        // still
+        // in effect, add a Keep to the list of Actions.
+        if (context.getCommandStateManager().isImplicitKeep())
+            mail.addAction(new ActionKeep());
+
+        // Execute the List of Actions
+        try {
+            mail.executeActions();
+        } catch (SieveException ex) {
+            if (log.isErrorEnabled())
+                log.error("Evaluation failed. Reason: " + ex.getMessage());
+            if (log.isDebugEnabled())
+                log.debug("Evaluation failed.", ex);
+            throw ex;
         }
     }
 
@@ -218,4 +655,119 @@ public class SieveFactory {
         extensions.addAll(tests);
         return extensions;
     }
+
+    /**
+     * Answers each supported extension and standard command, test and
+     * comparator with the name of the class implementing it, so that a
+     * compiled script is rejected after any of them is remapped.
+     * 
+     * @return not null
+     */
+    private List<String> getImplementations() {
+        final List<String> implementations = new ArrayList<String>();
+        final List<String> commands = new ArrayList<String>(Arrays.asList(
+                STANDARD_COMMANDS));
+        commands.addAll(commandManager.getExtensions());
+        for (final String name : commands) {
+            String className = null;
+            try {
+                className = commandManager.getCommand(name).getClass()
+                        .getName();
+            } catch (LookupException e) {
+                // Recorded as missing
+            }
+            implementations.add("command " + name + "=" + className);
+        }
+        final List<String> tests = new ArrayList<String>(Arrays.asList(
+                STANDARD_TESTS));
+        tests.addAll(testManager.getExtensions());
+        for (final String name : tests) {
+            String className = null;
+            try {
+                className = testManager.getTest(name).getClass().getName();
+            } catch (LookupException e) {
+                // Recorded as missing
+            }
+            implementations.add("test " + name + "=" + className);
+        }
+        final List<String> comparators = new ArrayList<String>(Arrays
+                .asList(STANDARD_COMPARATORS));
+        comparators.addAll(comparatorManager.getExtensions());
+        for (final String name : comparators) {
+            String className = null;
+            try {
+                className = comparatorManager.getComparator(name).getClass()
+                        .getName();
+            } catch (LookupException e) {
+                // Recorded as missing
+            }
+            implementations.add("comparator " + name + "=" + className);
+        }
+        return implementations;
+    }
+
+    /**
+     * The context and visitor of an evaluation. Each thread reuses the same
+     * instance for successive evaluations rather than allocating them for
+     * every mail.
+     */
+    private final class Evaluation {
+
+        final BaseSieveContext context = new BaseSieveContext(commandManager,
+                comparatorManager, testManager, log);
+
+        final SieveParserVisitor visitor = new SieveParserVisitorImpl(context);
+
+        /** Is an evaluation using this state */
+        boolean open;
+
+        void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Optimizes a compiled script in place.
+     */
+    private final class Optimization implements Runnable {
+
+        private final CompiledScript script;
+
+        Optimization(final CompiledScript script) {
+            this.script = script;
+        }
+
+        public void run() {
+            try {
+                script.promote(compileOptimized(script.getBlock()));
+                if (log.isDebugEnabled())
+                    log.debug("Optimized script after " + optimizationThreshold
+                            + " evaluations");
+            } catch (RuntimeException ex) {
+                // The script is still interpreted
+                if (log.isWarnEnabled())
+                    log.warn("Optimization failed. Reason: " + ex.getMessage());
+                if (log.isDebugEnabled())
+                    log.debug("Optimization failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * Holds the executor used when none is configured, which is only created
+     * once a script is first optimized.
+     */
+    private static final class DefaultOptimizer {
+
+        static final Executor EXECUTOR = Executors
+                .newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                "jsieve-optimizer");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+    }
 }
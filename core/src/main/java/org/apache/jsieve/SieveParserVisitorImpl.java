@@ -207,6 +207,22 @@ public class SieveParserVisitorImpl implements SieveParserVisitor {
                     + (data == null ? "<null>" : data.getClass().getName())
                     + ".");
 
+        final Block block = toBlock(node);
+        // Answer the result of executing the Block
+        return block.execute((MailAdapter) data, context);
+    }
+
+    /**
+     * Method toBlock translates the descendants of the start node into the
+     * implicit top level Block without executing it.
+     * 
+     * @param node
+     *            the start node, not null
+     * @return Block, not null
+     * @throws SieveException
+     */
+    @SuppressWarnings("unchecked")
+    public Block toBlock(ASTstart node) throws SieveException {
         // Start is an implicit Block
         // There will be one child, an instance of Commands
         List children = new ArrayList(node.jjtGetNumChildren());
@@ -214,8 +230,7 @@ public class SieveParserVisitorImpl implements SieveParserVisitor {
                 children)).get(0);
         Block block = new Block(commands);
         context.setCoordinate(node.getCoordinate());
-        // Answer the result of executing the Block
-        return block.execute((MailAdapter) data, context);
+        return block;
     }
 
     /**
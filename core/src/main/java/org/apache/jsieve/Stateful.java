@@ -0,0 +1,37 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve;
+
+/**
+ * <p>
+ * Marks a Command, Test or Comparator implementation whose instances hold
+ * state and so cannot be shared.
+ * </p>
+ * <p>
+ * By default, the managers create a single instance for each name and share
+ * it between all lookups and all threads. Implementations must therefore be
+ * thread safe and must not retain state between invocations. Extensions which
+ * cannot meet these conditions should implement this interface. A new instance
+ * is then created for every lookup.
+ * </p>
+ */
+public interface Stateful {
+
+}
@@ -54,6 +54,17 @@ public class TagArgument implements Argument {
         setTag(token);
     }
 
+    /**
+     * Constructor for TagArgument.
+     * 
+     * @param tag
+     *            the tag including the leading ":", not null
+     */
+    public TagArgument(String tag) {
+        this();
+        setTag(tag);
+    }
+
     /**
      * Method setTag.
      * 
@@ -22,6 +22,7 @@ package org.apache.jsieve;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.jsieve.exception.LookupException;
@@ -29,6 +30,11 @@ import org.apache.jsieve.tests.ExecutableTest;
 
 /**
  * <p>Maps Test names to configured Test implementation classes.</p>
+ * <p>
+ * Each name is resolved to its class once. Unless the class implements
+ * {@link Stateful}, a single instance is then shared by all lookups of that
+ * name. Changes to the mapping of names already resolved are not seen.
+ * </p>
  * <h4>Thread Safety</h4>
  * <p>
  * Instances may safely be accessed concurrently by multiple threads.
@@ -45,6 +51,12 @@ public class TestManagerImpl implements TestManager {
 
     private final ConcurrentMap<String, String> classNameMap;
 
+    /** Resolved test classes indexed by name */
+    private final ConcurrentMap<String, Class> classMap = new ConcurrentHashMap<String, Class>();
+
+    /** Shared test instances indexed by name */
+    private final ConcurrentMap<String, ExecutableTest> testMap = new ConcurrentHashMap<String, ExecutableTest>();
+
     /**
      * TestManager is instanciated with getInstance
      */
@@ -64,7 +76,9 @@ public class TestManagerImpl implements TestManager {
      * @throws LookupException
      */
     public Class lookup(String name) throws LookupException {
-        Class testClass;
+        Class testClass = classMap.get(name);
+        if (null != testClass)
+            return testClass;
 
         try {
             testClass = getClass().getClassLoader().loadClass(
@@ -75,13 +89,15 @@ public class TestManagerImpl implements TestManager {
         if (!ExecutableTest.class.isAssignableFrom(testClass))
             throw new LookupException("Class " + testClass.getName()
                     + " must implement " + ExecutableTest.class.getName());
+        classMap.putIfAbsent(name, testClass);
         return testClass;
     }
 
     /**
      * <p>
      * Method newInstance answers an instance of the class to which a Test name
-     * is mapped.
+     * is mapped. The instance is shared unless the class implements
+     * {@link Stateful}.
      * </p>
      * 
      * @param name -
@@ -90,8 +106,22 @@ public class TestManagerImpl implements TestManager {
      * @throws LookupException
      */
     public ExecutableTest getTest(String name) throws LookupException {
+        ExecutableTest test = testMap.get(name);
+        if (null == test) {
+            final Class testClass = lookup(name);
+            test = newInstance(testClass);
+            if (!Stateful.class.isAssignableFrom(testClass)) {
+                final ExecutableTest shared = testMap.putIfAbsent(name, test);
+                if (null != shared)
+                    test = shared;
+            }
+        }
+        return test;
+    }
+
+    private ExecutableTest newInstance(Class testClass) throws LookupException {
         try {
-            return (ExecutableTest) lookup(name).newInstance();
+            return (ExecutableTest) testClass.newInstance();
         } catch (InstantiationException e) {
             throw new LookupException(e.getMessage());
         } catch (IllegalAccessException e) {
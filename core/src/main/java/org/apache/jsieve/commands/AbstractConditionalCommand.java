@@ -40,7 +40,7 @@ public abstract class AbstractConditionalCommand extends AbstractControlCommand
     }
 
     /**
-     * Method execute executes a Block within the context of a new
+     * Method execute executes a Block within a new state of the
      * ConditionManager.
      * 
      * @param mail not null
@@ -51,16 +51,16 @@ public abstract class AbstractConditionalCommand extends AbstractControlCommand
      */
     protected Object execute(MailAdapter mail, Block block, SieveContext context)
             throws SieveException {
-        // Switch to a new ConditionManager
-        ConditionManager oldManager = context.getConditionManager();
-        context.setConditionManager(new ConditionManager());
+        // Switch to a new state
+        final ConditionManager manager = context.getConditionManager();
+        manager.push();
 
         try {
             // Execute the Block
             return block.execute(mail, context);
         } finally {
-            // Always restore the old ConditionManager
-            context.setConditionManager(oldManager);
+            // Always restore the old state
+            manager.pop();
         }
     }
 
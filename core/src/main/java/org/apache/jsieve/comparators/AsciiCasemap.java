@@ -26,6 +26,8 @@ import org.apache.jsieve.exception.SievePatternException;
  * comparator as defined by RFC2244, section 3.4 - "With this function the
  * values "hello" and "HELLO" have the same ordinal value and are considered
  * equal".
+ * Only ASCII letters are folded. Comparisons are made in place, without
+ * copying the strings compared.
  */
 public class AsciiCasemap implements Comparator {
 
@@ -40,16 +42,14 @@ public class AsciiCasemap implements Comparator {
      * @see org.apache.jsieve.comparators.Equals#equals(String, String)
      */
     public boolean equals(String string1, String string2) {
-        return ComparatorUtils.equals(string1.toUpperCase(), string2
-                .toUpperCase());
+        return ComparatorUtils.equalsIgnoreCase(string1, string2);
     }
 
     /**
      * @see org.apache.jsieve.comparators.Contains#contains(String, String)
      */
     public boolean contains(String container, String content) {
-        return ComparatorUtils.contains(container.toUpperCase(), content
-                .toUpperCase());
+        return ComparatorUtils.containsIgnoreCase(container, content);
     }
 
     /**
@@ -57,8 +57,7 @@ public class AsciiCasemap implements Comparator {
      */
     public boolean matches(String string, String glob)
             throws SievePatternException {
-        return ComparatorUtils
-                .matches(string.toUpperCase(), glob.toUpperCase());
+        return ComparatorUtils.matchesIgnoreCase(string, glob);
     }
 
 }
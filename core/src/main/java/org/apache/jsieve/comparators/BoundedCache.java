@@ -0,0 +1,99 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.comparators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map retaining at most a fixed number of entries, dropping the least
+ * recently used entry when full. Entries are spread over several segments,
+ * each locked separately, so that concurrent lookups seldom wait.
+ * <h4>Thread Safety</h4>
+ * <p>An instance may be safely accessed concurrently by multiple threads.</p>
+ */
+final class BoundedCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    /**
+     * @param maximumSize maximum number of entries retained, at least 
+     * one for each segment
+     */
+    @SuppressWarnings("unchecked")
+    BoundedCache(final int maximumSize) {
+        segments = new Segment[SEGMENTS];
+        final int segmentSize = Math.max(1, maximumSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<K, V>(segmentSize);
+        }
+    }
+
+    /**
+     * @param key not null
+     * @return the value, or null when not retained
+     */
+    V get(final K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * @param key not null
+     * @param value not null
+     */
+    void put(final K key, final V value) {
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    private Segment<K, V> segmentFor(final K key) {
+        int hash = key.hashCode();
+        // Spread the high bits, which differ more for short strings
+        hash ^= (hash >>> 16);
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Entries in order of use.
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 4416435215624931046L;
+
+        private final int maximumSize;
+
+        Segment(final int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
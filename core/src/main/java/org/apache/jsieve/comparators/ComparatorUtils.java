@@ -19,9 +19,8 @@
 
 package org.apache.jsieve.comparators;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.jsieve.SieveContext;
 import org.apache.jsieve.exception.LookupException;
@@ -35,6 +34,30 @@ import static  org.apache.jsieve.comparators.MatchTypeTags.*;
  */
 public class ComparatorUtils {
 
+    /**
+     * Maximum number of compiled patterns retained
+     */
+    private static final int MAXIMUM_CACHED_GLOBS = 1024;
+
+    /**
+     * Compiled patterns indexed by Sieve pattern, least recently used dropped
+     * first
+     */
+    private static final BoundedCache<String, GlobMatcher> GLOBS = new BoundedCache<String, GlobMatcher>(
+            MAXIMUM_CACHED_GLOBS);
+
+    /**
+     * Maximum number of compiled key lists retained
+     */
+    private static final int MAXIMUM_CACHED_KEY_LISTS = 256;
+
+    /**
+     * Compiled key lists indexed by match type, folding and keys, least
+     * recently used dropped first
+     */
+    private static final BoundedCache<KeyList, KeyListMatcher> KEY_LISTS = new BoundedCache<KeyList, KeyListMatcher>(
+            MAXIMUM_CACHED_KEY_LISTS);
+
     /**
      * Constructor for ComparatorUtils.
      */
@@ -70,6 +93,172 @@ public class ComparatorUtils {
         return isMatched;
     }
 
+    /**
+     * Method <code>match</code> answers a boolean indicating if the parameter
+     * <code>matchTarget</code> is a match of <code>matchType</code> for any
+     * of the <code>matchArguments</code> using the comparator
+     * <code>comparatorName</code>.
+     * <p>
+     * When the comparator is <code>i;octet</code> or
+     * <code>i;ascii-casemap</code> and the match type is <code>:is</code> or
+     * <code>:contains</code>, several keys are compiled into a
+     * {@link KeyListMatcher} so that the target is scanned once. Otherwise
+     * each key is matched in turn.
+     * </p>
+     * 
+     * @param comparatorName not null
+     * @param matchType not null
+     * @param matchTarget not null
+     * @param matchArguments not null
+     * @param context not null
+     * @return boolean
+     */
+    public static boolean match(String comparatorName, String matchType,
+            String matchTarget, List<String> matchArguments,
+            SieveContext context) throws SieveException {
+        if (matchArguments instanceof CompiledKeyList) {
+            return ((CompiledKeyList) matchArguments).matches(comparatorName,
+                    matchType, matchTarget, context);
+        }
+        final KeyListMatcher matcher = matchArguments.size() < 2 ? null
+                : compileKeyList(comparatorName, matchType, matchArguments,
+                        context);
+        if (matcher != null) {
+            return matcher.matches(matchTarget);
+        }
+        for (final String matchArgument : matchArguments) {
+            if (match(comparatorName, matchType, matchTarget, matchArgument,
+                    context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method <code>compileKeyList</code> answers the compiled form of the
+     * given keys, which is cached and shared. Only <code>:is</code> and
+     * <code>:contains</code> matches using <code>i;octet</code> or
+     * <code>i;ascii-casemap</code> can be compiled.
+     * 
+     * @param comparatorName not null
+     * @param matchType not null
+     * @param keys not null
+     * @param context not null
+     * @return compiled keys, or null when they must be matched one at a time
+     */
+    public static KeyListMatcher compileKeyList(String comparatorName,
+            String matchType, List<String> keys, SieveContext context)
+            throws LookupException {
+        if (keys instanceof CompiledKeyList) {
+            return ((CompiledKeyList) keys).getKeyList(comparatorName,
+                    matchType, context);
+        }
+        if (MATCHES_TAG.equals(matchType)) {
+            return null;
+        }
+        final Boolean foldsCase = foldsCase(comparatorName, context);
+        if (foldsCase == null) {
+            return null;
+        }
+        final boolean ignoreCase = foldsCase.booleanValue();
+        final KeyList keyList = new KeyList(matchType, keys, ignoreCase);
+        KeyListMatcher matcher = KEY_LISTS.get(keyList);
+        if (matcher == null) {
+            matcher = KeyListMatcher.compile(matchType, keys, ignoreCase);
+            if (matcher != null) {
+                KEY_LISTS.put(keyList.copy(), matcher);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Method <code>compileKeys</code> answers an unmodifiable copy of the
+     * given keys which retains their compiled form once matched, so that
+     * matching the copy repeatedly, by {@link #match(String, String, String,
+     * List, SieveContext)} or through {@link #compileKeyList(String, String,
+     * List, SieveContext)}, neither compiles nor looks up the keys again.
+     * 
+     * @param keys not null
+     * @return keys, not null
+     */
+    public static List<String> compileKeys(List<String> keys) {
+        if (keys instanceof CompiledKeyList) {
+            return keys;
+        }
+        return new CompiledKeyList(keys);
+    }
+
+    /**
+     * Does the named comparator match as <code>i;octet</code> or
+     * <code>i;ascii-casemap</code>?
+     * 
+     * @param comparatorName not null
+     * @param context not null
+     * @return true when it folds case as <code>i;ascii-casemap</code>,
+     * false when it matches as <code>i;octet</code>, null otherwise
+     */
+    static Boolean foldsCase(String comparatorName, SieveContext context)
+            throws LookupException {
+        final Class comparatorClass = context.getComparatorManager()
+                .getComparator(comparatorName).getClass();
+        if (comparatorClass == AsciiCasemap.class) {
+            return Boolean.TRUE;
+        } else if (comparatorClass == Octet.class) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Cache key for compiled key lists.
+     */
+    private static final class KeyList {
+        private final String matchType;
+
+        private final List<String> keys;
+
+        private final boolean ignoreCase;
+
+        private final int hashCode;
+
+        KeyList(String matchType, List<String> keys, boolean ignoreCase) {
+            this.matchType = matchType;
+            this.keys = keys;
+            this.ignoreCase = ignoreCase;
+            this.hashCode = 31 * (31 * matchType.hashCode() + keys.hashCode())
+                    + (ignoreCase ? 1 : 0);
+        }
+
+        /**
+         * Copies the keys so that later changes to the list passed by the
+         * caller cannot corrupt the cache.
+         */
+        KeyList copy() {
+            return new KeyList(matchType, new ArrayList<String>(keys),
+                    ignoreCase);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof KeyList)) {
+                return false;
+            }
+            final KeyList other = (KeyList) obj;
+            return hashCode == other.hashCode
+                    && ignoreCase == other.ignoreCase
+                    && matchType.equals(other.matchType)
+                    && keys.equals(other.keys);
+        }
+    }
+
     /**
      * <p>
      * Method <code>matches</code> answers a boolean indicating if the
@@ -83,13 +272,54 @@ public class ComparatorUtils {
      */
     static public boolean matches(String string, String glob)
             throws SievePatternException {
-        try {
-            String regex = sieveToJavaRegex(glob);
-            final Matcher matcher = Pattern.compile(regex).matcher(string);
-            return matcher.matches();
-        } catch (PatternSyntaxException e) {
-            throw new SievePatternException(e.getMessage());
+        return compileGlob(glob).matches(string);
+    }
+
+    /**
+     * <p>
+     * Method <code>matchesIgnoreCase</code> answers a boolean indicating if
+     * the parameter <code>string</code> matches the glob pattern described by
+     * parameter <code>glob</code> when the case of ASCII letters is ignored.
+     * 
+     * @param string
+     * @param glob
+     * @return boolean
+     * @throws SievePatternException
+     */
+    static public boolean matchesIgnoreCase(String string, String glob)
+            throws SievePatternException {
+        return compileGlob(glob).matchesIgnoreCase(string);
+    }
+
+    /**
+     * Answers the compiled form of the given glob pattern. Compiled patterns
+     * are retained in a bounded cache so that each distinct pattern is
+     * normally compiled only once.
+     * 
+     * @param glob not null
+     * @return compiled pattern, not null
+     */
+    static public GlobMatcher compileGlob(String glob) {
+        GlobMatcher matcher = GLOBS.get(glob);
+        if (null == matcher) {
+            matcher = GlobMatcher.compile(glob);
+            GLOBS.put(glob, matcher);
         }
+        return matcher;
+    }
+
+    /**
+     * Folds the given character to upper case when it is an ASCII letter.
+     * Other characters are unchanged.
+     * 
+     * @param ch
+     * @return char
+     */
+    static public char toUpperAscii(char ch) {
+        if (ch >= 'a' && ch <= 'z') {
+            return (char) (ch - ('a' - 'A'));
+        }
+        return ch;
     }
 
     /**
@@ -122,6 +352,79 @@ public class ComparatorUtils {
         return string1.equals(string2);
     }
 
+    /**
+     * <p>
+     * Method <code>equalsIgnoreCase</code> answers a boolean indicating if the
+     * parameter <code>string1</code> is equal to the parameter
+     * <code>string2</code> when the case of ASCII letters is ignored. No
+     * copies of the strings are made.
+     * </p>
+     * 
+     * @param string1
+     * @param string2
+     * @return boolean
+     */
+    static public boolean equalsIgnoreCase(String string1, String string2) {
+        final int length = string1.length();
+        if (length != string2.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char char1 = string1.charAt(i);
+            final char char2 = string2.charAt(i);
+            if (char1 != char2 && toUpperAscii(char1) != toUpperAscii(char2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Method <code>containsIgnoreCase</code> answers a boolean indicating if
+     * the parameter <code>container</code> contains the parameter
+     * <code>contents</code> when the case of ASCII letters is ignored. No
+     * copies of the strings are made.
+     * </p>
+     * 
+     * @param container
+     * @param contents
+     * @return boolean
+     */
+    static public boolean containsIgnoreCase(String container, String contents) {
+        final int length = contents.length();
+        final int last = container.length() - length;
+        if (length == 0) {
+            return true;
+        }
+        final char first = toUpperAscii(contents.charAt(0));
+        for (int i = 0; i <= last; i++) {
+            if (toUpperAscii(container.charAt(i)) == first
+                    && regionMatchesIgnoreCase(container, i + 1, contents, 1, length - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does the region of <code>string</code> starting at <code>offset</code>
+     * equal the region of <code>other</code> starting at
+     * <code>otherOffset</code> when the case of ASCII letters is ignored?
+     * The caller ensures that both regions lie within their strings.
+     */
+    private static boolean regionMatchesIgnoreCase(String string, int offset,
+            String other, int otherOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            final char char1 = string.charAt(offset + i);
+            final char char2 = other.charAt(otherOffset + i);
+            if (char1 != char2 && toUpperAscii(char1) != toUpperAscii(char2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns true if the char is a special char for regex
      */
@@ -229,4 +532,17 @@ public class ComparatorUtils {
         return comparatorObj.matches(string, glob);
     }
 
+    /**
+     * Method <code>isCaseInsensitive</code> answers a boolean indicating if
+     * the comparator <code>comparatorName</code> already ignores case, so
+     * that callers need not fold the strings they match.
+     * @param comparatorName not null
+     * @param context not null
+     * @return boolean
+     */
+    public static boolean isCaseInsensitive(String comparatorName,
+            SieveContext context) throws LookupException {
+        return context.getComparatorManager().getComparator(comparatorName) instanceof AsciiCasemap;
+    }
+
 }
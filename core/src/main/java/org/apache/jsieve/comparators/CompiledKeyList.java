@@ -0,0 +1,161 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.comparators;
+
+import static org.apache.jsieve.comparators.MatchTypeTags.MATCHES_TAG;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.LookupException;
+import org.apache.jsieve.exception.SieveException;
+
+/**
+ * <p>
+ * An unmodifiable list of keys which retains its compiled form, a
+ * {@link KeyListMatcher} or {@link GlobMatcher}s, so that a test run many
+ * times from a compiled script compiles its keys once. The form depends upon
+ * the comparator and match type, which are only known when the test runs, so
+ * it is compiled when first matched and again should these differ.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * An instance may be safely matched concurrently by multiple threads.
+ * </p>
+ */
+final class CompiledKeyList extends AbstractList<String> implements
+        RandomAccess {
+
+    private final String[] keys;
+
+    private volatile Form form;
+
+    CompiledKeyList(final List<String> keys) {
+        this.keys = keys.toArray(new String[keys.size()]);
+    }
+
+    public String get(int index) {
+        return keys[index];
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Does any key match the target?
+     * 
+     * @param comparatorName not null
+     * @param matchType not null
+     * @param matchTarget not null
+     * @param context not null
+     * @return boolean
+     */
+    boolean matches(final String comparatorName, final String matchType,
+            final String matchTarget, final SieveContext context)
+            throws SieveException {
+        final Form form = getForm(comparatorName, matchType, context);
+        if (form.keyList != null) {
+            return form.keyList.matches(matchTarget);
+        } else if (form.globs != null) {
+            for (final GlobMatcher glob : form.globs) {
+                if (form.ignoreCase ? glob.matchesIgnoreCase(matchTarget)
+                        : glob.matches(matchTarget)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (final String key : keys) {
+            if (ComparatorUtils.match(comparatorName, matchType, matchTarget,
+                    key, context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Answers the keys compiled for the given comparator and match type.
+     * 
+     * @return compiled keys, or null when they must be matched one at a time
+     */
+    KeyListMatcher getKeyList(final String comparatorName,
+            final String matchType, final SieveContext context)
+            throws LookupException {
+        return getForm(comparatorName, matchType, context).keyList;
+    }
+
+    private Form getForm(final String comparatorName, final String matchType,
+            final SieveContext context) throws LookupException {
+        Form result = form;
+        if (result == null || !result.comparatorName.equals(comparatorName)
+                || !result.matchType.equals(matchType)) {
+            final Boolean ignoreCase = keys.length == 0 ? null
+                    : ComparatorUtils.foldsCase(comparatorName, context);
+            if (ignoreCase == null) {
+                result = new Form(comparatorName, matchType, null, null,
+                        false);
+            } else if (MATCHES_TAG.equals(matchType)) {
+                final GlobMatcher[] globs = new GlobMatcher[keys.length];
+                for (int i = 0; i < globs.length; i++) {
+                    globs[i] = GlobMatcher.compile(keys[i]);
+                }
+                result = new Form(comparatorName, matchType, null, globs,
+                        ignoreCase.booleanValue());
+            } else {
+                result = new Form(comparatorName, matchType, KeyListMatcher
+                        .compile(matchType, this, ignoreCase.booleanValue()),
+                        null, ignoreCase.booleanValue());
+            }
+            form = result;
+        }
+        return result;
+    }
+
+    /**
+     * The keys compiled for a comparator and match type.
+     */
+    private static final class Form {
+
+        private final String comparatorName;
+
+        private final String matchType;
+
+        private final KeyListMatcher keyList;
+
+        private final GlobMatcher[] globs;
+
+        private final boolean ignoreCase;
+
+        Form(final String comparatorName, final String matchType,
+                final KeyListMatcher keyList, final GlobMatcher[] globs,
+                final boolean ignoreCase) {
+            this.comparatorName = comparatorName;
+            this.matchType = matchType;
+            this.keyList = keyList;
+            this.globs = globs;
+            this.ignoreCase = ignoreCase;
+        }
+    }
+}
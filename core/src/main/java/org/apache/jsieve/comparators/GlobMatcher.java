@@ -0,0 +1,206 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.comparators;
+
+/**
+ * <p>
+ * A compiled Sieve <code>:matches</code> pattern.
+ * </p>
+ * <p>
+ * From RFC 5228, Section 2.7.1: "?" matches a single character, "*" matches
+ * zero or more characters and "\" escapes the following "?", "*" or "\" so that
+ * it matches itself. A "\" before any other character, or at the end of the
+ * pattern, matches itself.
+ * </p>
+ * <p>
+ * Matching uses a single backtracking point (the last "*" encountered) rather
+ * than a general regular expression engine. The cost of a match is therefore
+ * bounded by the product of the pattern and string lengths, and no objects are
+ * allocated. Case insensitive matching folds ASCII letters only, as required
+ * by <code>i;ascii-casemap</code>.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * Instances are immutable and may be safely shared by concurrent threads.
+ * </p>
+ */
+public final class GlobMatcher {
+
+    private static final byte LITERAL = 0;
+
+    private static final byte ANY_CHARACTER = 1;
+
+    private static final byte ANY_SEQUENCE = 2;
+
+    /**
+     * Compiles the given Sieve pattern.
+     * 
+     * @param glob not null
+     * @return compiled pattern, not null
+     */
+    public static GlobMatcher compile(final String glob) {
+        final int length = glob.length();
+        final byte[] types = new byte[length];
+        final char[] literals = new char[length];
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            final char next = glob.charAt(i);
+            switch (next) {
+            case '*':
+                // Consecutive stars are equivalent to one
+                if (size == 0 || types[size - 1] != ANY_SEQUENCE) {
+                    types[size++] = ANY_SEQUENCE;
+                }
+                break;
+            case '?':
+                types[size++] = ANY_CHARACTER;
+                break;
+            case '\\':
+                types[size] = LITERAL;
+                if (i + 1 < length && isSpecial(glob.charAt(i + 1))) {
+                    literals[size++] = glob.charAt(++i);
+                } else {
+                    literals[size++] = next;
+                }
+                break;
+            default:
+                types[size] = LITERAL;
+                literals[size++] = next;
+                break;
+            }
+        }
+        return new GlobMatcher(glob, types, literals, size);
+    }
+
+    private static boolean isSpecial(char ch) {
+        return ch == '*' || ch == '?' || ch == '\\';
+    }
+
+    private final String glob;
+
+    private final byte[] types;
+
+    private final char[] literals;
+
+    /** Literals with ASCII letters folded to upper case */
+    private final char[] foldedLiterals;
+
+    private final int size;
+
+    private GlobMatcher(final String glob, final byte[] types,
+            final char[] literals, final int size) {
+        this.glob = glob;
+        this.types = types;
+        this.literals = literals;
+        this.size = size;
+        this.foldedLiterals = new char[size];
+        for (int i = 0; i < size; i++) {
+            foldedLiterals[i] = ComparatorUtils.toUpperAscii(literals[i]);
+        }
+    }
+
+    /**
+     * Gets the Sieve pattern from which this matcher was compiled.
+     * 
+     * @return pattern, not null
+     */
+    public String getGlob() {
+        return glob;
+    }
+
+    /**
+     * Does the whole of the given string match this pattern exactly?
+     * 
+     * @param string not null
+     * @return true when the string matches, false otherwise
+     */
+    public boolean matches(final String string) {
+        return matches(string, false);
+    }
+
+    /**
+     * Does the whole of the given string match this pattern ignoring the case
+     * of ASCII letters?
+     * 
+     * @param string not null
+     * @return true when the string matches, false otherwise
+     */
+    public boolean matchesIgnoreCase(final String string) {
+        return matches(string, true);
+    }
+
+    private boolean matches(final String string, final boolean ignoreCase) {
+        final int length = string.length();
+        final char[] expected = ignoreCase ? foldedLiterals : literals;
+        int s = 0;
+        int p = 0;
+        // Position of the last star in the pattern, and the position in the
+        // string from which it is currently matching
+        int star = -1;
+        int starMatch = 0;
+        while (s < length) {
+            final byte type = p < size ? types[p] : LITERAL;
+            if (p < size && type == ANY_SEQUENCE) {
+                star = p++;
+                starMatch = s;
+            } else if (p < size && type == ANY_CHARACTER) {
+                s = next(string, s, length);
+                p++;
+            } else if (p < size && expected[p] == fold(string.charAt(s), ignoreCase)) {
+                s++;
+                p++;
+            } else if (star >= 0) {
+                // Let the last star absorb one more character and retry
+                p = star + 1;
+                starMatch = next(string, starMatch, length);
+                s = starMatch;
+            } else {
+                return false;
+            }
+        }
+        while (p < size && types[p] == ANY_SEQUENCE) {
+            p++;
+        }
+        return p == size;
+    }
+
+    /**
+     * Advances past one character, treating a surrogate pair as a single
+     * character.
+     */
+    private static int next(final String string, final int index, final int length) {
+        if (Character.isHighSurrogate(string.charAt(index)) && index + 1 < length
+                && Character.isLowSurrogate(string.charAt(index + 1))) {
+            return index + 2;
+        }
+        return index + 1;
+    }
+
+    private static char fold(final char ch, final boolean ignoreCase) {
+        return ignoreCase ? ComparatorUtils.toUpperAscii(ch) : ch;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "GlobMatcher: " + glob;
+    }
+}
@@ -0,0 +1,345 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.comparators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * A compiled list of keys tested together against a value, so that a value is
+ * scanned once whatever the number of keys.
+ * </p>
+ * <p>
+ * <code>:is</code> key lists are held in a hash set. <code>:contains</code>
+ * key lists are compiled into an Aho-Corasick automaton, which finds whether
+ * any key occurs in a value in a single pass over the value. The cost of a
+ * match is therefore bounded by the length of the value rather than the
+ * product of the value length and the number of keys.
+ * </p>
+ * <p>
+ * Only the equality semantics of <code>i;octet</code> and, when ignoring
+ * case, <code>i;ascii-casemap</code> are supported. Case insensitive matching
+ * folds ASCII letters only.
+ * </p>
+ * <p>
+ * A <code>:contains</code> matcher may also search text which arrives in
+ * chunks, such as a decoded body, through a {@link Scanner}.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * Instances are immutable and may be safely shared by concurrent threads.
+ * Scanners are not thread safe.
+ * </p>
+ */
+public final class KeyListMatcher {
+
+    private static final int ROOT = 0;
+
+    private final boolean ignoreCase;
+
+    /**
+     * Folded keys, for <code>:is</code>
+     */
+    private final Set<String> keySet;
+
+    /**
+     * True when some <code>:contains</code> key is empty
+     */
+    private final boolean matchesAll;
+
+    /**
+     * Sorted transition characters indexed by state, for
+     * <code>:contains</code>
+     */
+    private final char[][] labels;
+
+    /**
+     * Transition targets matching <code>labels</code>
+     */
+    private final int[][] targets;
+
+    /**
+     * Failure transitions indexed by state
+     */
+    private final int[] failures;
+
+    /**
+     * True for states at which some key ends
+     */
+    private final boolean[] accepts;
+
+    /**
+     * Compiles the given keys.
+     * 
+     * @param matchType <code>:is</code> or <code>:contains</code>, not null
+     * @param keys not null
+     * @param ignoreCase true when ASCII letters should match regardless of
+     *            case
+     * @return compiled keys, or null when the match type is not supported
+     */
+    public static KeyListMatcher compile(final String matchType,
+            final List<String> keys, final boolean ignoreCase) {
+        if (MatchTypeTags.IS_TAG.equals(matchType)) {
+            final Set<String> keySet = new HashSet<String>(keys.size() * 2);
+            for (final String key : keys) {
+                keySet.add(ignoreCase ? fold(key) : key);
+            }
+            return new KeyListMatcher(ignoreCase, keySet);
+        } else if (MatchTypeTags.CONTAINS_TAG.equals(matchType)) {
+            return new KeyListMatcher(ignoreCase, keys);
+        } else {
+            return null;
+        }
+    }
+
+    private KeyListMatcher(final boolean ignoreCase, final Set<String> keySet) {
+        this.ignoreCase = ignoreCase;
+        this.keySet = keySet;
+        this.matchesAll = false;
+        this.labels = null;
+        this.targets = null;
+        this.failures = null;
+        this.accepts = null;
+    }
+
+    private KeyListMatcher(final boolean ignoreCase, final List<String> keys) {
+        this.ignoreCase = ignoreCase;
+        this.keySet = null;
+
+        // Build the trie
+        final List<StringBuilder> nodeLabels = new ArrayList<StringBuilder>();
+        final List<List<Integer>> nodeTargets = new ArrayList<List<Integer>>();
+        final List<Boolean> nodeAccepts = new ArrayList<Boolean>();
+        nodeLabels.add(new StringBuilder());
+        nodeTargets.add(new ArrayList<Integer>());
+        nodeAccepts.add(Boolean.FALSE);
+        boolean isEmptyKey = false;
+        for (final String key : keys) {
+            final int length = key.length();
+            if (length == 0) {
+                isEmptyKey = true;
+            }
+            int state = ROOT;
+            for (int i = 0; i < length; i++) {
+                final char next = ignoreCase ? ComparatorUtils
+                        .toUpperAscii(key.charAt(i)) : key.charAt(i);
+                final int index = nodeLabels.get(state).indexOf(
+                        String.valueOf(next));
+                if (index < 0) {
+                    final int created = nodeLabels.size();
+                    nodeLabels.add(new StringBuilder());
+                    nodeTargets.add(new ArrayList<Integer>());
+                    nodeAccepts.add(Boolean.FALSE);
+                    nodeLabels.get(state).append(next);
+                    nodeTargets.get(state).add(created);
+                    state = created;
+                } else {
+                    state = nodeTargets.get(state).get(index);
+                }
+            }
+            nodeAccepts.set(state, Boolean.TRUE);
+        }
+        this.matchesAll = isEmptyKey;
+
+        // Freeze into sorted arrays
+        final int size = nodeLabels.size();
+        labels = new char[size][];
+        targets = new int[size][];
+        accepts = new boolean[size];
+        for (int state = 0; state < size; state++) {
+            final String unsorted = nodeLabels.get(state).toString();
+            final char[] sorted = unsorted.toCharArray();
+            Arrays.sort(sorted);
+            final int[] sortedTargets = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sortedTargets[i] = nodeTargets.get(state).get(
+                        unsorted.indexOf(sorted[i]));
+            }
+            labels[state] = sorted;
+            targets[state] = sortedTargets;
+            accepts[state] = nodeAccepts.get(state).booleanValue();
+        }
+
+        // Compute failure transitions breadth first
+        failures = new int[size];
+        final int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (final int child : targets[ROOT]) {
+            failures[child] = ROOT;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            final char[] stateLabels = labels[state];
+            final int[] stateTargets = targets[state];
+            for (int i = 0; i < stateLabels.length; i++) {
+                final int child = stateTargets[i];
+                int failure = failures[state];
+                int next;
+                while ((next = transition(failure, stateLabels[i])) < 0
+                        && failure != ROOT) {
+                    failure = failures[failure];
+                }
+                failures[child] = next < 0 ? ROOT : next;
+                accepts[child] |= accepts[failures[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Does the given value match any of the keys?
+     * 
+     * @param value not null
+     * @return true when some key matches, false otherwise
+     */
+    public boolean matches(final String value) {
+        if (keySet != null) {
+            return keySet.contains(ignoreCase ? fold(value) : value);
+        }
+        if (matchesAll) {
+            return true;
+        }
+        final int length = value.length();
+        int state = ROOT;
+        for (int i = 0; i < length; i++) {
+            final char next = ignoreCase ? ComparatorUtils.toUpperAscii(value
+                    .charAt(i)) : value.charAt(i);
+            int target;
+            while ((target = transition(state, next)) < 0 && state != ROOT) {
+                state = failures[state];
+            }
+            state = target < 0 ? ROOT : target;
+            if (accepts[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a scanner which searches text fed to it in chunks for any of
+     * the keys of this <code>:contains</code> matcher.
+     * 
+     * @return scanner, not null
+     * @throws IllegalStateException when this is not a <code>:contains</code>
+     *             matcher
+     */
+    public Scanner scanner() {
+        if (keySet != null) {
+            throw new IllegalStateException(":is keys cannot be scanned");
+        }
+        return new Scanner();
+    }
+
+    /**
+     * Searches text that arrives in chunks, so that a key is found even when
+     * it spans chunks.
+     */
+    public final class Scanner {
+
+        private int state = ROOT;
+
+        private boolean isMatched = matchesAll;
+
+        private Scanner() {
+        }
+
+        /**
+         * Scans the next chunk of text.
+         * 
+         * @param chars not null
+         * @param offset index of the first character to scan
+         * @param length number of characters to scan
+         * @return true when some key has been found in the text scanned since
+         *         creation or the last reset, false otherwise
+         */
+        public boolean scan(final char[] chars, final int offset,
+                final int length) {
+            final int end = offset + length;
+            for (int i = offset; !isMatched && i < end; i++) {
+                final char next = ignoreCase ? ComparatorUtils
+                        .toUpperAscii(chars[i]) : chars[i];
+                int target;
+                while ((target = transition(state, next)) < 0 && state != ROOT) {
+                    state = failures[state];
+                }
+                state = target < 0 ? ROOT : target;
+                isMatched = accepts[state];
+            }
+            return isMatched;
+        }
+
+        /**
+         * Has some key been found since creation or the last reset?
+         * 
+         * @return true when found, false otherwise
+         */
+        public boolean isMatched() {
+            return isMatched;
+        }
+
+        /**
+         * Starts a new text, so that no key is found spanning the text
+         * already scanned and the text to come.
+         */
+        public void reset() {
+            state = ROOT;
+            isMatched = matchesAll;
+        }
+    }
+
+    /**
+     * Answers the state reached from the given state on the given character,
+     * or -1 when there is no such transition.
+     */
+    private int transition(final int state, final char next) {
+        final int index = Arrays.binarySearch(labels[state], next);
+        return index < 0 ? -1 : targets[state][index];
+    }
+
+    /**
+     * Folds ASCII lower case letters to upper case, copying only when needed.
+     */
+    private static String fold(final String string) {
+        final int length = string.length();
+        for (int i = 0; i < length; i++) {
+            final char next = string.charAt(i);
+            if (ComparatorUtils.toUpperAscii(next) != next) {
+                final char[] chars = string.toCharArray();
+                for (int j = i; j < length; j++) {
+                    chars[j] = ComparatorUtils.toUpperAscii(chars[j]);
+                }
+                return new String(chars);
+            }
+        }
+        return string;
+    }
+
+    public String toString() {
+        return "KeyListMatcher " + (keySet == null ? ":contains" : ":is")
+                + (ignoreCase ? " ignoring case" : "");
+    }
+}
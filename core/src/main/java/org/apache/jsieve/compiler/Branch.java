@@ -0,0 +1,93 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.Executable;
+import org.apache.jsieve.ScriptCoordinate;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * <p>
+ * An <code>if</code> command together with the <code>elsif</code> and
+ * <code>else</code> commands which follow it. The arms are tried in order and
+ * the block of the first whose tests pass is run, without consulting a
+ * {@link org.apache.jsieve.ConditionManager}.
+ * </p>
+ * <p>
+ * As when interpreted, the prolog ends once the <code>if</code> command has
+ * run.
+ * </p>
+ */
+final class Branch implements Executable {
+
+    private final Condition[] conditions;
+
+    /** One block per condition, followed by the else block if any */
+    private final Executable[] blocks;
+
+    /** One coordinate per block */
+    private final ScriptCoordinate[] coordinates;
+
+    Branch(final Condition[] conditions, final Executable[] blocks,
+            final ScriptCoordinate[] coordinates) {
+        this.conditions = conditions;
+        this.blocks = blocks;
+        this.coordinates = coordinates;
+    }
+
+    public Object execute(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        for (int i = 0; i < conditions.length; i++) {
+            context.setCoordinate(coordinates[i]);
+            final boolean isPassed = conditions[i].isPassed(mail, context);
+            if (isPassed) {
+                blocks[i].execute(mail, context);
+            }
+            if (i == 0) {
+                context.getCommandStateManager().setInProlog(false);
+            }
+            if (isPassed) {
+                return Boolean.TRUE;
+            }
+        }
+        if (blocks.length > conditions.length) {
+            context.setCoordinate(coordinates[conditions.length]);
+            blocks[conditions.length].execute(mail, context);
+            return Boolean.TRUE;
+        }
+        return Boolean.FALSE;
+    }
+
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("BRANCH");
+        for (int i = 0; i < blocks.length; i++) {
+            builder.append(i == 0 ? " if " : i < conditions.length ? " elsif "
+                    : " else ");
+            if (i < conditions.length) {
+                builder.append(conditions[i]).append(' ');
+            }
+            builder.append(blocks[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,79 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * A compiled Sieve test.
+ */
+interface Condition {
+
+    /**
+     * Cost of a condition which may fail, or whose cost is not known. Such a
+     * condition keeps its place among the conditions around it.
+     */
+    int UNKNOWN_COST = -1;
+
+    /** Cost of a condition answered from the size or header names */
+    int CHEAP_COST = 1;
+
+    /** Cost of a condition matching header values */
+    int MEDIUM_COST = 4;
+
+    /** Cost of a condition matching patterns */
+    int EXPENSIVE_COST = 16;
+
+    /** Cost of a condition reading the body */
+    int BODY_COST = 64;
+
+    /**
+     * Is this condition met by the given mail?
+     * 
+     * @param mail not null
+     * @param context not null
+     * @return true when the test passes, false otherwise
+     * @throws SieveException
+     */
+    boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException;
+
+    /**
+     * Estimates the relative cost of this condition. A condition with a known
+     * cost has no effects and does not fail for valid mail which the adapter
+     * can read, so it may be evaluated in any order with others of known
+     * cost.
+     * 
+     * @return cost, not negative, or {@link #UNKNOWN_COST}
+     */
+    int cost();
+
+    /**
+     * Answers a key equal to the key of any condition giving the same result
+     * for every mail. Conditions with equal keys in one script need only be
+     * evaluated once per mail.
+     * 
+     * @return key, or null when the condition has no key
+     */
+    Object key();
+}
@@ -0,0 +1,56 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * The <code>true</code> and <code>false</code> tests.
+ */
+final class ConstantCondition implements Condition {
+
+    static final ConstantCondition TRUE = new ConstantCondition(true);
+
+    static final ConstantCondition FALSE = new ConstantCondition(false);
+
+    private final boolean result;
+
+    private ConstantCondition(final boolean result) {
+        this.result = result;
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context) {
+        return result;
+    }
+
+    public int cost() {
+        return 0;
+    }
+
+    public Object key() {
+        return Boolean.valueOf(result);
+    }
+
+    public String toString() {
+        return String.valueOf(result);
+    }
+}
@@ -0,0 +1,61 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import java.util.Arrays;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * The <code>exists</code> test.
+ */
+final class ExistsCondition implements Condition {
+
+    private final String[] headerNames;
+
+    ExistsCondition(final String[] headerNames) {
+        this.headerNames = headerNames;
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        for (final String headerName : headerNames) {
+            if (mail.getMatchingHeader(headerName).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int cost() {
+        return CHEAP_COST;
+    }
+
+    public Object key() {
+        return Arrays.asList("exists", Arrays.asList(headerNames));
+    }
+
+    public String toString() {
+        return "exists " + Arrays.asList(headerNames);
+    }
+}
@@ -0,0 +1,173 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import static org.apache.jsieve.comparators.MatchTypeTags.CONTAINS_TAG;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.comparators.ComparatorUtils;
+import org.apache.jsieve.comparators.GlobMatcher;
+import org.apache.jsieve.comparators.KeyListMatcher;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * <p>
+ * The <code>header</code> test with its tags resolved. Keys are matched by,
+ * in order of preference
+ * </p>
+ * <ul>
+ * <li>a {@link KeyListMatcher}, for <code>:is</code> and
+ * <code>:contains</code> using <code>i;octet</code> or
+ * <code>i;ascii-casemap</code></li>
+ * <li>{@link GlobMatcher}s, for <code>:matches</code> using those
+ * comparators</li>
+ * <li>the named comparator, otherwise</li>
+ * </ul>
+ */
+final class HeaderCondition implements Condition {
+
+    private final String[] headerNames;
+
+    /** Whether a missing header matches as the empty string */
+    private final boolean contains;
+
+    private final KeyListMatcher keyList;
+
+    private final GlobMatcher[] globs;
+
+    private final boolean ignoreCase;
+
+    private final String comparator;
+
+    private final String matchType;
+
+    private final List<String> keys;
+
+    private HeaderCondition(final String[] headerNames,
+            final String comparator, final String matchType,
+            final List<String> keys, final KeyListMatcher keyList,
+            final GlobMatcher[] globs, final boolean ignoreCase) {
+        this.headerNames = headerNames;
+        this.comparator = comparator;
+        this.matchType = matchType;
+        this.keys = keys;
+        this.contains = CONTAINS_TAG.equals(matchType);
+        this.keyList = keyList;
+        this.globs = globs;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Matches through a compiled key list.
+     */
+    static HeaderCondition create(final String[] headerNames,
+            final String comparator, final String matchType,
+            final List<String> keys, final KeyListMatcher keyList) {
+        return new HeaderCondition(headerNames, comparator, matchType, keys,
+                keyList, null, false);
+    }
+
+    /**
+     * Matches through compiled patterns.
+     */
+    static HeaderCondition create(final String[] headerNames,
+            final String comparator, final String matchType,
+            final List<String> keys, final GlobMatcher[] globs,
+            final boolean ignoreCase) {
+        return new HeaderCondition(headerNames, comparator, matchType, keys,
+                null, globs, ignoreCase);
+    }
+
+    /**
+     * Matches through the named comparator.
+     */
+    static HeaderCondition create(final String[] headerNames,
+            final String comparator, final String matchType,
+            final List<String> keys) {
+        return new HeaderCondition(headerNames, comparator, matchType, keys,
+                null, null, false);
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        for (final String headerName : headerNames) {
+            final List<String> values = mail.getMatchingHeader(headerName);
+            if (values.isEmpty()) {
+                // A missing header contains the empty string
+                if (contains && matches("", context)) {
+                    return true;
+                }
+            } else {
+                for (final String value : values) {
+                    if (matches(value, context)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(final String value, final SieveContext context)
+            throws SieveException {
+        if (keyList != null) {
+            return keyList.matches(value);
+        } else if (globs != null) {
+            for (final GlobMatcher glob : globs) {
+                if (ignoreCase ? glob.matchesIgnoreCase(value) : glob
+                        .matches(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return ComparatorUtils.match(comparator, matchType, value, keys,
+                context);
+    }
+
+    /**
+     * A named comparator other than <code>i;octet</code> or
+     * <code>i;ascii-casemap</code> may reject the match type, so its cost is
+     * unknown.
+     */
+    public int cost() {
+        if (keyList != null) {
+            return MEDIUM_COST;
+        } else if (globs != null) {
+            return EXPENSIVE_COST;
+        }
+        return keys.isEmpty() ? CHEAP_COST : UNKNOWN_COST;
+    }
+
+    public Object key() {
+        return Arrays.asList("header", comparator, matchType, Arrays
+                .asList(headerNames), keys);
+    }
+
+    public String toString() {
+        return "header :comparator \"" + comparator + "\" " + matchType + " "
+                + Arrays.asList(headerNames) + " " + keys;
+    }
+}
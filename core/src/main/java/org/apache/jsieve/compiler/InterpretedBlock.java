@@ -0,0 +1,59 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.Block;
+import org.apache.jsieve.ConditionManager;
+import org.apache.jsieve.Executable;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * Runs a block whose conditional commands cannot be compiled into branches
+ * through the interpreter. As when a conditional command runs its block, the
+ * block is given a new state of the {@link ConditionManager}. Remembered test
+ * results are forgotten afterwards, since the block may change the mail.
+ */
+final class InterpretedBlock implements Executable {
+
+    private final Block block;
+
+    InterpretedBlock(final Block block) {
+        this.block = block;
+    }
+
+    public Object execute(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        final ConditionManager manager = context.getConditionManager();
+        manager.push();
+        try {
+            return block.execute(mail, context);
+        } finally {
+            manager.pop();
+            context.forgetTestResults();
+        }
+    }
+
+    public String toString() {
+        return "INTERPRETED " + block;
+    }
+}
@@ -0,0 +1,58 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.Command;
+import org.apache.jsieve.Executable;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * Runs a command which is not compiled, such as an action or an extension,
+ * through the interpreter. Remembered test results are forgotten after a
+ * command which may change the mail.
+ */
+final class InterpretedCommand implements Executable {
+
+    private final Command command;
+
+    /** May the command change the mail? */
+    private final boolean changesMail;
+
+    InterpretedCommand(final Command command, final boolean changesMail) {
+        this.command = command;
+        this.changesMail = changesMail;
+    }
+
+    public Object execute(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        final Object result = command.execute(mail, context);
+        if (changesMail) {
+            context.forgetTestResults();
+        }
+        return result;
+    }
+
+    public String toString() {
+        return "INTERPRETED " + command;
+    }
+}
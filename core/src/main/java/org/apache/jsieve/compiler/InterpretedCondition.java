@@ -0,0 +1,66 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.Test;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * Runs a test which could not be compiled through the interpreter. The cost
+ * of the test is unknown unless its arguments were validated when compiled.
+ */
+final class InterpretedCondition implements Condition {
+
+    private final Test test;
+
+    private final int cost;
+
+    private final Object key;
+
+    InterpretedCondition(final Test test) {
+        this(test, UNKNOWN_COST, null);
+    }
+
+    InterpretedCondition(final Test test, final int cost, final Object key) {
+        this.test = test;
+        this.cost = cost;
+        this.key = key;
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        return test.isTestPassed(mail, context);
+    }
+
+    public int cost() {
+        return cost;
+    }
+
+    public Object key() {
+        return key;
+    }
+
+    public String toString() {
+        return "INTERPRETED " + test;
+    }
+}
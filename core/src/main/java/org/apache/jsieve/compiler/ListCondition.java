@@ -0,0 +1,85 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * The <code>allof</code> and <code>anyof</code> tests, and the test list of a
+ * conditional command. Tests are run in order until the result is known.
+ */
+final class ListCondition implements Condition {
+
+    private final Condition[] conditions;
+
+    /** True for <code>anyof</code>, false for <code>allof</code> */
+    private final boolean any;
+
+    ListCondition(final Condition[] conditions, final boolean any) {
+        this.conditions = conditions;
+        this.any = any;
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        for (final Condition condition : conditions) {
+            if (condition.isPassed(mail, context) == any) {
+                return any;
+            }
+        }
+        return !any;
+    }
+
+    public int cost() {
+        int cost = 0;
+        for (final Condition condition : conditions) {
+            final int conditionCost = condition.cost();
+            if (conditionCost == UNKNOWN_COST) {
+                return UNKNOWN_COST;
+            }
+            cost += conditionCost;
+        }
+        return cost;
+    }
+
+    public Object key() {
+        final List<Object> key = new ArrayList<Object>(conditions.length + 1);
+        key.add(any ? "anyof" : "allof");
+        for (final Condition condition : conditions) {
+            final Object conditionKey = condition.key();
+            if (conditionKey == null) {
+                return null;
+            }
+            key.add(conditionKey);
+        }
+        return key;
+    }
+
+    public String toString() {
+        return (any ? "anyof " : "allof ") + Arrays.asList(conditions);
+    }
+}
@@ -0,0 +1,95 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * A condition which may be repeated within a script. Once the script is
+ * compiled, a condition which is repeated is given a slot in which its result
+ * is remembered for the rest of the evaluation. Other conditions are
+ * evaluated as usual.
+ */
+final class MemoCondition implements Condition {
+
+    private final Condition condition;
+
+    /** Occurrences within the script */
+    private int uses;
+
+    /** Slot of the remembered result, or -1 when not remembered */
+    private int slot = -1;
+
+    MemoCondition(final Condition condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * Counts another occurrence of the condition.
+     */
+    void use() {
+        uses++;
+    }
+
+    /**
+     * Gives the condition a slot when it is repeated.
+     * 
+     * @param next
+     *            the next free slot
+     * @return the next free slot after this condition
+     */
+    int allocate(final int next) {
+        if (uses > 1) {
+            slot = next;
+            return next + 1;
+        }
+        return next;
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        if (slot < 0) {
+            return condition.isPassed(mail, context);
+        }
+        final Boolean remembered = context.getTestResult(slot);
+        if (remembered != null) {
+            return remembered.booleanValue();
+        }
+        final boolean result = condition.isPassed(mail, context);
+        context.setTestResult(slot, result);
+        return result;
+    }
+
+    public int cost() {
+        return condition.cost();
+    }
+
+    public Object key() {
+        return condition.key();
+    }
+
+    public String toString() {
+        return slot < 0 ? condition.toString() : "MEMO " + slot + " "
+                + condition;
+    }
+}
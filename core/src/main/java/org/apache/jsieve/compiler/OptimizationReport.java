@@ -0,0 +1,87 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+/**
+ * Describes how much of a script was removed by a {@link ScriptOptimizer}.
+ */
+public final class OptimizationReport {
+
+    private final int foldedTests;
+
+    private final int removedCommands;
+
+    private final int flattenedBlocks;
+
+    OptimizationReport(final int foldedTests, final int removedCommands,
+            final int flattenedBlocks) {
+        this.foldedTests = foldedTests;
+        this.removedCommands = removedCommands;
+        this.flattenedBlocks = flattenedBlocks;
+    }
+
+    /**
+     * Gets the number of tests removed, either because their result is
+     * constant or because they can never run.
+     * 
+     * @return tests, not negative
+     */
+    public int getFoldedTests() {
+        return foldedTests;
+    }
+
+    /**
+     * Gets the number of commands removed, including the commands in the
+     * blocks of removed commands.
+     * 
+     * @return commands, not negative
+     */
+    public int getRemovedCommands() {
+        return removedCommands;
+    }
+
+    /**
+     * Gets the number of blocks which always run and whose commands were
+     * moved into the enclosing block.
+     * 
+     * @return blocks, not negative
+     */
+    public int getFlattenedBlocks() {
+        return flattenedBlocks;
+    }
+
+    /**
+     * Was the script changed?
+     * 
+     * @return true when anything was removed, false otherwise
+     */
+    public boolean isChanged() {
+        return foldedTests > 0 || removedCommands > 0 || flattenedBlocks > 0;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "folded " + foldedTests + " tests, removed " + removedCommands
+                + " commands, flattened " + flattenedBlocks + " blocks";
+    }
+}
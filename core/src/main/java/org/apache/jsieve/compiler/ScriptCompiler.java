@@ -0,0 +1,603 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import static org.apache.jsieve.comparators.ComparatorNames.ASCII_CASEMAP_COMPARATOR;
+import static org.apache.jsieve.comparators.MatchTypeTags.CONTAINS_TAG;
+import static org.apache.jsieve.comparators.MatchTypeTags.IS_TAG;
+import static org.apache.jsieve.comparators.MatchTypeTags.MATCHES_TAG;
+import static org.apache.jsieve.tests.BodyTransformTags.CONTENT_TAG;
+import static org.apache.jsieve.tests.BodyTransformTags.RAW_TAG;
+import static org.apache.jsieve.tests.BodyTransformTags.TEXT_TAG;
+import static org.apache.jsieve.tests.ComparatorTags.COMPARATOR_TAG;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.jsieve.Argument;
+import org.apache.jsieve.Arguments;
+import org.apache.jsieve.Block;
+import org.apache.jsieve.Command;
+import org.apache.jsieve.Executable;
+import org.apache.jsieve.NumberArgument;
+import org.apache.jsieve.ScriptCoordinate;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.StringListArgument;
+import org.apache.jsieve.TagArgument;
+import org.apache.jsieve.Test;
+import org.apache.jsieve.TestList;
+import org.apache.jsieve.commands.Discard;
+import org.apache.jsieve.commands.Else;
+import org.apache.jsieve.commands.Elsif;
+import org.apache.jsieve.commands.If;
+import org.apache.jsieve.commands.Keep;
+import org.apache.jsieve.commands.Redirect;
+import org.apache.jsieve.commands.Require;
+import org.apache.jsieve.commands.Stop;
+import org.apache.jsieve.commands.optional.FileInto;
+import org.apache.jsieve.commands.optional.Reject;
+import org.apache.jsieve.comparators.AsciiCasemap;
+import org.apache.jsieve.comparators.ComparatorUtils;
+import org.apache.jsieve.comparators.GlobMatcher;
+import org.apache.jsieve.comparators.KeyListMatcher;
+import org.apache.jsieve.comparators.Octet;
+import org.apache.jsieve.exception.LookupException;
+import org.apache.jsieve.tests.Address;
+import org.apache.jsieve.tests.AllOf;
+import org.apache.jsieve.tests.AnyOf;
+import org.apache.jsieve.tests.Exists;
+import org.apache.jsieve.tests.False;
+import org.apache.jsieve.tests.Header;
+import org.apache.jsieve.tests.Not;
+import org.apache.jsieve.tests.Size;
+import org.apache.jsieve.tests.True;
+import org.apache.jsieve.tests.optional.Body;
+import org.apache.jsieve.tests.optional.Envelope;
+
+/**
+ * <p>
+ * Compiles the Commands, Tests and Arguments of a validated script into a
+ * tree of specialised executables. Compared with interpreting the script
+ * </p>
+ * <ul>
+ * <li><code>if</code>, <code>elsif</code> and <code>else</code> chains become
+ * direct branches</li>
+ * <li><code>allof</code>, <code>anyof</code>, <code>not</code>,
+ * <code>true</code>, <code>false</code>, <code>exists</code>,
+ * <code>size</code> and <code>header</code> tests are resolved once, so that
+ * no lookups or tag parsing happen per mail</li>
+ * <li>header keys become constants: compiled key lists or patterns when the
+ * comparator is <code>i;octet</code> or <code>i;ascii-casemap</code></li>
+ * <li>the keys of interpreted <code>address</code>, <code>envelope</code>
+ * and <code>body</code> tests retain their compiled form between runs</li>
+ * <li>the tests of <code>allof</code>, <code>anyof</code> and conditional
+ * commands are reordered so that cheap tests run first: <code>size</code>
+ * and <code>exists</code>, then <code>header</code>, then
+ * <code>header :matches</code>, then <code>body</code></li>
+ * </ul>
+ * <p>
+ * Only tests whose arguments are valid and which have no effects are
+ * reordered, and never across a test which may fail, so the result of each
+ * evaluation is unchanged. A test which would only fail because the mail
+ * cannot be read may however no longer run. So a <code>body</code> test,
+ * which fails when the mail adapter cannot read the body, runs after the
+ * cheaper tests around it. Reordering is logged at debug level.
+ * </p>
+ * <p>
+ * Such tests are also compared with each other. When a test is repeated
+ * within the script, for example in several <code>elsif</code> arms, its
+ * result is remembered by the {@link SieveContext} the first time it runs and
+ * reused for the rest of the evaluation. Results are forgotten after any
+ * command other than the standard actions, since it may change the mail.
+ * </p>
+ * <p>
+ * Everything else, including extensions and any construct which would fail at
+ * run time, falls back to the interpreter so that behaviour and errors are
+ * unchanged. Standard commands and tests are only compiled when the managers
+ * map them to the standard implementations.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * An instance compiles one script on a single thread. The result is immutable
+ * and may be safely shared by concurrent threads.
+ * </p>
+ */
+public final class ScriptCompiler {
+
+    /** Orders conditions by increasing cost */
+    private static final Comparator<Condition> BY_COST = new Comparator<Condition>() {
+        public int compare(Condition first, Condition second) {
+            final int firstCost = first.cost();
+            final int secondCost = second.cost();
+            return firstCost < secondCost ? -1
+                    : (firstCost == secondCost ? 0 : 1);
+        }
+    };
+
+    private final SieveContext context;
+
+    /** The command whose tests are being compiled */
+    private ScriptCoordinate coordinate;
+
+    /** The conditions which may be remembered, by key */
+    private final Map<Object, MemoCondition> memos = new HashMap<Object, MemoCondition>();
+
+    /**
+     * Constructs a compiler using the managers of the given context.
+     * 
+     * @param context not null
+     */
+    public ScriptCompiler(final SieveContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Compiles the top level block of a script.
+     * 
+     * @param block not null
+     * @return executable equivalent to the block, not null
+     */
+    public Executable compile(final Block block) {
+        final Executable result = compileBlock(block);
+        int slots = 0;
+        for (final MemoCondition memo : memos.values()) {
+            slots = memo.allocate(slots);
+        }
+        if (slots == 0) {
+            return result;
+        }
+        final Log log = context.getLog();
+        if (log.isDebugEnabled()) {
+            log.debug("Remembering the results of " + slots + " repeated tests");
+        }
+        return new MemoizingScript(result);
+    }
+
+    private Executable compileBlock(final Block block) {
+        final List<Command> commands = block.getChildren().getChildren();
+        final List<Executable> results = new ArrayList<Executable>(commands
+                .size());
+        int i = 0;
+        while (i < commands.size()) {
+            final Command command = commands.get(i);
+            final Class type = commandClass(command);
+            if (type == If.class) {
+                final int end = chainEnd(commands, i);
+                final Executable branch = compileBranch(commands.subList(i,
+                        end));
+                if (branch == null) {
+                    return new InterpretedBlock(block);
+                }
+                results.add(branch);
+                i = end;
+            } else if (type == Elsif.class || type == Else.class) {
+                // Not preceded by an if
+                return new InterpretedBlock(block);
+            } else {
+                results.add(new InterpretedCommand(command, !isAction(type)));
+                i++;
+            }
+        }
+        return new Sequence(results.toArray(new Executable[results.size()]));
+    }
+
+    /**
+     * Finds the end of the chain starting with the if command at the given
+     * index.
+     */
+    private int chainEnd(final List<Command> commands, final int start) {
+        int end = start + 1;
+        while (end < commands.size()) {
+            final Class type = commandClass(commands.get(end));
+            if (type == Elsif.class) {
+                end++;
+            } else {
+                if (type == Else.class) {
+                    end++;
+                }
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Compiles a chain, or answers null when any of its commands would fail
+     * validation.
+     */
+    private Executable compileBranch(final List<Command> chain) {
+        final int size = chain.size();
+        final boolean hasElse = commandClass(chain.get(size - 1)) == Else.class;
+        final int conditionCount = hasElse ? size - 1 : size;
+        final Condition[] conditions = new Condition[conditionCount];
+        final Executable[] blocks = new Executable[size];
+        final ScriptCoordinate[] coordinates = new ScriptCoordinate[size];
+        for (int i = 0; i < size; i++) {
+            final Command command = chain.get(i);
+            final Arguments arguments = command.getArguments();
+            if (command.getBlock() == null || arguments == null) {
+                return null;
+            }
+            if (i < conditionCount) {
+                if (!arguments.hasTests()) {
+                    return null;
+                }
+                coordinate = command.getCoordinate();
+                conditions[i] = memoize(compileTests(arguments
+                        .getTestList().getTests(), false));
+            } else if (!arguments.getArgumentList().isEmpty()) {
+                return null;
+            }
+            blocks[i] = compileBlock(command.getBlock());
+            coordinates[i] = command.getCoordinate();
+        }
+        return new Branch(conditions, blocks, coordinates);
+    }
+
+    private Condition compileTests(final List<Test> tests, final boolean any) {
+        if (tests.size() == 1) {
+            return compileTest(tests.get(0));
+        }
+        final Condition[] conditions = new Condition[tests.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = compileTest(tests.get(i));
+        }
+        return new ListCondition(reorder(conditions, any), any);
+    }
+
+    /**
+     * Answers a condition shared by every occurrence of the given condition,
+     * when it is worth remembering, or the given condition otherwise.
+     */
+    private Condition memoize(final Condition condition) {
+        if (condition instanceof MemoCondition) {
+            // Already counted
+            return condition;
+        } else if (condition.cost() < Condition.MEDIUM_COST) {
+            // Unknown or cheaper than remembering
+            return condition;
+        }
+        return remember(condition);
+    }
+
+    /**
+     * Answers a condition shared by every occurrence of the given condition,
+     * whatever its cost, when it has a key.
+     */
+    private Condition remember(final Condition condition) {
+        final Object key = condition.key();
+        if (key == null) {
+            return condition;
+        }
+        MemoCondition memo = memos.get(key);
+        if (memo == null) {
+            memo = new MemoCondition(condition);
+            memos.put(key, memo);
+        }
+        memo.use();
+        return memo;
+    }
+
+    /**
+     * Sorts each run of conditions of known cost, cheapest first, keeping the
+     * written order of conditions of equal cost. A condition of unknown cost
+     * keeps its place, so that the conditions written before it still run
+     * before it and those written after it still run after it.
+     */
+    private Condition[] reorder(final Condition[] conditions,
+            final boolean any) {
+        final Condition[] results = conditions.clone();
+        int start = 0;
+        while (start < results.length) {
+            int end = start;
+            while (end < results.length
+                    && results[end].cost() != Condition.UNKNOWN_COST) {
+                end++;
+            }
+            // Stable for objects
+            Arrays.sort(results, start, end, BY_COST);
+            start = end + 1;
+        }
+        final Log log = context.getLog();
+        if (log.isDebugEnabled() && !Arrays.equals(conditions, results)) {
+            log.debug("Reordered " + (any ? "anyof" : "allof") + " tests"
+                    + (coordinate == null ? "" : " at line "
+                            + coordinate.getStartLineNumber() + " column "
+                            + coordinate.getStartColumnNumber()) + " from "
+                    + Arrays.asList(conditions) + " to "
+                    + Arrays.asList(results));
+        }
+        return results;
+    }
+
+    private Condition compileTest(final Test test) {
+        Condition result = null;
+        final Arguments arguments = test.getArguments();
+        if (arguments != null) {
+            final Class type = testClass(test);
+            final List<Argument> argumentList = arguments.getArgumentList();
+            final TestList testList = arguments.getTestList();
+            if (type == AllOf.class || type == AnyOf.class) {
+                if (argumentList.isEmpty() && testList != null) {
+                    result = compileTests(testList.getTests(),
+                            type == AnyOf.class);
+                }
+            } else if (type == Not.class) {
+                if (argumentList.isEmpty() && testList != null
+                        && testList.getTests().size() == 1) {
+                    result = new NotCondition(compileTest(testList.getTests()
+                            .get(0)));
+                }
+            } else if (type == True.class || type == False.class) {
+                if (argumentList.isEmpty()) {
+                    result = type == True.class ? ConstantCondition.TRUE
+                            : ConstantCondition.FALSE;
+                }
+            } else if (type == Exists.class) {
+                result = compileExists(arguments);
+            } else if (type == Size.class) {
+                result = compileSize(arguments);
+            } else if (type == Header.class) {
+                result = compileHeader(arguments);
+            } else if (type == Body.class) {
+                if (isValidBody(arguments)) {
+                    // Fails only when the adapter cannot read the body
+                    result = new InterpretedCondition(withCompiledKeys(test),
+                            Condition.BODY_COST, key(test));
+                }
+            } else if (type == Address.class || type == Envelope.class) {
+                result = new InterpretedCondition(withCompiledKeys(test));
+            }
+        }
+        if (result == null) {
+            result = new InterpretedCondition(test);
+        }
+        return memoize(result);
+    }
+
+    private Condition compileExists(final Arguments arguments) {
+        final List<Argument> argumentList = arguments.getArgumentList();
+        if (argumentList.size() != 1
+                || !(argumentList.get(0) instanceof StringListArgument)
+                || arguments.hasTests()) {
+            return null;
+        }
+        return new ExistsCondition(toArray(((StringListArgument) argumentList
+                .get(0)).getList()));
+    }
+
+    private Condition compileSize(final Arguments arguments) {
+        final List<Argument> argumentList = arguments.getArgumentList();
+        if (argumentList.size() != 2
+                || !(argumentList.get(0) instanceof TagArgument)
+                || !(argumentList.get(1) instanceof NumberArgument)) {
+            return null;
+        }
+        final String tag = ((TagArgument) argumentList.get(0)).getTag();
+        final Integer size = ((NumberArgument) argumentList.get(1))
+                .getInteger();
+        if (size == null || !(tag.equals(":over") || tag.equals(":under"))) {
+            return null;
+        }
+        return new SizeCondition(tag.equals(":over"), size.intValue());
+    }
+
+    private Condition compileHeader(final Arguments arguments) {
+        if (arguments.hasTests()) {
+            return null;
+        }
+        final List<Argument> argumentList = arguments.getArgumentList();
+        String comparator = null;
+        String matchType = null;
+        int i = 0;
+        while (i < argumentList.size()
+                && argumentList.get(i) instanceof TagArgument) {
+            final String tag = ((TagArgument) argumentList.get(i++)).getTag();
+            if (comparator == null && tag.equals(COMPARATOR_TAG)) {
+                if (i >= argumentList.size()
+                        || !(argumentList.get(i) instanceof StringListArgument)) {
+                    return null;
+                }
+                final List<String> names = ((StringListArgument) argumentList
+                        .get(i++)).getList();
+                if (names.size() != 1) {
+                    return null;
+                }
+                comparator = names.get(0);
+            } else if (matchType == null
+                    && (tag.equals(IS_TAG) || tag.equals(CONTAINS_TAG) || tag
+                            .equals(MATCHES_TAG))) {
+                matchType = tag;
+            } else {
+                return null;
+            }
+        }
+        if (argumentList.size() - i != 2
+                || !(argumentList.get(i) instanceof StringListArgument)
+                || !(argumentList.get(i + 1) instanceof StringListArgument)) {
+            return null;
+        }
+        final String[] headerNames = toArray(((StringListArgument) argumentList
+                .get(i)).getList());
+        final List<String> keys = ((StringListArgument) argumentList
+                .get(i + 1)).getList();
+        if (comparator == null) {
+            comparator = ASCII_CASEMAP_COMPARATOR;
+        }
+        if (matchType == null) {
+            matchType = IS_TAG;
+        }
+
+        final Class comparatorClass;
+        try {
+            comparatorClass = context.getComparatorManager().getComparator(
+                    comparator).getClass();
+        } catch (LookupException e) {
+            // Report the failure when the test runs
+            return null;
+        }
+        if (keys.isEmpty()
+                || (comparatorClass != Octet.class && comparatorClass != AsciiCasemap.class)) {
+            return HeaderCondition.create(headerNames, comparator, matchType,
+                    keys);
+        }
+        final boolean ignoreCase = comparatorClass == AsciiCasemap.class;
+        if (MATCHES_TAG.equals(matchType)) {
+            final GlobMatcher[] globs = new GlobMatcher[keys.size()];
+            for (int k = 0; k < globs.length; k++) {
+                globs[k] = GlobMatcher.compile(keys.get(k));
+            }
+            return HeaderCondition.create(headerNames, comparator, matchType,
+                    keys, globs, ignoreCase);
+        }
+        return HeaderCondition.create(headerNames, comparator, matchType, keys,
+                KeyListMatcher.compile(matchType, keys, ignoreCase));
+    }
+
+    /**
+     * Are the arguments of a <code>body</code> test valid, with a comparator
+     * which supports every match type?
+     */
+    private boolean isValidBody(final Arguments arguments) {
+        if (arguments.hasTests()) {
+            return false;
+        }
+        final List<Argument> argumentList = arguments.getArgumentList();
+        String comparator = null;
+        String matchType = null;
+        String transform = null;
+        int i = 0;
+        while (i < argumentList.size()
+                && argumentList.get(i) instanceof TagArgument) {
+            final String tag = ((TagArgument) argumentList.get(i++)).getTag();
+            if (comparator == null && tag.equals(COMPARATOR_TAG)) {
+                if (i >= argumentList.size()
+                        || !(argumentList.get(i) instanceof StringListArgument)
+                        || ((StringListArgument) argumentList.get(i)).getList()
+                                .size() != 1) {
+                    return false;
+                }
+                comparator = ((StringListArgument) argumentList.get(i++))
+                        .getList().get(0);
+            } else if (matchType == null
+                    && (tag.equals(IS_TAG) || tag.equals(CONTAINS_TAG) || tag
+                            .equals(MATCHES_TAG))) {
+                matchType = tag;
+            } else if (transform == null
+                    && (tag.equals(RAW_TAG) || tag.equals(TEXT_TAG))) {
+                transform = tag;
+            } else if (transform == null && tag.equals(CONTENT_TAG)) {
+                if (i >= argumentList.size()
+                        || !(argumentList.get(i++) instanceof StringListArgument)) {
+                    return false;
+                }
+                transform = tag;
+            } else {
+                return false;
+            }
+        }
+        if (argumentList.size() - i != 1
+                || !(argumentList.get(i) instanceof StringListArgument)) {
+            return false;
+        }
+        try {
+            final Class comparatorClass = context.getComparatorManager()
+                    .getComparator(
+                            comparator == null ? ASCII_CASEMAP_COMPARATOR
+                                    : comparator).getClass();
+            return comparatorClass == Octet.class
+                    || comparatorClass == AsciiCasemap.class;
+        } catch (LookupException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Answers a copy of a test whose keys, its last argument, keep their
+     * compiled form between runs.
+     */
+    private static Test withCompiledKeys(final Test test) {
+        final Arguments arguments = test.getArguments();
+        final List<Argument> argumentList = arguments.getArgumentList();
+        final int last = argumentList.size() - 1;
+        if (last < 0 || !(argumentList.get(last) instanceof StringListArgument)) {
+            return test;
+        }
+        final List<Argument> copy = new ArrayList<Argument>(argumentList);
+        copy.set(last, new StringListArgument(ComparatorUtils
+                .compileKeys(((StringListArgument) argumentList.get(last))
+                        .getList())));
+        return new Test(test.getName(), new Arguments(copy, arguments
+                .getTestList()));
+    }
+
+    /**
+     * Answers a key for a test without nested tests, from its name and
+     * arguments.
+     */
+    private static Object key(final Test test) {
+        final List<Argument> argumentList = test.getArguments()
+                .getArgumentList();
+        final List<Object> key = new ArrayList<Object>(argumentList.size() + 1);
+        key.add(test.getName());
+        for (final Argument argument : argumentList) {
+            key.add(argument.getValue());
+        }
+        return key;
+    }
+
+    /**
+     * Is a command one of the standard actions, which never change the mail?
+     */
+    private static boolean isAction(final Class type) {
+        return type == Keep.class || type == Discard.class
+                || type == Redirect.class || type == Reject.class
+                || type == FileInto.class
+                || type == org.apache.jsieve.commands.extensions.Log.class
+                || type == Require.class || type == Stop.class;
+    }
+
+    private Class commandClass(final Command command) {
+        try {
+            return context.getCommandManager().getCommand(command.getName())
+                    .getClass();
+        } catch (LookupException e) {
+            return null;
+        }
+    }
+
+    private Class testClass(final Test test) {
+        try {
+            return context.getTestManager().getTest(test.getName()).getClass();
+        } catch (LookupException e) {
+            return null;
+        }
+    }
+
+    private static String[] toArray(final List<String> list) {
+        return list.toArray(new String[list.size()]);
+    }
+}
@@ -0,0 +1,548 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jsieve.Argument;
+import org.apache.jsieve.Arguments;
+import org.apache.jsieve.Block;
+import org.apache.jsieve.Command;
+import org.apache.jsieve.Commands;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.Test;
+import org.apache.jsieve.TestList;
+import org.apache.jsieve.commands.AbstractPrologCommand;
+import org.apache.jsieve.commands.Else;
+import org.apache.jsieve.commands.Elsif;
+import org.apache.jsieve.commands.If;
+import org.apache.jsieve.commands.Stop;
+import org.apache.jsieve.exception.LookupException;
+import org.apache.jsieve.tests.AllOf;
+import org.apache.jsieve.tests.AnyOf;
+import org.apache.jsieve.tests.False;
+import org.apache.jsieve.tests.Not;
+import org.apache.jsieve.tests.True;
+
+/**
+ * <p>
+ * Simplifies the Commands and Tests of a validated script without changing
+ * what it does. Run between validation and evaluation, the optimizer
+ * </p>
+ * <ul>
+ * <li>folds <code>true</code>, <code>false</code>, <code>not</code> and
+ * <code>allof</code> or <code>anyof</code> of constant or single tests</li>
+ * <li>removes the arms of <code>if</code>, <code>elsif</code> and
+ * <code>else</code> chains which can never run, and empty <code>else</code>
+ * blocks</li>
+ * <li>moves the commands of a block which always runs into the enclosing
+ * block</li>
+ * <li>removes the commands following a <code>stop</code>, or following a
+ * chain all of whose arms stop</li>
+ * </ul>
+ * <p>
+ * A test which may run is never removed, even when its result does not
+ * matter, since it may fail. Blocks whose conditional commands are not
+ * properly chained, and scripts with a <code>require</code> other than at
+ * the start, are left as they are so that errors are unchanged. Standard
+ * commands and tests are only simplified when the managers map them to the
+ * standard implementations.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * An instance optimizes one script on a single thread. Parts of the original
+ * script are shared by the result.
+ * </p>
+ */
+public final class ScriptOptimizer {
+
+    private static final String TRUE_NAME = "true";
+
+    private static final String FALSE_NAME = "false";
+
+    private static final String ELSE_NAME = "else";
+
+    private final SieveContext context;
+
+    private int foldedTests;
+
+    private int removedCommands;
+
+    private int flattenedBlocks;
+
+    /**
+     * Constructs an optimizer using the managers of the given context.
+     * 
+     * @param context not null
+     */
+    public ScriptOptimizer(final SieveContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Optimizes the top level block of a script.
+     * 
+     * @param block not null
+     * @return block equivalent to the given block, not null
+     */
+    public Block optimize(final Block block) {
+        if (!isPrologFirst(block)) {
+            return block;
+        }
+        final Optimized optimized = optimizeBlock(block);
+        if (optimized == null || !getReport().isChanged()) {
+            return block;
+        }
+        return toBlock(optimized.commands);
+    }
+
+    /**
+     * Reports what was removed by the optimizations so far.
+     * 
+     * @return OptimizationReport, not null
+     */
+    public OptimizationReport getReport() {
+        return new OptimizationReport(foldedTests, removedCommands,
+                flattenedBlocks);
+    }
+
+    /**
+     * Optimizes the commands of a block, or answers null when its
+     * conditional commands are not properly chained.
+     */
+    private Optimized optimizeBlock(final Block block) {
+        final List<Command> commands = block.getChildren().getChildren();
+        if (!isWellFormed(commands)) {
+            return null;
+        }
+        final List<Command> results = new ArrayList<Command>(commands.size());
+        boolean stops = false;
+        int i = 0;
+        while (i < commands.size() && !stops) {
+            final Command command = commands.get(i);
+            if (commandClass(command) == If.class) {
+                final int end = chainEnd(commands, i);
+                stops = optimizeChain(commands.subList(i, end), results);
+                i = end;
+            } else {
+                results.add(command);
+                stops = commandClass(command) == Stop.class;
+                i++;
+            }
+        }
+        for (; i < commands.size(); i++) {
+            // Never run
+            removedCommands += countCommands(commands.get(i));
+        }
+        return new Optimized(results, stops);
+    }
+
+    /**
+     * Adds the optimized commands of a chain to the results.
+     * 
+     * @return true when the chain always stops, false otherwise
+     */
+    private boolean optimizeChain(final List<Command> chain,
+            final List<Command> results) {
+        final int size = chain.size();
+        final boolean hasElse = commandClass(chain.get(size - 1)) == Else.class;
+        final List<Optimized> blocks = new ArrayList<Optimized>(size);
+        for (final Command arm : chain) {
+            final Optimized block = optimizeBlock(arm.getBlock());
+            if (block == null) {
+                results.addAll(chain);
+                return false;
+            }
+            blocks.add(block);
+        }
+
+        final List<Command> arms = new ArrayList<Command>(size);
+        boolean exhaustive = false;
+        boolean stops = true;
+        int k = 0;
+        for (; k < size && !exhaustive; k++) {
+            final Command arm = chain.get(k);
+            final Optimized block = blocks.get(k);
+            List<Test> tests = null;
+            Boolean value = Boolean.TRUE;
+            if (k < size - 1 || !hasElse) {
+                final List<Test> original = arm.getArguments().getTestList()
+                        .getTests();
+                tests = foldTests(original, false);
+                value = listValue(tests, false);
+                foldedTests += countTests(original)
+                        - (value == null ? countTests(tests) : 0);
+            }
+            if (value == null) {
+                arms.add(rewrite(arm, arms.isEmpty() ? chain.get(0).getName()
+                        : arm.getName(), tests, block.commands));
+                stops = stops && block.stops;
+            } else if (value.booleanValue()) {
+                exhaustive = true;
+                if (arms.isEmpty()) {
+                    // The block always runs
+                    if (block.commands.isEmpty()) {
+                        removedCommands++;
+                    } else {
+                        flattenedBlocks++;
+                    }
+                    results.addAll(block.commands);
+                    removedCommands += countRemaining(chain, k + 1);
+                    return block.stops;
+                }
+                if (block.commands.isEmpty()) {
+                    removedCommands += countCommands(arm);
+                    stops = false;
+                } else {
+                    arms.add(toElse(arm, chain, block.commands));
+                    stops = stops && block.stops;
+                }
+            } else {
+                removedCommands += countCommands(arm);
+            }
+        }
+        removedCommands += countRemaining(chain, k);
+        results.addAll(arms);
+        return exhaustive && stops && !arms.isEmpty();
+    }
+
+    /**
+     * Folds the tests of a list in which tests run in turn until one passes,
+     * when any, or fails, otherwise. Tests which cannot change the result are
+     * removed, as are the tests following one which decides it.
+     */
+    private List<Test> foldTests(final List<Test> tests, final boolean any) {
+        final List<Test> results = new ArrayList<Test>(tests.size());
+        for (final Test test : tests) {
+            final Test folded = foldTest(test);
+            final Boolean value = constantValue(folded);
+            if (value == null || value.booleanValue() == any) {
+                results.add(folded);
+                if (value != null) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private Test foldTest(final Test test) {
+        final Arguments arguments = test.getArguments();
+        if (arguments == null || !arguments.getArgumentList().isEmpty()
+                || !arguments.hasTests()) {
+            return test;
+        }
+        final Class type = testClass(test);
+        final List<Test> tests = arguments.getTestList().getTests();
+        if (type == AllOf.class || type == AnyOf.class) {
+            final boolean any = type == AnyOf.class;
+            final List<Test> folded = foldTests(tests, any);
+            final Boolean value = listValue(folded, any);
+            if (value != null) {
+                return constant(value.booleanValue(), test);
+            }
+            if (folded.size() == 1) {
+                return folded.get(0);
+            }
+            return folded.equals(tests) ? test : withTests(test, folded);
+        } else if (type == Not.class && tests.size() == 1) {
+            final Test folded = foldTest(tests.get(0));
+            final Boolean value = constantValue(folded);
+            if (value != null) {
+                return constant(!value.booleanValue(), test);
+            }
+            final Arguments foldedArguments = folded.getArguments();
+            if (testClass(folded) == Not.class && foldedArguments != null
+                    && foldedArguments.getArgumentList().isEmpty()
+                    && foldedArguments.hasTests()
+                    && foldedArguments.getTestList().getTests().size() == 1) {
+                // Double negation
+                return foldedArguments.getTestList().getTests().get(0);
+            }
+            return folded == tests.get(0) ? test : withTests(test, Collections
+                    .singletonList(folded));
+        }
+        return test;
+    }
+
+    /**
+     * Answers the result of a list of folded tests, or null when it is not
+     * constant.
+     */
+    private Boolean listValue(final List<Test> tests, final boolean any) {
+        if (tests.isEmpty()) {
+            return Boolean.valueOf(!any);
+        }
+        return tests.size() == 1 ? constantValue(tests.get(0)) : null;
+    }
+
+    /**
+     * Answers the result of a test, or null when it is not constant.
+     */
+    private Boolean constantValue(final Test test) {
+        final Arguments arguments = test.getArguments();
+        if (arguments == null || !arguments.getArgumentList().isEmpty()) {
+            return null;
+        }
+        final Class type = testClass(test);
+        if (type == True.class) {
+            return Boolean.TRUE;
+        } else if (type == False.class) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Answers a constant test replacing the given test, or the given test
+     * when the managers do not map a standard name to the constant.
+     */
+    private Test constant(final boolean value, final Test test) {
+        final Boolean current = constantValue(test);
+        if (current != null && current.booleanValue() == value) {
+            return test;
+        }
+        final Test result = new Test(value ? TRUE_NAME : FALSE_NAME,
+                new Arguments(new ArrayList<Argument>(0), null));
+        final Boolean resultValue = constantValue(result);
+        if (resultValue == null || resultValue.booleanValue() != value) {
+            return test;
+        }
+        return result;
+    }
+
+    private Test withTests(final Test test, final List<Test> tests) {
+        return new Test(test.getName(), new Arguments(test.getArguments()
+                .getArgumentList(), new TestList(tests)));
+    }
+
+    /**
+     * Answers the arm of a chain with the given name, tests and commands,
+     * reusing the arm when unchanged.
+     */
+    private Command rewrite(final Command arm, final String name,
+            final List<Test> tests, final List<Command> commands) {
+        final Arguments arguments = arm.getArguments();
+        final boolean sameTests = tests.equals(arguments.getTestList()
+                .getTests());
+        final boolean sameCommands = commands.equals(arm.getBlock()
+                .getChildren().getChildren());
+        if (name.equals(arm.getName()) && sameTests && sameCommands) {
+            return arm;
+        }
+        return new Command(name, sameTests ? arguments : new Arguments(
+                arguments.getArgumentList(), new TestList(tests)),
+                sameCommands ? arm.getBlock() : toBlock(commands), arm
+                        .getCoordinate());
+    }
+
+    /**
+     * Answers an else replacing an arm which always runs.
+     */
+    private Command toElse(final Command arm, final List<Command> chain,
+            final List<Command> commands) {
+        if (commandClass(arm) == Else.class) {
+            return commands.equals(arm.getBlock().getChildren().getChildren()) ? arm
+                    : new Command(arm.getName(), arm.getArguments(),
+                            toBlock(commands), arm.getCoordinate());
+        }
+        final Command last = chain.get(chain.size() - 1);
+        final String name = commandClass(last) == Else.class ? last.getName()
+                : ELSE_NAME;
+        final Command result = new Command(name, new Arguments(
+                new ArrayList<Argument>(0), null), toBlock(commands), arm
+                .getCoordinate());
+        if (commandClass(result) != Else.class) {
+            // Keep the arm, whose tests always pass
+            foldedTests -= countTests(arm.getArguments().getTestList()
+                    .getTests());
+            return rewrite(arm, arm.getName(), arm.getArguments()
+                    .getTestList().getTests(), commands);
+        }
+        return result;
+    }
+
+    /**
+     * Are the conditional commands of a block properly chained?
+     */
+    private boolean isWellFormed(final List<Command> commands) {
+        int i = 0;
+        while (i < commands.size()) {
+            final Class type = commandClass(commands.get(i));
+            if (type == If.class) {
+                final int end = chainEnd(commands, i);
+                for (int k = i; k < end; k++) {
+                    if (!isValidArm(commands.get(k), k < end - 1
+                            || commandClass(commands.get(k)) != Else.class)) {
+                        return false;
+                    }
+                }
+                i = end;
+            } else if (type == Elsif.class || type == Else.class) {
+                // Not preceded by an if
+                return false;
+            } else {
+                i++;
+            }
+        }
+        return true;
+    }
+
+    private boolean isValidArm(final Command arm, final boolean conditional) {
+        final Arguments arguments = arm.getArguments();
+        if (arm.getBlock() == null || arguments == null) {
+            return false;
+        }
+        return conditional ? arguments.hasTests() : arguments
+                .getArgumentList().isEmpty();
+    }
+
+    /**
+     * Is every prolog command of the script at the start of its top level
+     * block? Removing or moving commands may otherwise change whether a
+     * prolog command is allowed.
+     */
+    private boolean isPrologFirst(final Block block) {
+        boolean inProlog = true;
+        for (final Command command : block.getChildren().getChildren()) {
+            if (isPrologCommand(command)) {
+                if (!inProlog) {
+                    return false;
+                }
+            } else {
+                inProlog = false;
+                if (containsPrologCommand(command.getBlock())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean containsPrologCommand(final Block block) {
+        if (block != null) {
+            for (final Command command : block.getChildren().getChildren()) {
+                if (isPrologCommand(command)
+                        || containsPrologCommand(command.getBlock())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isPrologCommand(final Command command) {
+        try {
+            return context.getCommandManager().getCommand(command.getName()) instanceof AbstractPrologCommand;
+        } catch (LookupException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the end of the chain starting with the if command at the given
+     * index.
+     */
+    private int chainEnd(final List<Command> commands, final int start) {
+        int end = start + 1;
+        while (end < commands.size()) {
+            final Class type = commandClass(commands.get(end));
+            if (type == Elsif.class) {
+                end++;
+            } else {
+                if (type == Else.class) {
+                    end++;
+                }
+                break;
+            }
+        }
+        return end;
+    }
+
+    private int countRemaining(final List<Command> commands, final int start) {
+        int count = 0;
+        for (int i = start; i < commands.size(); i++) {
+            count += countCommands(commands.get(i));
+        }
+        return count;
+    }
+
+    private static int countCommands(final Command command) {
+        int count = 1;
+        final Block block = command.getBlock();
+        if (block != null) {
+            for (final Command child : block.getChildren().getChildren()) {
+                count += countCommands(child);
+            }
+        }
+        return count;
+    }
+
+    private static int countTests(final List<Test> tests) {
+        int count = tests.size();
+        for (final Test test : tests) {
+            final Arguments arguments = test.getArguments();
+            if (arguments != null && arguments.hasTests()) {
+                count += countTests(arguments.getTestList().getTests());
+            }
+        }
+        return count;
+    }
+
+    private static Block toBlock(final List<Command> commands) {
+        return new Block(new Commands(commands));
+    }
+
+    private Class commandClass(final Command command) {
+        try {
+            return context.getCommandManager().getCommand(command.getName())
+                    .getClass();
+        } catch (LookupException e) {
+            return null;
+        }
+    }
+
+    private Class testClass(final Test test) {
+        try {
+            return context.getTestManager().getTest(test.getName()).getClass();
+        } catch (LookupException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The optimized commands of a block.
+     */
+    private static final class Optimized {
+
+        final List<Command> commands;
+
+        /** Does the block always stop? */
+        final boolean stops;
+
+        Optimized(final List<Command> commands, final boolean stops) {
+            this.commands = commands;
+            this.stops = stops;
+        }
+    }
+}
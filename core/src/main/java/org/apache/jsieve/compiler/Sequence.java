@@ -0,0 +1,52 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import java.util.Arrays;
+
+import org.apache.jsieve.Executable;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * The compiled commands of a block, run in order.
+ */
+final class Sequence implements Executable {
+
+    private final Executable[] children;
+
+    Sequence(final Executable[] children) {
+        this.children = children;
+    }
+
+    public Object execute(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        for (final Executable child : children) {
+            child.execute(mail, context);
+        }
+        return null;
+    }
+
+    public String toString() {
+        return Arrays.asList(children).toString();
+    }
+}
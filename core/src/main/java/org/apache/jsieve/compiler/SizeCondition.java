@@ -0,0 +1,61 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import java.util.Arrays;
+
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+
+/**
+ * The <code>size</code> test.
+ */
+final class SizeCondition implements Condition {
+
+    private final boolean over;
+
+    private final int size;
+
+    SizeCondition(final boolean over, final int size) {
+        this.over = over;
+        this.size = size;
+    }
+
+    public boolean isPassed(MailAdapter mail, SieveContext context)
+            throws SieveException {
+        final int mailSize = mail.getSize();
+        return over ? mailSize > size : mailSize < size;
+    }
+
+    public int cost() {
+        return CHEAP_COST;
+    }
+
+    public Object key() {
+        return Arrays.asList("size", Boolean.valueOf(over), Integer
+                .valueOf(size));
+    }
+
+    public String toString() {
+        return "size " + (over ? ":over " : ":under ") + size;
+    }
+}
@@ -0,0 +1,122 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Class HeaderIndex holds the headers of a mail keyed by their name folded to
+ * lower case and stripped of whitespace prefixes and suffixes. Once built,
+ * {@link #getMatchingHeader(String)} answers in constant time rather than
+ * scanning every header name of the mail.
+ * </p>
+ * 
+ * <p>
+ * MailAdapter implementations typically build an index lazily on the first
+ * header lookup of an evaluation and drop it when
+ * {@link MailAdapter#setContext(org.apache.jsieve.SieveContext)} is next
+ * called. Instances are not thread safe.
+ * </p>
+ */
+public class HeaderIndex {
+
+    private static final List<String> EMPTY = Collections.emptyList();
+
+    /**
+     * Header values keyed by folded name, in the order added.
+     */
+    private final Map<String, List<String>> valuesByName = new HashMap<String, List<String>>();
+
+    /**
+     * Distinct header names as added.
+     */
+    private final Set<String> names = new LinkedHashSet<String>();
+
+    /**
+     * Adds a header to the index.
+     * 
+     * @param name header name as it appears in the mail, not null
+     * @param value header value, not null
+     */
+    public void add(String name, String value) {
+        names.add(name);
+        final String key = fold(name.trim());
+        List<String> values = valuesByName.get(key);
+        if (values == null) {
+            values = new ArrayList<String>(2);
+            valuesByName.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Answers the values of all headers whose name matches the passed name
+     * ignoring case and the whitespace prefixes and suffixes of the header
+     * name, as described by {@link MailAdapter#getMatchingHeader(String)}.
+     * 
+     * @param name not null
+     * @return <code>List</code>, not null possibly empty, unmodifiable
+     */
+    public List<String> getMatchingHeader(String name) {
+        final List<String> values = valuesByName.get(fold(name));
+        return values == null ? EMPTY : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Answers the distinct names of the headers in the index.
+     * 
+     * @return <code>List</code>, not null possibly empty
+     */
+    public List<String> getHeaderNames() {
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * Folds ASCII upper case letters to lower case, copying only when needed.
+     */
+    private static String fold(String name) {
+        final int length = name.length();
+        for (int i = 0; i < length; i++) {
+            final char ch = name.charAt(i);
+            if (ch >= 'A' && ch <= 'Z') {
+                final char[] chars = name.toCharArray();
+                for (int j = i; j < length; j++) {
+                    final char c = chars[j];
+                    if (c >= 'A' && c <= 'Z') {
+                        chars[j] = (char) (c + ('a' - 'A'));
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return name;
+    }
+
+    public String toString() {
+        return "HeaderIndex " + valuesByName.keySet();
+    }
+}
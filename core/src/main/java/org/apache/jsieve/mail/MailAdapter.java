@@ -120,6 +120,12 @@ public interface MailAdapter {
      * are considered equal.
      * </p>
      * 
+     * <p>
+     * This method is called for every header, exists and address test so
+     * implementations should avoid scanning all header names on each call.
+     * {@link HeaderIndex} answers in constant time once built.
+     * </p>
+     * 
      * @param name
      * @return <code>List</code>, not null possibly empty, possible
      *         unmodifiable
@@ -48,6 +48,11 @@ public class MailUtils {
      * From" and " from " are considered equal.
      * </p>
      * 
+     * <p>
+     * Every header name is scanned on each call. Callers looking up several
+     * headers of the same mail should use a {@link HeaderIndex} instead.
+     * </p>
+     * 
      * @param name
      * @return List
      * @throws SieveMailException
@@ -61,4 +66,33 @@ public class MailUtils {
         }
         return matchedHeaderValues;
     }
+
+    /**
+     * <p>
+     * Method isContentTypeMatched answers whether a MIME type is selected by a
+     * list of content types, as required by the <code>:content</code> body
+     * transform of RFC 5173. A content type of the form "type" selects every
+     * subtype of that type, while "type/subtype" selects only that MIME type.
+     * The empty content type selects every MIME type. Case is ignored.
+     * </p>
+     * 
+     * @param mimeType MIME type of the form "type/subtype", not null
+     * @param contentTypes not null
+     * @return true when selected, false otherwise
+     */
+    static public boolean isContentTypeMatched(String mimeType,
+            List<String> contentTypes) {
+        final int slash = mimeType.indexOf('/');
+        final String type = slash < 0 ? mimeType : mimeType.substring(0, slash);
+        for (String contentType : contentTypes) {
+            final String trimmed = contentType.trim();
+            if (trimmed.length() == 0) {
+                return true;
+            } else if (trimmed.indexOf('/') < 0 ? trimmed.equalsIgnoreCase(type)
+                    : trimmed.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,81 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mail.optional;
+
+import java.util.List;
+
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.SieveMailException;
+
+/**
+ * Interface BodyAccessors specifies the method signatures that allow the Body
+ * Test to search the body of a mail as a stream rather than as a single
+ * string, as required to support RFC 5173 in full.
+ */
+public interface BodyAccessors {
+
+    /**
+     * <p>
+     * Method isInBodyText answers whether any of the given phrases occurs in
+     * the text of the body, ignoring the case of ASCII letters.
+     * </p>
+     * <p>
+     * Implementations should walk the MIME parts of the body, decode their
+     * transfer encodings incrementally and search all phrases in a single pass,
+     * so that memory use does not grow with the size of the mail.
+     * </p>
+     * 
+     * @param phrasesCaseInsensitive phrases to search for, not null
+     * @return true when some phrase is found, false otherwise
+     * @throws SieveMailException when the search cannot be completed
+     */
+    public boolean isInBodyText(List<String> phrasesCaseInsensitive)
+            throws SieveMailException;
+
+    /**
+     * <p>
+     * Method visitBody passes the text of the body parts selected by the given
+     * BODY-TRANSFORM to the handler, as defined by RFC 5173:
+     * </p>
+     * <ul>
+     * <li><code>:raw</code> selects the undecoded body of the mail as a
+     * single part</li>
+     * <li><code>:content</code> selects the leaf parts whose content type
+     * matches one of the given content types, as decided by
+     * {@link org.apache.jsieve.mail.MailUtils#isContentTypeMatched(String, List)},
+     * with transfer encodings and charsets decoded</li>
+     * <li><code>:text</code> selects the decoded <code>text</code> parts</li>
+     * </ul>
+     * <p>
+     * Implementations should stream the text of each part and may share
+     * decoded parts between calls made during one evaluation.
+     * </p>
+     * 
+     * @param transform one of the
+     *            {@link org.apache.jsieve.tests.BodyTransformTags}, not null
+     * @param contentTypes content types selected by <code>:content</code>,
+     *            ignored otherwise
+     * @param handler not null
+     * @throws SieveException when the body cannot be read or the handler
+     *             fails
+     */
+    public void visitBody(String transform, List<String> contentTypes,
+            BodyHandler handler) throws SieveException;
+}
@@ -0,0 +1,65 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mail.optional;
+
+import org.apache.jsieve.exception.SieveException;
+
+/**
+ * <p>
+ * Interface BodyHandler receives the text of the body parts selected by a body
+ * test, one part at a time and in chunks, so that a body need never be held in
+ * memory as a whole.
+ * </p>
+ * <p>
+ * Each method answers whether the handler is done, in which case the walk
+ * stops and no further calls are made.
+ * </p>
+ */
+public interface BodyHandler {
+
+    /**
+     * Method startPart is called before the text of each selected part.
+     * 
+     * @return true when done, false otherwise
+     * @throws SieveException
+     */
+    public boolean startPart() throws SieveException;
+
+    /**
+     * Method text is called with the next chunk of text of the current part.
+     * The characters must not be retained once this method returns.
+     * 
+     * @param chars not null
+     * @param offset index of the first character
+     * @param length number of characters
+     * @return true when done, false otherwise
+     * @throws SieveException
+     */
+    public boolean text(char[] chars, int offset, int length)
+            throws SieveException;
+
+    /**
+     * Method endPart is called after the text of each selected part.
+     * 
+     * @return true when done, false otherwise
+     * @throws SieveException
+     */
+    public boolean endPart() throws SieveException;
+}
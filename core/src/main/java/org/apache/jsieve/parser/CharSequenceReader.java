@@ -0,0 +1,120 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <p>
+ * A <code>Reader</code> over the characters of a <code>CharSequence</code>.
+ * Characters are read in place so that, unlike
+ * <code>new StringReader(sequence.toString())</code>, no copy is made of
+ * sequences which are not strings, such as <code>StringBuilder</code> or
+ * <code>CharBuffer</code>.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public final class CharSequenceReader extends Reader {
+
+    private final CharSequence sequence;
+
+    private final int length;
+
+    private int position;
+
+    /**
+     * Constructs a reader over the current contents of the given sequence.
+     * 
+     * @param sequence not null
+     */
+    public CharSequenceReader(final CharSequence sequence) {
+        this.sequence = sequence;
+        this.length = sequence.length();
+        this.position = 0;
+    }
+
+    /**
+     * @see java.io.Reader#read(char[], int, int)
+     */
+    public int read(final char[] buffer, final int offset, final int count)
+            throws IOException {
+        if (offset < 0 || count < 0 || offset + count > buffer.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (count == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        final int end = Math.min(length, position + count);
+        if (sequence instanceof String) {
+            ((String) sequence).getChars(position, end, buffer, offset);
+        } else {
+            for (int i = position, j = offset; i < end; i++, j++) {
+                buffer[j] = sequence.charAt(i);
+            }
+        }
+        final int read = end - position;
+        position = end;
+        return read;
+    }
+
+    /**
+     * @see java.io.Reader#read()
+     */
+    public int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        return sequence.charAt(position++);
+    }
+
+    /**
+     * @see java.io.Reader#skip(long)
+     */
+    public long skip(final long count) throws IOException {
+        if (count <= 0) {
+            return 0;
+        }
+        final int skipped = (int) Math.min(length - position, count);
+        position += skipped;
+        return skipped;
+    }
+
+    /**
+     * @see java.io.Reader#ready()
+     */
+    public boolean ready() throws IOException {
+        return true;
+    }
+
+    /**
+     * @see java.io.Reader#close()
+     */
+    public void close() throws IOException {
+        // Nothing to release
+    }
+}
@@ -0,0 +1,106 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.parser;
+
+/**
+ * <p>
+ * Decodes the images of string tokens into their values.
+ * </p>
+ * <p>
+ * Each image is decoded in a single forward pass into a buffer sized up front,
+ * so the cost is linear in the length of the literal. This matters for large
+ * <code>text:</code> blocks such as reject and vacation messages.
+ * </p>
+ */
+public final class StringLiterals {
+
+    /** Length of the <code>CRLF "." CRLF</code> terminating a multi-line */
+    private static final int MULTI_LINE_END_LENGTH = 5;
+
+    /**
+     * Decodes a <code>quoted-string</code> image. The enclosing quotes are
+     * removed and each backslash is replaced by the character which follows
+     * it.
+     * 
+     * @param image token image including the quotes, not null
+     * @return decoded value, not null
+     */
+    public static String decodeQuoted(final String image) {
+        final int end = image.length() - 1;
+        final StringBuilder builder = new StringBuilder(Math.max(end - 1, 0));
+        unescape(image, 1, end, builder);
+        return builder.toString();
+    }
+
+    /**
+     * <p>
+     * Decodes a <code>multi-line</code> image. The <code>text:</code> prefix
+     * up to and including the first line feed and the terminating
+     * <code>CRLF "." CRLF</code> are removed. A leading dot is removed from
+     * every line starting with two dots and each backslash is replaced by the
+     * character which follows it.
+     * </p>
+     * 
+     * @param image token image from <code>text:</code> to the terminating
+     *            <code>CRLF "." CRLF</code>, not null
+     * @return decoded value, not null
+     */
+    public static String decodeMultiLine(final String image) {
+        final int start = image.indexOf('\n');
+        final int end = image.length() - MULTI_LINE_END_LENGTH;
+        if (start < 0 || start + 1 >= end) {
+            return "";
+        }
+        final StringBuilder builder = new StringBuilder(end - start - 1);
+        boolean escaped = false;
+        for (int i = start + 1; i < end; i++) {
+            final char next = image.charAt(i);
+            if (escaped) {
+                builder.append(next);
+                escaped = false;
+            } else if (next == '.' && image.charAt(i - 1) == '\n'
+                    && i + 1 < end && image.charAt(i + 1) == '.') {
+                // Dot stuffed line
+                continue;
+            } else if (next == '\\') {
+                escaped = true;
+            } else {
+                builder.append(next);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void unescape(final String image, final int start,
+            final int end, final StringBuilder builder) {
+        for (int i = start; i < end; i++) {
+            final char next = image.charAt(i);
+            if (next != '\\') {
+                builder.append(next);
+            } else if (++i < end) {
+                builder.append(image.charAt(i));
+            }
+        }
+    }
+
+    private StringLiterals() {
+    }
+}
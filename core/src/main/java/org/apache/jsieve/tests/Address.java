@@ -22,6 +22,9 @@ package org.apache.jsieve.tests;
 import static org.apache.jsieve.tests.AddressPartTags.DOMAIN_TAG;
 import static org.apache.jsieve.tests.AddressPartTags.LOCALPART_TAG;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.jsieve.SieveContext;
 import org.apache.jsieve.comparators.ComparatorUtils;
 import org.apache.jsieve.exception.InternetAddressException;
@@ -41,20 +44,36 @@ public class Address extends AbstractComparatorTest {
         super();
     }
 
+    /**
+     * Parses the addresses once and matches each against all the keys.
+     * 
+     * @see org.apache.jsieve.tests.AbstractComparatorTest#match(MailAdapter,
+     *      String, String, String, String, List, SieveContext)
+     */
     protected boolean match(MailAdapter mail, String addressPart,
-            String comparator, String matchType, String headerName, String key,
-            SieveContext context) throws SieveException {
+            String comparator, String matchType, String headerName,
+            List<String> keys, SieveContext context) throws SieveException {
+        if (keys.isEmpty()) {
+            return false;
+        }
         final MailAdapter.Address[] addresses = getMatchingValues(mail, headerName);
         final int length = addresses.length;
         int i = 0;
         boolean isMatched = false;
         while (!isMatched && i < length) {
             isMatched = match(addressPart, comparator, matchType,
-                    addresses[i++], key, context);
+                    addresses[i++], keys, context);
         }
         return isMatched;
     }
 
+    protected boolean match(MailAdapter mail, String addressPart,
+            String comparator, String matchType, String headerName, String key,
+            SieveContext context) throws SieveException {
+        return match(mail, addressPart, comparator, matchType, headerName,
+                Collections.singletonList(key), context);
+    }
+
     private MailAdapter.Address[] getMatchingValues(MailAdapter mail,
             String valueName) throws SieveMailException,
             InternetAddressException {
@@ -64,28 +83,43 @@ public class Address extends AbstractComparatorTest {
     protected boolean match(String addressPart, String comparator,
             String matchType, MailAdapter.Address address, String key,
             SieveContext context) throws SieveException {
+        return match(addressPart, comparator, matchType, address, Collections
+                .singletonList(key), context);
+    }
+
+    protected boolean match(String addressPart, String comparator,
+            String matchType, MailAdapter.Address address, List<String> keys,
+            SieveContext context) throws SieveException {
         final String localPart = address.getLocalPart();
         final String domain = address.getDomain();
 
+        // domain matches MUST ignore case, others should not
+        // i;ascii-casemap already ignores case so need not copy
+        final boolean isDomainFolded = addressPart.equals(DOMAIN_TAG)
+                && !ComparatorUtils.isCaseInsensitive(comparator, context);
+
         // Extract the part of the address we are matching on
         final String matchAddress;
         if (addressPart.equals(":all"))
             matchAddress = localPart + "@" + domain;
-        else {
-            matchAddress = (addressPart.equals(LOCALPART_TAG) ? localPart
-                    : domain.toLowerCase());
-        }
+        else if (addressPart.equals(LOCALPART_TAG))
+            matchAddress = localPart;
+        else
+            matchAddress = isDomainFolded ? domain.toLowerCase() : domain;
 
-        // domain matches MUST ignore case, others should not
-        String matchKey = null;
-        if (addressPart.equals(DOMAIN_TAG)) {
-            matchKey = key.toLowerCase();
-        } else {
-            matchKey = key;
+        if (!isDomainFolded) {
+            // Match all the keys at once using the specified comparator
+            return ComparatorUtils.match(comparator, matchType, matchAddress,
+                    keys, context);
         }
 
-        // Match using the specified comparator
-        return ComparatorUtils.match(comparator, matchType, matchAddress,
-                matchKey, context);
+        // Match each folded key using the specified comparator
+        for (final String key : keys) {
+            if (ComparatorUtils.match(comparator, matchType, matchAddress, key
+                    .toLowerCase(), context)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -221,16 +221,9 @@ public class Header extends AbstractTest {
     protected boolean match(String comparator, String matchType,
             String headerValue, List<String> keys, SieveContext context)
             throws SieveException {
-        // Iterate over the keys looking for a match
-        boolean isMatched = false;
-        for (final String key: keys) {
-            isMatched = ComparatorUtils.match(comparator, matchType,
-                    headerValue, key, context);
-            if (isMatched) {
-                break;
-            }
-        }
-        return isMatched;
+        // Match all the keys at once
+        return ComparatorUtils.match(comparator, matchType, headerValue, keys,
+                context);
     }
 
     /**
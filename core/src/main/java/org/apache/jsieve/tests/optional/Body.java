@@ -19,65 +19,229 @@
 
 package org.apache.jsieve.tests.optional;
 
+import static org.apache.jsieve.comparators.ComparatorNames.ASCII_CASEMAP_COMPARATOR;
+import static org.apache.jsieve.comparators.MatchTypeTags.CONTAINS_TAG;
+import static org.apache.jsieve.comparators.MatchTypeTags.IS_TAG;
+import static org.apache.jsieve.comparators.MatchTypeTags.MATCHES_TAG;
+import static org.apache.jsieve.tests.BodyTransformTags.CONTENT_TAG;
+import static org.apache.jsieve.tests.BodyTransformTags.RAW_TAG;
+import static org.apache.jsieve.tests.BodyTransformTags.TEXT_TAG;
+import static org.apache.jsieve.tests.ComparatorTags.COMPARATOR_TAG;
+
 import java.util.List;
+import java.util.ListIterator;
 
 import org.apache.jsieve.Argument;
 import org.apache.jsieve.Arguments;
 import org.apache.jsieve.SieveContext;
 import org.apache.jsieve.StringListArgument;
 import org.apache.jsieve.TagArgument;
+import org.apache.jsieve.comparators.ComparatorUtils;
+import org.apache.jsieve.comparators.KeyListMatcher;
 import org.apache.jsieve.exception.SieveException;
-import org.apache.jsieve.exception.SyntaxException;
 import org.apache.jsieve.mail.MailAdapter;
 import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.mail.optional.BodyAccessors;
+import org.apache.jsieve.mail.optional.BodyHandler;
 import org.apache.jsieve.tests.AbstractTest;
 
 /**
+ * <p>
  * Implementation of body extension defined in
  * <a href='http://tools.ietf.org/html/rfc5173'>RFC5173</a>.
+ * </p>
+ * <code>
+ * Syntax: body [COMPARATOR] [MATCH-TYPE] [BODY-TRANSFORM]
+ *         &lt;key-list: string-list&gt;
+ * </code>
+ * <p>
+ * The body is read through {@link BodyAccessors} as a stream of parts, and each
+ * selected part is tested separately. <code>:contains</code> matches using
+ * <code>i;octet</code> or <code>i;ascii-casemap</code> are scanned as the text
+ * arrives. Other matches need the text of each part as a whole.
+ * </p>
+ * <p>
+ * Mail adapters which do not implement {@link BodyAccessors} support only
+ * <code>:text</code> <code>:contains</code> matches using the default
+ * comparator, on mail of type <code>text</code>.
+ * </p>
+ * <p>
+ * Multipart and <code>message/rfc822</code> entities are walked rather than
+ * tested, so <code>:content</code> selects leaf parts only.
+ * </p>
  */
 public class Body extends AbstractTest {
-    private StringListArgument strings;
 
     public Body() {
         super();
-        strings = null;
     }
 
-    // TODO: Check how complete this is of the body specification
-    // Validate (sorta); we're only implementing part of the spec
-    protected void validateArguments(Arguments args, SieveContext ctx)
+    protected void validateArguments(Arguments arguments, SieveContext context)
             throws SieveException {
+        if (arguments.hasTests())
+            throw context.getCoordinate().syntaxException(
+                    "Found unexpected tests");
+        parse(arguments, context);
+    }
+
+    protected boolean executeBasic(MailAdapter mail, Arguments arguments,
+            SieveContext context) throws SieveException {
+        final Parameters parameters = parse(arguments, context);
+        return match(mail, parameters.comparator, parameters.matchType,
+                parameters.transform, parameters.contentTypes,
+                parameters.keys, context);
+    }
+
+    /**
+     * The arguments of a <code>body</code> test, with defaults applied.
+     */
+    private static final class Parameters {
+        String comparator = ASCII_CASEMAP_COMPARATOR;
+        String matchType = IS_TAG;
+        String transform = TEXT_TAG;
+        List<String> contentTypes = null;
+        List<String> keys = null;
+    }
 
-        final List<Argument> arglist = args.getArgumentList();
-        if (arglist.size() != 2) {
-            throw new SyntaxException(
-                    "Currently body-test can only two arguments");
+    /**
+     * Parses and checks the arguments.
+     * 
+     * @param arguments not null
+     * @param context not null
+     * @return arguments read, not null
+     * @throws SieveException when the arguments are not valid
+     */
+    private static Parameters parse(Arguments arguments, SieveContext context)
+            throws SieveException {
+        String comparator = null;
+        String matchType = null;
+        String transform = null;
+        List<String> contentTypes = null;
+        List<String> keys = null;
+
+        ListIterator<Argument> argumentsIter = arguments.getArgumentList().listIterator();
+        boolean stop = false;
+
+        // Tag processing
+        while (!stop && argumentsIter.hasNext()) {
+            Argument argument = argumentsIter.next();
+            if (argument instanceof TagArgument) {
+                final String tag = ((TagArgument) argument).getTag();
+
+                // [COMPARATOR]?
+                if (null == comparator && tag.equals(COMPARATOR_TAG)) {
+                    // The next argument must be a stringlist
+                    if (argumentsIter.hasNext()) {
+                        argument = argumentsIter.next();
+                        if (argument instanceof StringListArgument) {
+                            List<String> stringList = ((StringListArgument) argument)
+                                    .getList();
+                            if (stringList.size() != 1)
+                                throw context.getCoordinate().syntaxException(
+                                        "Expecting exactly one String");
+                            comparator = stringList.get(0);
+                        } else
+                            throw context.getCoordinate().syntaxException(
+                                    "Expecting a StringList");
+                    }
+                }
+                // [MATCH-TYPE]?
+                else if (null == matchType
+                        && (tag.equals(IS_TAG) || tag.equals(CONTAINS_TAG) || tag
+                                .equals(MATCHES_TAG)))
+                    matchType = tag;
+                // [BODY-TRANSFORM]?
+                else if (null == transform
+                        && (tag.equals(RAW_TAG) || tag.equals(TEXT_TAG)))
+                    transform = tag;
+                else if (null == transform && tag.equals(CONTENT_TAG)) {
+                    // The next argument must be a stringlist
+                    if (argumentsIter.hasNext()) {
+                        argument = argumentsIter.next();
+                        if (argument instanceof StringListArgument)
+                            contentTypes = ((StringListArgument) argument)
+                                    .getList();
+                    }
+                    if (null == contentTypes)
+                        throw context.getCoordinate().syntaxException(
+                                "Expecting a StringList of content types");
+                    transform = tag;
+                } else
+                    throw context.getCoordinate().syntaxException(
+                            "Found unexpected TagArgument: \"" + tag + "\"");
+            } else {
+                // Stop when a non-tag argument is encountered
+                argumentsIter.previous();
+                stop = true;
+            }
         }
 
-        // TODO: FIXME: As this is a limited implementation force the use of
-        // ':contains'.
-        Argument arg = arglist.get(0);
-        if (!(arg instanceof TagArgument)) {
-            throw new SyntaxException("Body expects a :contains tag");
+        // The next argument MUST be a string-list of keys
+        if (argumentsIter.hasNext()) {
+            final Argument argument = argumentsIter.next();
+            if (argument instanceof StringListArgument)
+                keys = ((StringListArgument) argument).getList();
         }
+        if (null == keys)
+            throw context.getCoordinate().syntaxException(
+                    "Expecting a StringList of keys");
 
-        if (!((TagArgument) arg).getTag().equals(":contains")) {
-            throw new SyntaxException("Body expects a :contains tag");
+        if (argumentsIter.hasNext())
+            throw context.getCoordinate().syntaxException(
+                    "Found unexpected arguments");
+
+        final Parameters parameters = new Parameters();
+        if (comparator != null)
+            parameters.comparator = comparator;
+        if (matchType != null)
+            parameters.matchType = matchType;
+        if (transform != null)
+            parameters.transform = transform;
+        parameters.contentTypes = contentTypes;
+        parameters.keys = keys;
+        return parameters;
+    }
+
+    /**
+     * Method match.
+     * 
+     * @param mail not null
+     * @param comparator not null
+     * @param matchType not null
+     * @param transform not null
+     * @param contentTypes not null when transform is <code>:content</code>
+     * @param keys not null
+     * @param context not null
+     * @return boolean
+     * @throws SieveException
+     */
+    protected boolean match(MailAdapter mail, String comparator,
+            String matchType, String transform, List<String> contentTypes,
+            List<String> keys, SieveContext context) throws SieveException {
+        if (keys.isEmpty()) {
+            return false;
+        }
+        if (mail instanceof BodyAccessors) {
+            final PartMatcher matcher;
+            final KeyListMatcher keyList = CONTAINS_TAG.equals(matchType) ? ComparatorUtils
+                    .compileKeyList(comparator, matchType, keys, context)
+                    : null;
+            if (keyList == null) {
+                matcher = new BufferingMatcher(comparator, matchType, keys,
+                        context);
+            } else {
+                matcher = new ScanningMatcher(keyList.scanner());
+            }
+            ((BodyAccessors) mail).visitBody(transform, contentTypes, matcher);
+            return matcher.isMatched();
         }
 
-        // Get list of strings to search for
-        arg = arglist.get(1);
-        if (!(arg instanceof StringListArgument)) {
-            throw new SyntaxException("Body expects a list of strings");
+        if (!TEXT_TAG.equals(transform) || !CONTAINS_TAG.equals(matchType)
+                || !ASCII_CASEMAP_COMPARATOR.equals(comparator)) {
+            throw new SieveMailException(
+                    "Mail adapter supports only body :text :contains tests");
         }
-        strings = (StringListArgument) args.getArgumentList().get(1);
-    }
 
-    // This implement body tests of the form
-    // "body :contains ['string' 'string' ....]"
-    protected boolean executeBasic(MailAdapter mail, Arguments args,
-            SieveContext ctx) throws SieveException {
         // Attempt to fetch content as a string. If we can't do this it's
         // not a message we can handle.
         if (mail.getContentType().indexOf("text/") != 0) {
@@ -85,7 +249,7 @@ public class Body extends AbstractTest {
         }
 
         // Compare each test string with body, ignoring case
-        for (final String phrase:strings.getList()) {
+        for (final String phrase:keys) {
             if (mail.isInBodyText(phrase)) {
                 return true;
             }
@@ -93,4 +257,79 @@ public class Body extends AbstractTest {
         return false;
     }
 
+    /**
+     * Matches keys against each body part in turn.
+     */
+    private static abstract class PartMatcher implements BodyHandler {
+        protected boolean isMatched = false;
+
+        public boolean isMatched() {
+            return isMatched;
+        }
+    }
+
+    /**
+     * Finds keys in the text as it arrives.
+     */
+    private static final class ScanningMatcher extends PartMatcher {
+        private final KeyListMatcher.Scanner scanner;
+
+        ScanningMatcher(KeyListMatcher.Scanner scanner) {
+            this.scanner = scanner;
+        }
+
+        public boolean startPart() {
+            scanner.reset();
+            isMatched = scanner.isMatched();
+            return isMatched;
+        }
+
+        public boolean text(char[] chars, int offset, int length) {
+            isMatched = scanner.scan(chars, offset, length);
+            return isMatched;
+        }
+
+        public boolean endPart() {
+            return isMatched;
+        }
+    }
+
+    /**
+     * Collects the text of each part then matches it using the comparator.
+     */
+    private static final class BufferingMatcher extends PartMatcher {
+        private final String comparator;
+
+        private final String matchType;
+
+        private final List<String> keys;
+
+        private final SieveContext context;
+
+        private final StringBuilder text = new StringBuilder();
+
+        BufferingMatcher(String comparator, String matchType,
+                List<String> keys, SieveContext context) {
+            this.comparator = comparator;
+            this.matchType = matchType;
+            this.keys = keys;
+            this.context = context;
+        }
+
+        public boolean startPart() {
+            text.setLength(0);
+            return false;
+        }
+
+        public boolean text(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+            return false;
+        }
+
+        public boolean endPart() throws SieveException {
+            isMatched = ComparatorUtils.match(comparator, matchType, text
+                    .toString(), keys, context);
+            return isMatched;
+        }
+    }
 }
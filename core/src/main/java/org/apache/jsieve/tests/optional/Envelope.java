@@ -23,6 +23,7 @@ package org.apache.jsieve.tests.optional;
 import static org.apache.jsieve.tests.AddressPartTags.DOMAIN_TAG;
 import static org.apache.jsieve.tests.AddressPartTags.LOCALPART_TAG;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.jsieve.SieveContext;
@@ -66,6 +67,25 @@ public class Envelope extends AbstractComparatorTest {
     protected boolean match(String addressPart, String comparator,
             String matchType, String headerValue, String key,
             SieveContext context) throws SieveException {
+        return match(addressPart, comparator, matchType, headerValue,
+                Collections.singletonList(key), context);
+    }
+
+    /**
+     * Method match.
+     * 
+     * @param addressPart
+     * @param comparator
+     * @param matchType
+     * @param headerValue
+     * @param keys
+     * @param context not null
+     * @return boolean
+     * @throws SieveMailException
+     */
+    protected boolean match(String addressPart, String comparator,
+            String matchType, String headerValue, List<String> keys,
+            SieveContext context) throws SieveException {
 
         // Extract the part of the address we are matching on
         String matchAddress = null;
@@ -91,25 +111,39 @@ public class Envelope extends AbstractComparatorTest {
         }
 
         // domain matches MUST ignore case, others should not
-        String matchKey = null;
-        if (addressPart.equals(DOMAIN_TAG)) {
-            matchKey = key.toLowerCase();
+        // i;ascii-casemap already ignores case so need not copy
+        if (addressPart.equals(DOMAIN_TAG) && !ComparatorUtils.isCaseInsensitive(comparator, context)) {
             matchAddress = matchAddress.toLowerCase();
-        } else
-            matchKey = key;
+            for (final String key : keys) {
+                if (ComparatorUtils.match(comparator, matchType, matchAddress,
+                        key.toLowerCase(), context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-        // Match using the specified comparator
+        // Match all the keys at once using the specified comparator
         return ComparatorUtils.match(comparator, matchType, matchAddress,
-                matchKey, context);
+                keys, context);
     }
 
+    /**
+     * Fetches the envelope values once and matches each against all the keys.
+     * 
+     * @see org.apache.jsieve.tests.AbstractComparatorTest#match(MailAdapter,
+     *      String, String, String, String, List, SieveContext)
+     */
     protected boolean match(MailAdapter mail, String addressPart,
-            String comparator, String matchType, String headerName, String key,
-            SieveContext context) throws SieveException {
+            String comparator, String matchType, String headerName,
+            List<String> keys, SieveContext context) throws SieveException {
+        if (keys.isEmpty()) {
+            return false;
+        }
         final List<String> headerValues = getMatchingValues(mail, headerName);
         boolean isMatched = false;
         for (final String value:headerValues) {
-            isMatched = match(addressPart, comparator, matchType, value, key, context);
+            isMatched = match(addressPart, comparator, matchType, value, keys, context);
             if (isMatched) {
                 break;
             }
@@ -117,4 +151,11 @@ public class Envelope extends AbstractComparatorTest {
         return isMatched;
     }
 
+    protected boolean match(MailAdapter mail, String addressPart,
+            String comparator, String matchType, String headerName, String key,
+            SieveContext context) throws SieveException {
+        return match(mail, addressPart, comparator, matchType, headerName,
+                Collections.singletonList(key), context);
+    }
+
 }
@@ -0,0 +1,101 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.ActionFileInto;
+import org.apache.jsieve.mail.ActionKeep;
+import org.apache.jsieve.mail.optional.BodyAccessors;
+import org.apache.jsieve.mail.optional.EnvelopeAccessors;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.apache.jsieve.utils.SieveEnvelopeMailAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class BatchEvaluateTest
+ */
+public class BatchEvaluateTest {
+
+    private SieveFactory factory;
+
+    private SieveEnvelopeMailAdapter mail;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new ConfigurationManager().build();
+        mail = JUnitUtils.createEnvelopeMail();
+        mail.getMessage().setSubject("Weekly coffee");
+        mail.setEnvelopeFrom("list@example.org");
+    }
+
+    @Test
+    public void testActionsAreCollectedForEachScript() throws Exception {
+        final List<List<Action>> results = factory.evaluate(mail, Arrays
+                .asList(JUnitUtils.compile("require \"fileinto\";"
+                        + "if header :contains \"Subject\" \"coffee\" {fileinto \"Coffee\";}"),
+                        JUnitUtils.compile("discard;"), JUnitUtils
+                                .compile("if true {stop;}")));
+        Assert.assertEquals(3, results.size());
+
+        Assert.assertEquals(2, results.get(0).size());
+        Assert.assertEquals("Coffee", ((ActionFileInto) results.get(0).get(0))
+                .getDestination());
+        Assert.assertTrue(results.get(0).get(1) instanceof ActionKeep);
+        Assert.assertTrue(results.get(1).isEmpty());
+        Assert.assertEquals(1, results.get(2).size());
+        Assert.assertTrue(results.get(2).get(0) instanceof ActionKeep);
+
+        // Nothing is added to, or executed by, the mail itself
+        Assert.assertTrue(mail.getActions().isEmpty());
+    }
+
+    @Test
+    public void testOptionalInterfacesAreVisible() throws Exception {
+        final List<List<Action>> results = factory.evaluate(mail, Arrays
+                .asList(JUnitUtils.compile("require \"envelope\";"
+                        + "if envelope :is \"from\" \"list@example.org\" {discard;}")));
+        Assert.assertTrue(results.get(0).isEmpty());
+    }
+
+    @Test
+    public void testViewImplementsInterfacesOfMail() throws Exception {
+        final ActionCollector envelopeView = ActionCollector.of(mail);
+        Assert.assertTrue(envelopeView instanceof EnvelopeAccessors);
+        Assert.assertTrue(envelopeView instanceof BodyAccessors);
+        final ActionCollector view = ActionCollector.of(JUnitUtils.createMail());
+        Assert.assertFalse(view instanceof EnvelopeAccessors);
+        Assert.assertTrue(view instanceof BodyAccessors);
+        Assert.assertEquals(mail.getHeader("Subject"), envelopeView.getHeader("Subject"));
+    }
+
+    @Test
+    public void testFailedScriptAnswersNull() throws Exception {
+        final List<List<Action>> results = factory.evaluate(mail, Arrays
+                .asList(JUnitUtils.compile("if header :comparator \"i;unknown\" :is \"Subject\" \"x\" {discard;}"),
+                        JUnitUtils.compile("discard;")));
+        Assert.assertNull(results.get(0));
+        Assert.assertTrue(results.get(1).isEmpty());
+    }
+}
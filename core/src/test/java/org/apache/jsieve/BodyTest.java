@@ -19,13 +19,17 @@
 
 package org.apache.jsieve;
 
+import javax.activation.DataHandler;
 import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
 
 import junit.framework.TestCase;
 
 import org.apache.jsieve.commands.ThrowTestException;
 import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.exception.SyntaxException;
 import org.apache.jsieve.parser.generated.ParseException;
 import org.apache.jsieve.utils.JUnitUtils;
 import org.apache.jsieve.utils.SieveMailAdapter;
@@ -86,22 +90,109 @@ public class BodyTest {
         Assert.assertTrue(isTestPassed);
     }
 
-    /**
-     * Test for Test 'body'
-     */
-    @Test
-    public void testBodyNoContains() {
-        boolean isTestPassed = false;
-        String script = "if body [\"wibble\"] {throwTestException;}";
+    protected SieveMailAdapter multipartMail() throws MessagingException {
+        SieveMailAdapter mail = (SieveMailAdapter) JUnitUtils.createMail();
+        MimeMultipart multipart = new MimeMultipart();
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText("Plain Wibble", "us-ascii");
+        multipart.addBodyPart(text);
+        MimeBodyPart html = new MimeBodyPart();
+        html.setContent("<p>Html Wobble</p>", "text/html");
+        multipart.addBodyPart(html);
+        MimeBodyPart attachment = new MimeBodyPart();
+        attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(
+                "Attached Wubble".getBytes(), "application/octet-stream")));
+        multipart.addBodyPart(attachment);
+        mail.getMessage().setContent(multipart);
+        mail.getMessage().saveChanges();
+        return mail;
+    }
+
+    private boolean isMatched(SieveMailAdapter mail, String test)
+            throws Exception {
         try {
-            JUnitUtils.interpret(textMail(), script);
-        } catch (MessagingException e) {
+            JUnitUtils.interpret(mail, "if " + test + " {throwTestException;}");
+            return false;
         } catch (ThrowTestException.TestException e) {
-        } catch (ParseException e) {
-        } catch (SieveException e) {
-            isTestPassed = true;
+            return true;
         }
-        Assert.assertTrue(isTestPassed);
+    }
+
+    /**
+     * Test for Test 'body'. RFC 5173 defaults to :is
+     */
+    @Test
+    public void testBodyNoContains() throws Exception {
+        Assert.assertFalse(isMatched(textMail(), "body [\"wibble\"]"));
+        Assert.assertTrue(isMatched(textMail(),
+                "body [\"wibble\n\nwibble\n\"]"));
+    }
+
+    @Test
+    public void testBodyMatches() throws Exception {
+        Assert.assertTrue(isMatched(textMail(), "body :matches \"w*e?\""));
+        Assert.assertFalse(isMatched(textMail(), "body :matches \"x*\""));
+    }
+
+    @Test
+    public void testBodyComparator() throws Exception {
+        Assert.assertFalse(isMatched(textMail(),
+                "body :comparator \"i;octet\" :contains \"wibble\""));
+        Assert.assertTrue(isMatched(textMail(),
+                "body :comparator \"i;octet\" :contains \"Wibble\""));
+    }
+
+    @Test
+    public void testBodyText() throws Exception {
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :text :contains \"plain wibble\""));
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :contains [\"nothing\", \"html wobble\"]"));
+        Assert.assertFalse(isMatched(multipartMail(),
+                "body :text :contains \"wubble\""));
+    }
+
+    @Test
+    public void testBodyContent() throws Exception {
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :content \"application\" :contains \"wubble\""));
+        Assert.assertFalse(isMatched(multipartMail(),
+                "body :content \"text/plain\" :contains \"wobble\""));
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :content [\"text/html\"] :is \"<p>html wobble</p>\""));
+    }
+
+    @Test
+    public void testBodyContentEmptyMatchesAll() throws Exception {
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :content \"\" :contains \"wubble\""));
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :content \"\" :contains \"plain wibble\""));
+        Assert.assertFalse(isMatched(multipartMail(),
+                "body :content [\"text/\", \"/plain\"] :contains \"plain wibble\""));
+    }
+
+    @Test
+    public void testBodyRaw() throws Exception {
+        Assert.assertTrue(isMatched(multipartMail(),
+                "body :raw :contains \"Content-Type: text/html\""));
+        Assert.assertFalse(isMatched(multipartMail(),
+                "body :raw :contains \"Subject:\""));
+    }
+
+    @Test(expected = SyntaxException.class)
+    public void testBodyContentNeedsTypes() throws Exception {
+        isMatched(textMail(), "body :content :contains \"wibble\"");
+    }
+
+    @Test(expected = SyntaxException.class)
+    public void testBodyUnknownTag() throws Exception {
+        isMatched(textMail(), "body :bogus \"wibble\"");
+    }
+
+    @Test(expected = SyntaxException.class)
+    public void testBodyUnexpectedArguments() throws Exception {
+        isMatched(textMail(), "body :contains \"wibble\" \"wobble\"");
     }
 
     /**
@@ -0,0 +1,170 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.apache.jsieve.utils.SieveMailAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledScriptSerializationTest {
+
+    private static final String SCRIPT = "require [\"fileinto\", \"reject\"];\r\n"
+            + "if anyof (header :comparator \"i;octet\" :contains \"Subject\" [\"[list]\", \"[jsieve]\"],\r\n"
+            + "          not exists \"Date\") {\r\n"
+            + "  fileinto \"lists\";\r\n"
+            + "} elsif size :over 1M {\r\n"
+            + "  reject text:\r\n"
+            + "Too big\r\n"
+            + "..really\r\n"
+            + ".\r\n"
+            + "  ;\r\n"
+            + "} elsif address :domain :is \"from\" \"example.org\" {\r\n"
+            + "  keep;\r\n"
+            + "} else {\r\n"
+            + "  fileinto \"inbox.other\";\r\n"
+            + "  stop;\r\n"
+            + "}\r\n";
+
+    private SieveFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new ConfigurationManager().build();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final CompiledScript script = factory.compile(new ByteArrayInputStream(
+                SCRIPT.getBytes("UTF-8")));
+        final CompiledScript loaded = factory.deserialize(
+                new ByteArrayInputStream(serialize(script)));
+        Assert.assertEquals(script.toString(), loaded.toString());
+
+        final Command command = loaded.getBlock().getChildren().getChildren()
+                .get(1);
+        final ScriptCoordinate coordinate = command.getCoordinate();
+        Assert.assertEquals(2, coordinate.getStartLineNumber());
+        Assert.assertEquals(1, coordinate.getStartColumnNumber());
+    }
+
+    @Test
+    public void testLoadedScriptEvaluates() throws Exception {
+        final CompiledScript script = factory.compile(new ByteArrayInputStream(
+                SCRIPT.getBytes("UTF-8")));
+        final CompiledScript loaded = factory.deserialize(
+                new ByteArrayInputStream(serialize(script)));
+
+        final SieveMailAdapter mail = createMail();
+        factory.evaluate(mail, script);
+        final SieveMailAdapter copy = createMail();
+        factory.evaluate(copy, loaded);
+        final List<Action> expected = mail.getActions();
+        Assert.assertEquals(1, expected.size());
+        Assert.assertEquals(expected.toString(), copy.getActions().toString());
+    }
+
+    @Test
+    public void testBinaryFormIsSmallerThanSource() throws Exception {
+        final CompiledScript script = factory.compile(new ByteArrayInputStream(
+                SCRIPT.getBytes("UTF-8")));
+        Assert.assertTrue(serialize(script).length < SCRIPT.length());
+    }
+
+    @Test(expected = SieveException.class)
+    public void testRejectStaleExtensions() throws Exception {
+        final CompiledScript script = factory.compile(new ByteArrayInputStream(
+                SCRIPT.getBytes("UTF-8")));
+        final byte[] bytes = serialize(script);
+
+        final ConfigurationManager manager = new ConfigurationManager();
+        manager.getTestMap().remove("body");
+        manager.build().deserialize(new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = SieveException.class)
+    public void testRejectOtherImplementation() throws Exception {
+        final CompiledScript script = factory.compile(new ByteArrayInputStream(
+                SCRIPT.getBytes("UTF-8")));
+        final byte[] bytes = serialize(script);
+
+        final ConfigurationManager manager = new ConfigurationManager();
+        manager.getTestMap().put("header",
+                "org.apache.jsieve.tests.optional.Envelope");
+        manager.build().deserialize(new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = SieveException.class)
+    public void testRejectOtherVersion() throws Exception {
+        final byte[] bytes = serialize(factory.compile(new ByteArrayInputStream(
+                "keep;".getBytes("UTF-8"))));
+        // The version follows the four byte magic number
+        bytes[4] = (byte) (CompiledScriptSerializer.VERSION + 1);
+        factory.deserialize(new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectSource() throws Exception {
+        factory.deserialize(new ByteArrayInputStream(SCRIPT.getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectTruncated() throws Exception {
+        final byte[] bytes = serialize(factory.compile(new ByteArrayInputStream(
+                SCRIPT.getBytes("UTF-8"))));
+        factory.deserialize(new ByteArrayInputStream(bytes, 0,
+                bytes.length - 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectCorruptLength() throws Exception {
+        final byte[] bytes = serialize(factory.compile(new ByteArrayInputStream(
+                "keep;".getBytes("UTF-8"))));
+        // Magic number, version, fingerprint and a table of one string
+        // whose length claims the largest five byte number
+        final ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+        corrupt.write(bytes, 0, 13);
+        corrupt.write(new byte[] { 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x07, 'k' });
+        factory.deserialize(new ByteArrayInputStream(corrupt.toByteArray()));
+    }
+
+    private SieveMailAdapter createMail() throws Exception {
+        final SieveMailAdapter mail = (SieveMailAdapter) JUnitUtils.createMail();
+        mail.getMessage().addHeader("Subject", "[jsieve] Release");
+        mail.getMessage().addHeader("Date", "Wed, 31 Dec 2008 12:34:56 +0000");
+        return mail;
+    }
+
+    private byte[] serialize(CompiledScript script) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.serialize(script, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,75 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve;
+
+import java.util.List;
+
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.ActionFileInto;
+import org.apache.jsieve.mail.ActionKeep;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.apache.jsieve.utils.SieveMailAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Class CompiledScriptTest
+ */
+public class CompiledScriptTest {
+
+    private static final String SCRIPT = "require \"fileinto\";"
+            + "if header :contains \"Subject\" \"coffee\" {fileinto \"Coffee\"; stop;}"
+            + "if header :is \"X-Caffeine\" \"none\" {discard;}";
+
+    @Test
+    public void testCompiledScriptIsReusable() throws Exception {
+        final SieveFactory factory = new ConfigurationManager().build();
+        final CompiledScript script = JUnitUtils.compile(SCRIPT);
+
+        final SieveMailAdapter coffee = (SieveMailAdapter) JUnitUtils.createMail();
+        coffee.getMessage().setSubject("More coffee");
+        factory.evaluate(coffee, script);
+        List<Action> actions = coffee.getActions();
+        Assert.assertEquals(1, actions.size());
+        Assert.assertTrue(actions.get(0) instanceof ActionFileInto);
+        Assert.assertEquals("Coffee", ((ActionFileInto) actions.get(0)).getDestination());
+
+        final SieveMailAdapter decaf = (SieveMailAdapter) JUnitUtils.createMail();
+        decaf.getMessage().addHeader("X-Caffeine", "none");
+        factory.evaluate(decaf, script);
+        Assert.assertTrue(decaf.getActions().isEmpty());
+
+        final SieveMailAdapter other = (SieveMailAdapter) JUnitUtils.createMail();
+        other.getMessage().setSubject("Tea");
+        factory.evaluate(other, script);
+        actions = other.getActions();
+        Assert.assertEquals(1, actions.size());
+        Assert.assertTrue(actions.get(0) instanceof ActionKeep);
+    }
+
+    @Test
+    public void testCompileFromParsedNode() throws Exception {
+        final SieveFactory factory = new ConfigurationManager().build();
+        final CompiledScript script = factory.compile(JUnitUtils.parse("discard;"));
+        final SieveMailAdapter mail = (SieveMailAdapter) JUnitUtils.createMail();
+        factory.evaluate(mail, script);
+        Assert.assertTrue(mail.getActions().isEmpty());
+    }
+}
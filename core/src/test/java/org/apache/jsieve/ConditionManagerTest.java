@@ -0,0 +1,82 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve;
+
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.apache.jsieve.utils.SieveMailAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Class <code>ConditionManagerTest</code> tests the stack of states kept by a
+ * ConditionManager and the reuse of evaluation state by a SieveFactory.
+ */
+public class ConditionManagerTest {
+
+    @Test
+    public void testPushAndPop() {
+        final ConditionManager manager = new ConditionManager();
+        manager.setIfTestResult(false);
+        for (int i = 0; i < 20; i++) {
+            manager.push();
+            Assert.assertFalse(manager.isElseAllowed());
+            manager.setIfTestResult(true);
+        }
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(manager.isElseAllowed());
+            Assert.assertFalse(manager.isElseRunnable());
+            manager.pop();
+        }
+        Assert.assertTrue(manager.isElseAllowed());
+        Assert.assertTrue(manager.isElseRunnable());
+    }
+
+    @Test
+    public void testReset() {
+        final ConditionManager manager = new ConditionManager();
+        manager.setIfTestResult(false);
+        manager.push();
+        manager.setIfTestResult(false);
+        manager.reset();
+        Assert.assertFalse(manager.isElseAllowed());
+        Assert.assertFalse(manager.isElseRunnable());
+    }
+
+    @Test
+    public void testEvaluationAfterFailure() throws Exception {
+        final SieveFactory factory = new ConfigurationManager().build();
+        final CompiledScript failing = JUnitUtils
+                .compile("if true { if false { keep; } discard; require \"fileinto\"; }");
+        final CompiledScript script = JUnitUtils
+                .compile("require \"fileinto\"; if false { discard; } else { fileinto \"a\"; }");
+        try {
+            factory.evaluate(JUnitUtils.createMail(), failing);
+            Assert.fail("Expected an exception");
+        } catch (SieveException e) {
+            // expected
+        }
+        final SieveMailAdapter mail = (SieveMailAdapter) JUnitUtils
+                .createMail();
+        factory.evaluate(mail, script);
+        Assert.assertEquals(1, mail.getActions().size());
+    }
+}
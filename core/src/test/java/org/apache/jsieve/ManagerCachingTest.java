@@ -0,0 +1,72 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that managers share stateless instances.
+ */
+public class ManagerCachingTest {
+
+    public static class StatefulCommand implements ExecutableCommand, Stateful {
+        public Object execute(MailAdapter mail, Arguments arguments,
+                Block block, SieveContext context) throws SieveException {
+            return null;
+        }
+    }
+
+    @Test
+    public void testCommandsAreShared() throws Exception {
+        final CommandManager manager = new ConfigurationManager().getCommandManager();
+        Assert.assertSame(manager.getCommand("keep"), manager.getCommand("keep"));
+        Assert.assertNotSame(manager.getCommand("keep"), manager.getCommand("discard"));
+    }
+
+    @Test
+    public void testTestsAreShared() throws Exception {
+        final TestManager manager = new ConfigurationManager().getTestManager();
+        Assert.assertSame(manager.getTest("header"), manager.getTest("header"));
+        Assert.assertSame(manager.getTest("body"), manager.getTest("body"));
+    }
+
+    @Test
+    public void testComparatorsAreShared() throws Exception {
+        final ComparatorManager manager = new ConfigurationManager().getComparatorManager();
+        Assert.assertSame(manager.getComparator("i;octet"), manager.getComparator("i;octet"));
+        Assert.assertSame(manager.getComparator("i;ascii-casemap"), manager.getComparator("i;ascii-casemap"));
+    }
+
+    @Test
+    public void testStatefulCommandsAreNotShared() throws Exception {
+        final ConcurrentMap<String, String> classNames = new ConcurrentHashMap<String, String>();
+        classNames.put("stateful", StatefulCommand.class.getName());
+        final CommandManager manager = new CommandManagerImpl(classNames);
+        final ExecutableCommand command = manager.getCommand("stateful");
+        Assert.assertTrue(command instanceof StatefulCommand);
+        Assert.assertNotSame(command, manager.getCommand("stateful"));
+    }
+}
@@ -0,0 +1,91 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import org.apache.jsieve.mail.ActionReject;
+import org.apache.jsieve.mail.MailAdapter;
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.ParseException;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that each parse entry point gives the same result.
+ */
+public class SieveFactoryParseTest {
+
+    private static final String MESSAGE = "Grüße aus Köln – €";
+
+    private static final String SCRIPT = "reject text:\r\n" + MESSAGE
+            + "\r\n.\r\n;";
+
+    private SieveFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new ConfigurationManager().build();
+    }
+
+    @Test
+    public void testParseInputStream() throws Exception {
+        assertRejects(factory.parse(new ByteArrayInputStream(SCRIPT
+                .getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testParseReader() throws Exception {
+        assertRejects(factory.parse(new StringReader(SCRIPT)));
+    }
+
+    @Test
+    public void testParseCharSequence() throws Exception {
+        assertRejects(factory.parse(SCRIPT));
+        assertRejects(factory.parse(new StringBuilder(SCRIPT)));
+    }
+
+    @Test
+    public void testParseByteBuffer() throws Exception {
+        final byte[] bytes = ("xx" + SCRIPT).getBytes("UTF-8");
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+        assertRejects(factory.parse(buffer));
+        Assert.assertEquals(2, buffer.position());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testParseCharSequenceInvalid() throws Exception {
+        factory.parse("if header :is {");
+    }
+
+    private void assertRejects(Node node) throws Exception {
+        MailAdapter mail = JUnitUtils.createMail();
+        factory.evaluate(mail, node);
+        Assert.assertEquals(1, mail.getActions().size());
+        Assert.assertEquals(MESSAGE, ((ActionReject) mail.getActions().get(0))
+                .getMessage());
+    }
+}
@@ -0,0 +1,118 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.jsieve.utils.JUnitUtils;
+import org.apache.jsieve.utils.SieveMailAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TieredExecutionTest {
+
+    private static final String SCRIPT = "require \"fileinto\";\r\n"
+            + "if header :contains \"Subject\" \"[jsieve]\" {\r\n"
+            + "  fileinto \"lists\";\r\n"
+            + "} else {\r\n"
+            + "  keep;\r\n"
+            + "}\r\n";
+
+    private ConfigurationManager configurationManager;
+
+    private List<Runnable> tasks;
+
+    @Before
+    public void setUp() throws Exception {
+        configurationManager = new ConfigurationManager();
+        tasks = new ArrayList<Runnable>();
+        configurationManager.setOptimizationExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void testPromoteAtThreshold() throws Exception {
+        configurationManager.setOptimizationThreshold(3);
+        final SieveFactory factory = configurationManager.build();
+        final CompiledScript script = compile(factory);
+        final String expected = evaluate(factory, script);
+
+        Assert.assertEquals(expected, evaluate(factory, script));
+        Assert.assertTrue(tasks.isEmpty());
+        Assert.assertEquals(expected, evaluate(factory, script));
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertFalse(script.isOptimized());
+
+        tasks.get(0).run();
+        Assert.assertTrue(script.isOptimized());
+        Assert.assertEquals(expected, evaluate(factory, script));
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testBatchEvaluationCounts() throws Exception {
+        configurationManager.setOptimizationThreshold(2);
+        final SieveFactory factory = configurationManager.build();
+        final CompiledScript script = compile(factory);
+        final List<CompiledScript> scripts = new ArrayList<CompiledScript>();
+        scripts.add(script);
+        scripts.add(script);
+
+        factory.evaluate(createMail(), scripts);
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testNoThresholdNeverPromotes() throws Exception {
+        final SieveFactory factory = configurationManager.build();
+        final CompiledScript script = compile(factory);
+        for (int i = 0; i < 10; i++) {
+            evaluate(factory, script);
+        }
+        Assert.assertTrue(tasks.isEmpty());
+        Assert.assertFalse(script.isOptimized());
+    }
+
+    private CompiledScript compile(SieveFactory factory) throws Exception {
+        return factory.compile(new ByteArrayInputStream(SCRIPT
+                .getBytes("UTF-8")));
+    }
+
+    private String evaluate(SieveFactory factory, CompiledScript script)
+            throws Exception {
+        final SieveMailAdapter mail = createMail();
+        factory.evaluate(mail, script);
+        return mail.getActions().toString();
+    }
+
+    private SieveMailAdapter createMail() throws Exception {
+        final SieveMailAdapter mail = (SieveMailAdapter) JUnitUtils.createMail();
+        mail.getMessage().addHeader("Subject", "[jsieve] Release");
+        return mail;
+    }
+}
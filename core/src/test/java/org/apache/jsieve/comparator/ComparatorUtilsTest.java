@@ -72,4 +72,25 @@ public class ComparatorUtilsTest {
         String expected = "\\[test\\] .\\\\.\\?.*\\\\.*\\*\\\\";
         Assert.assertEquals(expected, res);
     }
+
+    @Test
+    public void testEqualsIgnoreCase() {
+        Assert.assertTrue(ComparatorUtils.equalsIgnoreCase("Foo@Example.COM", "foo@example.com"));
+        Assert.assertTrue(ComparatorUtils.equalsIgnoreCase("", ""));
+        Assert.assertFalse(ComparatorUtils.equalsIgnoreCase("foo", "foos"));
+        Assert.assertFalse(ComparatorUtils.equalsIgnoreCase("foo", "fop"));
+        // only ASCII letters fold
+        Assert.assertFalse(ComparatorUtils.equalsIgnoreCase("\u00e9", "\u00c9"));
+    }
+
+    @Test
+    public void testContainsIgnoreCase() {
+        Assert.assertTrue(ComparatorUtils.containsIgnoreCase("Subject: HELLO World", "hello w"));
+        Assert.assertTrue(ComparatorUtils.containsIgnoreCase("abc", ""));
+        Assert.assertTrue(ComparatorUtils.containsIgnoreCase("abc", "ABC"));
+        Assert.assertTrue(ComparatorUtils.containsIgnoreCase("aaab", "AAB"));
+        Assert.assertFalse(ComparatorUtils.containsIgnoreCase("abc", "abcd"));
+        Assert.assertFalse(ComparatorUtils.containsIgnoreCase("abc", "ac"));
+        Assert.assertFalse(ComparatorUtils.containsIgnoreCase("\u00e9t\u00e9", "\u00c9T\u00c9"));
+    }
 }
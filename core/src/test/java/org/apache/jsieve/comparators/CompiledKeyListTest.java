@@ -0,0 +1,105 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.comparators;
+
+import static org.apache.jsieve.comparators.ComparatorNames.ASCII_CASEMAP_COMPARATOR;
+import static org.apache.jsieve.comparators.ComparatorNames.OCTET_COMPARATOR;
+import static org.apache.jsieve.comparators.MatchTypeTags.CONTAINS_TAG;
+import static org.apache.jsieve.comparators.MatchTypeTags.IS_TAG;
+import static org.apache.jsieve.comparators.MatchTypeTags.MATCHES_TAG;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jsieve.BaseSieveContext;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveContext;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledKeyListTest {
+
+    private SieveContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        final ConfigurationManager manager = new ConfigurationManager();
+        context = new BaseSieveContext(manager.getCommandManager(), manager
+                .getComparatorManager(), manager.getTestManager(), manager
+                .getLog());
+    }
+
+    @Test
+    public void testKeysAreCopied() {
+        final List<String> keys = ComparatorUtils.compileKeys(Arrays.asList(
+                "alpha", "beta"));
+        Assert.assertEquals(Arrays.asList("alpha", "beta"), keys);
+        Assert.assertSame(keys, ComparatorUtils.compileKeys(keys));
+    }
+
+    @Test
+    public void testCompiledOnce() throws Exception {
+        final List<String> keys = ComparatorUtils.compileKeys(Arrays.asList(
+                "alpha", "beta"));
+        final KeyListMatcher matcher = ComparatorUtils.compileKeyList(
+                ASCII_CASEMAP_COMPARATOR, CONTAINS_TAG, keys, context);
+        Assert.assertNotNull(matcher);
+        Assert.assertSame(matcher, ComparatorUtils.compileKeyList(
+                ASCII_CASEMAP_COMPARATOR, CONTAINS_TAG, keys, context));
+    }
+
+    @Test
+    public void testRecompiledForOtherComparator() throws Exception {
+        final List<String> keys = ComparatorUtils.compileKeys(Arrays.asList(
+                "alpha", "beta"));
+        Assert.assertTrue(ComparatorUtils.match(ASCII_CASEMAP_COMPARATOR,
+                IS_TAG, "ALPHA", keys, context));
+        Assert.assertFalse(ComparatorUtils.match(OCTET_COMPARATOR, IS_TAG,
+                "ALPHA", keys, context));
+        Assert.assertTrue(ComparatorUtils.match(OCTET_COMPARATOR, IS_TAG,
+                "beta", keys, context));
+    }
+
+    @Test
+    public void testMatchesIgnoreCase() throws Exception {
+        final List<String> keys = ComparatorUtils.compileKeys(Arrays.asList(
+                "a*c", "x?z"));
+        Assert.assertTrue(ComparatorUtils.match(ASCII_CASEMAP_COMPARATOR,
+                MATCHES_TAG, "ABBC", keys, context));
+        Assert.assertFalse(ComparatorUtils.match(OCTET_COMPARATOR,
+                MATCHES_TAG, "XYZ", keys, context));
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        final List<String> keys = ComparatorUtils.compileKeys(Arrays.asList(
+                "a*c", "x?z"));
+        Assert.assertNull(ComparatorUtils.compileKeyList(OCTET_COMPARATOR,
+                MATCHES_TAG, keys, context));
+        Assert.assertTrue(ComparatorUtils.match(OCTET_COMPARATOR, MATCHES_TAG,
+                "abbc", keys, context));
+        Assert.assertTrue(ComparatorUtils.match(OCTET_COMPARATOR, MATCHES_TAG,
+                "xyz", keys, context));
+        Assert.assertFalse(ComparatorUtils.match(OCTET_COMPARATOR,
+                MATCHES_TAG, "abz", keys, context));
+    }
+}
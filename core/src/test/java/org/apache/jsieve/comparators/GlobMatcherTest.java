@@ -0,0 +1,78 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.comparators;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GlobMatcherTest {
+
+    @Test
+    public void testLiteral() {
+        final GlobMatcher matcher = GlobMatcher.compile("coffee");
+        Assert.assertTrue(matcher.matches("coffee"));
+        Assert.assertFalse(matcher.matches("Coffee"));
+        Assert.assertFalse(matcher.matches("coffees"));
+        Assert.assertFalse(matcher.matches("coffe"));
+        Assert.assertTrue(matcher.matchesIgnoreCase("CoFFee"));
+    }
+
+    @Test
+    public void testWildcards() {
+        Assert.assertTrue(GlobMatcher.compile("*").matches(""));
+        Assert.assertTrue(GlobMatcher.compile("*").matches("anything\r\n at all"));
+        Assert.assertFalse(GlobMatcher.compile("?").matches(""));
+        Assert.assertTrue(GlobMatcher.compile("?").matches("x"));
+        Assert.assertTrue(GlobMatcher.compile("a*b?c").matches("aXXbYc"));
+        Assert.assertTrue(GlobMatcher.compile("a*b?c").matches("abbbc"));
+        Assert.assertFalse(GlobMatcher.compile("a*b?c").matches("abc"));
+        Assert.assertTrue(GlobMatcher.compile("*@example.com").matches("joe@example.com"));
+        Assert.assertFalse(GlobMatcher.compile("*@example.com").matches("joe@example.com.org"));
+        Assert.assertTrue(GlobMatcher.compile("**a***").matches("bab"));
+    }
+
+    @Test
+    public void testEscapes() {
+        Assert.assertTrue(GlobMatcher.compile("\\*").matches("*"));
+        Assert.assertFalse(GlobMatcher.compile("\\*").matches("a"));
+        Assert.assertTrue(GlobMatcher.compile("\\?").matches("?"));
+        Assert.assertFalse(GlobMatcher.compile("\\?").matches("a"));
+        Assert.assertTrue(GlobMatcher.compile("\\\\").matches("\\"));
+        Assert.assertTrue(GlobMatcher.compile("a\\").matches("a\\"));
+        Assert.assertTrue(GlobMatcher.compile("\\a").matches("\\a"));
+    }
+
+    @Test
+    public void testCaseFoldingIsAsciiOnly() {
+        final GlobMatcher matcher = GlobMatcher.compile("*café*");
+        Assert.assertTrue(matcher.matchesIgnoreCase("A CAFé AU LAIT"));
+        Assert.assertFalse(matcher.matchesIgnoreCase("A CAFÉ AU LAIT"));
+    }
+
+    @Test
+    public void testPathologicalPatternCompletes() {
+        final StringBuilder string = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            string.append('a');
+        }
+        final GlobMatcher matcher = GlobMatcher.compile("*a*a*a*a*a*a*a*a*a*a*b");
+        Assert.assertFalse(matcher.matches(string.toString()));
+    }
+}
@@ -0,0 +1,144 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.comparators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyListMatcherTest {
+
+    private static final String IS = MatchTypeTags.IS_TAG;
+
+    private static final String CONTAINS = MatchTypeTags.CONTAINS_TAG;
+
+    @Test
+    public void testIs() {
+        KeyListMatcher matcher = KeyListMatcher.compile(IS, Arrays.asList(
+                "alpha", "Beta"), false);
+        Assert.assertTrue(matcher.matches("alpha"));
+        Assert.assertTrue(matcher.matches("Beta"));
+        Assert.assertFalse(matcher.matches("beta"));
+        Assert.assertFalse(matcher.matches("alphabet"));
+    }
+
+    @Test
+    public void testIsIgnoreCase() {
+        KeyListMatcher matcher = KeyListMatcher.compile(IS, Arrays.asList(
+                "alpha", "Beta"), true);
+        Assert.assertTrue(matcher.matches("ALPHA"));
+        Assert.assertTrue(matcher.matches("beta"));
+        Assert.assertFalse(matcher.matches("gamma"));
+    }
+
+    @Test
+    public void testContains() {
+        KeyListMatcher matcher = KeyListMatcher.compile(CONTAINS, Arrays
+                .asList("he", "she", "his", "hers"), false);
+        Assert.assertTrue(matcher.matches("ushers"));
+        Assert.assertTrue(matcher.matches("this"));
+        Assert.assertFalse(matcher.matches("HERS"));
+        Assert.assertFalse(matcher.matches("shx"));
+        Assert.assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void testContainsIgnoreCase() {
+        KeyListMatcher matcher = KeyListMatcher.compile(CONTAINS, Arrays
+                .asList("viagra", "lottery"), true);
+        Assert.assertTrue(matcher.matches("You won the LOTTERY!"));
+        Assert.assertFalse(matcher.matches("Meeting notes"));
+    }
+
+    @Test
+    public void testContainsEmptyKey() {
+        KeyListMatcher matcher = KeyListMatcher.compile(CONTAINS, Arrays
+                .asList("xyz", ""), false);
+        Assert.assertTrue(matcher.matches(""));
+        Assert.assertTrue(matcher.matches("abc"));
+    }
+
+    @Test
+    public void testScannerFindsKeySpanningChunks() {
+        KeyListMatcher.Scanner scanner = KeyListMatcher.compile(CONTAINS,
+                Arrays.asList("unsubscribe", "lottery"), true).scanner();
+        Assert.assertFalse(scanner.scan("click to UNSUB".toCharArray(), 0, 14));
+        Assert.assertTrue(scanner.scan("xxSCRIBE now".toCharArray(), 2, 10));
+        Assert.assertTrue(scanner.isMatched());
+        scanner.reset();
+        Assert.assertFalse(scanner.isMatched());
+        Assert.assertFalse(scanner.scan("scribe".toCharArray(), 0, 6));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIsCannotBeScanned() {
+        KeyListMatcher.compile(IS, Arrays.asList("a", "b"), false).scanner();
+    }
+
+    @Test
+    public void testMatchesIsNotSupported() {
+        Assert.assertNull(KeyListMatcher.compile(MatchTypeTags.MATCHES_TAG,
+                Arrays.asList("a*", "b*"), false));
+    }
+
+    @Test
+    public void testContainsAgreesWithComparator() {
+        final Random random = new Random(42);
+        final AsciiCasemap casemap = new AsciiCasemap();
+        final Octet octet = new Octet();
+        for (int run = 0; run < 200; run++) {
+            final List<String> keys = new ArrayList<String>();
+            final int count = 1 + random.nextInt(8);
+            for (int i = 0; i < count; i++) {
+                keys.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            final KeyListMatcher exact = KeyListMatcher.compile(CONTAINS, keys,
+                    false);
+            final KeyListMatcher folded = KeyListMatcher.compile(CONTAINS,
+                    keys, true);
+            for (int i = 0; i < 20; i++) {
+                final String value = randomString(random, random.nextInt(20));
+                boolean expectExact = false;
+                boolean expectFolded = false;
+                for (String key : keys) {
+                    expectExact |= octet.contains(value, key);
+                    expectFolded |= casemap.contains(value, key);
+                }
+                Assert.assertEquals(keys + " in " + value, expectExact, exact
+                        .matches(value));
+                Assert.assertEquals(keys + " in " + value, expectFolded, folded
+                        .matches(value));
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        final String alphabet = "abAB";
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,200 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import java.util.List;
+
+import org.apache.jsieve.BaseSieveContext;
+import org.apache.jsieve.CompiledScript;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.Executable;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.apache.jsieve.utils.SieveMailAdapter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptCompilerTest {
+
+    private SieveFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new ConfigurationManager().build();
+    }
+
+    @Test
+    public void testBranches() throws Exception {
+        assertSameActions("require \"fileinto\";"
+                + "if header :contains \"Subject\" \"nothing\" { fileinto \"a\"; }"
+                + "elsif header :is \"Subject\" \"[jsieve] release\" { fileinto \"b\"; }"
+                + "else { fileinto \"c\"; }");
+        assertSameActions("require \"fileinto\";"
+                + "if false { fileinto \"a\"; } elsif false { fileinto \"b\"; }"
+                + "else { fileinto \"c\"; stop; } fileinto \"d\";");
+        assertSameActions("if true { if false { discard; } else { keep; } }");
+    }
+
+    @Test
+    public void testTests() throws Exception {
+        assertSameActions("if anyof (size :over 1M, not exists \"Date\") { discard; }");
+        assertSameActions("if allof (exists [\"From\", \"Subject\"], size :under 1K) { discard; }");
+        assertSameActions("if header :matches \"subject\" \"*RELEASE\" { discard; }");
+        assertSameActions("if header :comparator \"i;octet\" :matches \"Subject\" \"*Release\" { discard; }");
+        assertSameActions("if header :comparator \"i;octet\" :contains \"Subject\" \"release\" { discard; }");
+        assertSameActions("if header :contains \"X-Missing\" \"\" { discard; }");
+        assertSameActions("if header :comparator \"i;ascii-numeric\" :is \"X-Count\" \"42\" { discard; }");
+        assertSameActions("if address :domain :is \"from\" \"example.org\" { discard; }");
+    }
+
+    @Test
+    public void testReorderByCost() throws Exception {
+        final String compiled = compile("if anyof (header :matches \"Subject\" \"*x\","
+                + " header :is \"Subject\" \"x\", size :over 1M, exists \"To\") { keep; }");
+        Assert.assertTrue(compiled.indexOf("size") < compiled.indexOf("exists"));
+        Assert.assertTrue(compiled.indexOf("exists") < compiled.indexOf(":is"));
+        Assert.assertTrue(compiled.indexOf(":is") < compiled.indexOf(":matches"));
+        assertSameActions("if anyof (header :matches \"Subject\" \"*x\","
+                + " size :over 1M, exists \"To\") { discard; }");
+        assertSameActions("if allof (header :contains \"Subject\" \"jsieve\","
+                + " exists \"From\") { discard; }");
+    }
+
+    @Test
+    public void testKeepOrderAroundUnknownCost() throws Exception {
+        final String compiled = compile("if allof (header :is \"Subject\" \"x\","
+                + " address :is \"From\" \"joe@example.org\", size :over 1M) { keep; }");
+        Assert.assertTrue(compiled.indexOf(":is") < compiled.indexOf("address"));
+        Assert.assertTrue(compiled.indexOf("address") < compiled.indexOf("size"));
+    }
+
+    @Test
+    public void testReorderBodyLast() throws Exception {
+        final String compiled = compile("if allof (body :contains \"x\","
+                + " size :over 1M) { keep; }");
+        Assert.assertTrue(compiled.indexOf("size") < compiled.indexOf("body"));
+        final String headers = compile("if anyof (body :raw :contains \"x\","
+                + " header :matches \"Subject\" \"*x\", exists \"To\") { keep; }");
+        Assert.assertTrue(headers.indexOf("exists") < headers.indexOf(":matches"));
+        Assert.assertTrue(headers.indexOf(":matches") < headers.indexOf("body"));
+    }
+
+    @Test
+    public void testKeepBodyOrderAroundUnknownCost() throws Exception {
+        final String compiled = compile("if allof (body :contains \"x\","
+                + " address :is \"From\" \"joe@example.org\", size :over 1M) { keep; }");
+        Assert.assertTrue(compiled.indexOf("body") < compiled.indexOf("address"));
+        Assert.assertTrue(compiled.indexOf("address") < compiled.indexOf("size"));
+    }
+
+    @Test
+    public void testRememberRepeatedTests() throws Exception {
+        final String source = "require \"fileinto\";"
+                + "if header :contains \"Subject\" \"foo\" { fileinto \"a\"; }"
+                + "elsif header :contains \"Subject\" \"bar\" { fileinto \"b\"; }"
+                + "elsif header :contains \"Subject\" \"foo\" { fileinto \"c\"; }"
+                + "elsif not header :contains \"Subject\" \"foo\" { fileinto \"d\"; }";
+        final CompiledScript script = factory.optimize(JUnitUtils
+                .compile(source));
+        final int[] lookups = new int[1];
+        final SieveMailAdapter mail = new SieveMailAdapter(JUnitUtils
+                .createMimeMessage()) {
+            public List<String> getMatchingHeader(String name)
+                    throws SieveMailException {
+                lookups[0]++;
+                return super.getMatchingHeader(name);
+            }
+        };
+        mail.getMessage().addHeader("Subject", "[jsieve] Release");
+        factory.evaluate(mail, script);
+        Assert.assertEquals(2, lookups[0]);
+        Assert.assertEquals(1, mail.getActions().size());
+
+        lookups[0] = 0;
+        factory.evaluate(mail, script);
+        Assert.assertEquals(2, lookups[0]);
+        assertSameActions(source);
+    }
+
+    @Test
+    public void testSingleListIsNotRemembered() throws Exception {
+        Assert.assertFalse(compileExecutable("if allof (header :contains \"Subject\" \"foo\","
+                + " header :contains \"From\" \"bar\") { keep; }") instanceof MemoizingScript);
+        Assert.assertTrue(compileExecutable("if allof (header :contains \"Subject\" \"foo\","
+                + " header :contains \"From\" \"bar\") { keep; }"
+                + "if allof (header :contains \"Subject\" \"foo\","
+                + " header :contains \"From\" \"bar\") { discard; }") instanceof MemoizingScript);
+    }
+
+    @Test
+    public void testOptimized() throws Exception {
+        final CompiledScript script = JUnitUtils.compile("keep;");
+        Assert.assertFalse(script.isOptimized());
+        Assert.assertTrue(factory.optimize(script).isOptimized());
+    }
+
+    @Test
+    public void testOrphanElsifFails() throws Exception {
+        final CompiledScript script = factory.optimize(JUnitUtils
+                .compile("keep; elsif true { discard; }"));
+        try {
+            factory.evaluate(createMail(), script);
+            Assert.fail("Expected an exception");
+        } catch (SieveException e) {
+            // expected
+        }
+    }
+
+    private String compile(String source) throws Exception {
+        return compileExecutable(source).toString();
+    }
+
+    private Executable compileExecutable(String source) throws Exception {
+        final ConfigurationManager manager = new ConfigurationManager();
+        return new ScriptCompiler(new BaseSieveContext(manager
+                .getCommandManager(), manager.getComparatorManager(), manager
+                .getTestManager(), manager.getLog())).compile(JUnitUtils
+                .compile(source).getBlock());
+    }
+
+    private void assertSameActions(String source) throws Exception {
+        final CompiledScript script = JUnitUtils.compile(source);
+        final SieveMailAdapter mail = createMail();
+        factory.evaluate(mail, script);
+        final SieveMailAdapter copy = createMail();
+        factory.evaluate(copy, factory.optimize(script));
+        final List<Action> expected = mail.getActions();
+        Assert.assertEquals(source, expected.toString(), copy.getActions()
+                .toString());
+    }
+
+    private SieveMailAdapter createMail() throws Exception {
+        final SieveMailAdapter mail = (SieveMailAdapter) JUnitUtils.createMail();
+        mail.getMessage().addHeader("Subject", "[jsieve] Release");
+        mail.getMessage().addHeader("From", "Joe <joe@example.org>");
+        mail.getMessage().addHeader("X-Count", "042");
+        return mail;
+    }
+}
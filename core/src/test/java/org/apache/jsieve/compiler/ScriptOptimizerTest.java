@@ -0,0 +1,114 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.compiler;
+
+import org.apache.jsieve.BaseSieveContext;
+import org.apache.jsieve.Block;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.SieveParserVisitorImpl;
+import org.apache.jsieve.parser.generated.ASTstart;
+import org.apache.jsieve.utils.JUnitUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptOptimizerTest {
+
+    private SieveContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        final ConfigurationManager manager = new ConfigurationManager();
+        context = new BaseSieveContext(manager.getCommandManager(), manager
+                .getComparatorManager(), manager.getTestManager(), manager
+                .getLog());
+    }
+
+    @Test
+    public void testFoldTests() throws Exception {
+        assertOptimized("keep;", "if true { keep; }");
+        assertOptimized("keep;", "if not false { keep; }");
+        assertOptimized("keep;", "if anyof (false, true, exists \"To\") { keep; }");
+        assertOptimized("if exists \"To\" { keep; }",
+                "if allof (true, exists \"To\") { keep; }");
+        assertOptimized("if exists \"To\" { keep; }",
+                "if not not anyof (exists \"To\") { keep; }");
+        assertOptimized("if allof (exists \"To\", false) { keep; }",
+                "if allof (exists \"To\", false, exists \"From\") { keep; }");
+    }
+
+    @Test
+    public void testRemoveDeadBranches() throws Exception {
+        assertOptimized("discard;", "if false { keep; } discard;");
+        assertOptimized("if exists \"To\" { keep; }",
+                "if false { stop; } elsif exists \"To\" { keep; } else { }");
+        assertOptimized("if exists \"To\" { keep; } else { discard; }",
+                "if exists \"To\" { keep; } elsif true { discard; } else { stop; }");
+    }
+
+    @Test
+    public void testTruncateAfterStop() throws Exception {
+        assertOptimized("keep; stop;", "keep; stop; discard; if true { keep; }");
+        assertOptimized("if exists \"To\" { stop; } else { keep; stop; }",
+                "if exists \"To\" { stop; } else { keep; stop; } discard;");
+        assertOptimized("keep; stop;", "if true { keep; stop; } discard;");
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        final ScriptOptimizer optimizer = new ScriptOptimizer(context);
+        optimizer.optimize(block("if anyof (true) { if false { keep; } keep; } "
+                + "else { discard; } stop; keep;"));
+        final OptimizationReport report = optimizer.getReport();
+        Assert.assertEquals(3, report.getFoldedTests());
+        Assert.assertEquals(5, report.getRemovedCommands());
+        Assert.assertEquals(1, report.getFlattenedBlocks());
+        Assert.assertTrue(report.isChanged());
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        assertUnchanged("if exists \"To\" { keep; } if true { discard; }"
+                + " require \"fileinto\";");
+        assertUnchanged("keep; elsif true { discard; }");
+        assertUnchanged("if true { keep; } else { discard; } else { stop; }");
+        assertUnchanged("if not (true, false) { keep; }");
+    }
+
+    private void assertOptimized(String expected, String script)
+            throws Exception {
+        Assert.assertEquals(block(expected).toString(), new ScriptOptimizer(
+                context).optimize(block(script)).toString());
+    }
+
+    private void assertUnchanged(String script) throws Exception {
+        final Block block = block(script);
+        final ScriptOptimizer optimizer = new ScriptOptimizer(context);
+        Assert.assertSame(block, optimizer.optimize(block));
+        Assert.assertFalse(optimizer.getReport().isChanged());
+    }
+
+    private Block block(String script) throws Exception {
+        return new SieveParserVisitorImpl(context).toBlock((ASTstart) JUnitUtils
+                .parse(script));
+    }
+}
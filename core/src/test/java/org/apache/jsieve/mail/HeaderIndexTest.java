@@ -0,0 +1,68 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeaderIndexTest {
+
+    @Test
+    public void testMatchingHeaderIgnoresCaseAndWhitespace() {
+        HeaderIndex index = new HeaderIndex();
+        index.add("Received", "one");
+        index.add("From", "me@example.org");
+        index.add("received ", "two");
+        index.add("RECEIVED", "three");
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), index
+                .getMatchingHeader("received"));
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), index
+                .getMatchingHeader("Received"));
+        Assert.assertEquals(Arrays.asList("me@example.org"), index
+                .getMatchingHeader("FROM"));
+    }
+
+    @Test
+    public void testMissingHeaderIsEmpty() {
+        HeaderIndex index = new HeaderIndex();
+        index.add("From", "me@example.org");
+        Assert.assertTrue(index.getMatchingHeader("To").isEmpty());
+    }
+
+    @Test
+    public void testHeaderNamesAreDistinct() {
+        HeaderIndex index = new HeaderIndex();
+        index.add("Received", "one");
+        index.add("From", "me@example.org");
+        index.add("Received", "two");
+        List<String> names = index.getHeaderNames();
+        Assert.assertEquals(Arrays.asList("Received", "From"), names);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMatchingHeaderIsUnmodifiable() {
+        HeaderIndex index = new HeaderIndex();
+        index.add("From", "me@example.org");
+        index.getMatchingHeader("from").add("you@example.org");
+    }
+}
@@ -0,0 +1,56 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MailUtilsTest {
+
+    @Test
+    public void testContentTypeMatchesType() {
+        Assert.assertTrue(MailUtils.isContentTypeMatched("text/plain", Arrays
+                .asList("TEXT")));
+        Assert.assertTrue(MailUtils.isContentTypeMatched("text/plain", Arrays
+                .asList("image", " text/Plain ")));
+        Assert.assertFalse(MailUtils.isContentTypeMatched("text/plain", Arrays
+                .asList("text/html", "plain")));
+    }
+
+    @Test
+    public void testEmptyContentTypeMatchesAll() {
+        Assert.assertTrue(MailUtils.isContentTypeMatched("text/plain", Arrays
+                .asList("")));
+        Assert.assertTrue(MailUtils.isContentTypeMatched("application/octet-stream",
+                Arrays.asList("image", " ")));
+    }
+
+    @Test
+    public void testPartialContentTypeMatchesNothing() {
+        Assert.assertFalse(MailUtils.isContentTypeMatched("text/plain", Arrays
+                .asList("text/", "/plain", "/")));
+        Assert.assertFalse(MailUtils.isContentTypeMatched("text/plain",
+                Collections.<String> emptyList()));
+    }
+}
@@ -0,0 +1,85 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.parser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringLiteralsTest {
+
+    @Test
+    public void testDecodeQuoted() {
+        Assert.assertEquals("", StringLiterals.decodeQuoted("\"\""));
+        Assert.assertEquals("Fish!", StringLiterals.decodeQuoted("\"Fish!\""));
+    }
+
+    @Test
+    public void testDecodeQuotedEscapes() {
+        Assert.assertEquals("say \"hi\"", StringLiterals
+                .decodeQuoted("\"say \\\"hi\\\"\""));
+        Assert.assertEquals("C:\\", StringLiterals.decodeQuoted("\"C:\\\\\""));
+        Assert.assertEquals("\\\\", StringLiterals
+                .decodeQuoted("\"\\\\\\\\\""));
+    }
+
+    @Test
+    public void testDecodeMultiLine() {
+        Assert.assertEquals("line 1\r\nline 2", StringLiterals
+                .decodeMultiLine("text: \t\r\nline 1\r\nline 2\r\n.\r\n"));
+    }
+
+    @Test
+    public void testDecodeMultiLineAfterComment() {
+        Assert.assertEquals("body", StringLiterals
+                .decodeMultiLine("text: # comment\r\nbody\r\n.\r\n"));
+    }
+
+    @Test
+    public void testDecodeEmptyMultiLine() {
+        Assert.assertEquals("", StringLiterals.decodeMultiLine("text:\r\n.\r\n"));
+    }
+
+    @Test
+    public void testDecodeMultiLineDotStuffing() {
+        Assert.assertEquals(".one\n.two\n...\n. .", StringLiterals
+                .decodeMultiLine("text:\r\n..one\n..two\n....\n. .\r\n.\r\n"));
+    }
+
+    @Test
+    public void testDecodeMultiLineEscapes() {
+        Assert.assertEquals("a\\b.", StringLiterals
+                .decodeMultiLine("text:\r\na\\\\b\\.\r\n.\r\n"));
+    }
+
+    @Test
+    public void testDecodeLargeMultiLine() {
+        final StringBuilder image = new StringBuilder("text:\r\n");
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            image.append("..line ").append(i).append("\r\n");
+            expected.append(".line ").append(i).append("\r\n");
+        }
+        image.append("last\r\n.\r\n");
+        expected.append("last");
+        Assert.assertEquals(expected.toString(), StringLiterals
+                .decodeMultiLine(image.toString()));
+    }
+}
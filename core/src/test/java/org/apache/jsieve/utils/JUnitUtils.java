@@ -25,6 +25,7 @@ import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 
+import org.apache.jsieve.CompiledScript;
 import org.apache.jsieve.ConfigurationManager;
 import org.apache.jsieve.exception.SieveException;
 import org.apache.jsieve.mail.MailAdapter;
@@ -62,6 +63,17 @@ public class JUnitUtils {
                 new ByteArrayInputStream(script.getBytes()));
     }
 
+    /**
+     * Method compile parses and compiles a script.
+     * 
+     * @param script
+     * @throws ParseException
+     */
+    static public CompiledScript compile(String script) throws ParseException {
+        return new ConfigurationManager().build().compile(
+                new ByteArrayInputStream(script.getBytes()));
+    }
+
     /**
      * Method createMimeMessage answers an empty MimeMessage.
      * 
@@ -19,17 +19,21 @@
 
 package org.apache.jsieve.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.mail.Header;
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.ContentType;
 import javax.mail.internet.MimeMessage;
 
 import org.apache.commons.logging.Log;
@@ -38,8 +42,12 @@ import org.apache.jsieve.SieveContext;
 import org.apache.jsieve.exception.SieveException;
 import org.apache.jsieve.mail.Action;
 import org.apache.jsieve.mail.MailAdapter;
+import org.apache.jsieve.mail.HeaderIndex;
 import org.apache.jsieve.mail.MailUtils;
 import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.mail.optional.BodyAccessors;
+import org.apache.jsieve.mail.optional.BodyHandler;
+import org.apache.jsieve.tests.BodyTransformTags;
 import org.apache.jsieve.parser.address.SieveAddressBuilder;
 
 /**
@@ -53,7 +61,7 @@ import org.apache.jsieve.parser.address.SieveAddressBuilder;
  * JavaMail message should. To this extent, it is a useful demonstration of how
  * to create an implementation of a MailAdapter.
  */
-public class SieveMailAdapter implements MailAdapter {
+public class SieveMailAdapter implements MailAdapter, BodyAccessors {
     private Log log = LogFactory.getLog(SieveMailAdapter.class);
 
     /**
@@ -68,6 +76,11 @@ public class SieveMailAdapter implements MailAdapter {
 
     private String contentAsLowerCaseString;
 
+    /**
+     * Index of the message headers, built on first use in each evaluation.
+     */
+    private HeaderIndex headerIndex;
+
     /**
      * Constructor for SieveMailAdapter.
      */
@@ -102,6 +115,7 @@ public class SieveMailAdapter implements MailAdapter {
      */
     protected void setMessage(MimeMessage message) {
         fieldMessage = message;
+        headerIndex = null;
     }
 
     /**
@@ -192,23 +206,31 @@ public class SieveMailAdapter implements MailAdapter {
      * @see org.apache.jsieve.mail.MailAdapter#getHeaderNames()
      */
     public List<String> getHeaderNames() throws SieveMailException {
-        Set<String> headerNames = new HashSet<String>();
-        try {
-            Enumeration allHeaders = getMessage().getAllHeaders();
-            while (allHeaders.hasMoreElements()) {
-                headerNames.add(((Header) allHeaders.nextElement()).getName());
-            }
-            return new ArrayList<String>(headerNames);
-        } catch (MessagingException ex) {
-            throw new SieveMailException(ex);
-        }
+        return getHeaderIndex().getHeaderNames();
     }
 
     /**
      * @see org.apache.jsieve.mail.MailAdapter#getMatchingHeader(String)
      */
     public List<String> getMatchingHeader(String name) throws SieveMailException {
-        return MailUtils.getMatchingHeader(this, name);
+        return getHeaderIndex().getMatchingHeader(name);
+    }
+
+    private HeaderIndex getHeaderIndex() throws SieveMailException {
+        if (headerIndex == null) {
+            final HeaderIndex index = new HeaderIndex();
+            try {
+                Enumeration allHeaders = getMessage().getAllHeaders();
+                while (allHeaders.hasMoreElements()) {
+                    final Header header = (Header) allHeaders.nextElement();
+                    index.add(header.getName(), header.getValue());
+                }
+            } catch (MessagingException ex) {
+                throw new SieveMailException(ex);
+            }
+            headerIndex = index;
+        }
+        return headerIndex;
     }
 
     /**
@@ -287,5 +309,82 @@ public class SieveMailAdapter implements MailAdapter {
         return contentAsLowerCaseString;
     }
 
-    public void setContext(SieveContext context) {}
+    public boolean isInBodyText(List<String> phrasesCaseInsensitive) throws SieveMailException {
+        for (String phrase : phrasesCaseInsensitive) {
+            if (isInBodyText(phrase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Passes each selected part to the handler as a single chunk.
+     * 
+     * @see org.apache.jsieve.mail.optional.BodyAccessors#visitBody(String, List, BodyHandler)
+     */
+    public void visitBody(String transform, List<String> contentTypes,
+            BodyHandler handler) throws SieveException {
+        try {
+            if (BodyTransformTags.RAW_TAG.equals(transform)) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                getMessage().writeTo(out);
+                final String message = out.toString("ISO-8859-1");
+                final int separator = message.indexOf("\r\n\r\n");
+                visitText(separator < 0 ? "" : message.substring(separator + 4), handler);
+            } else if (BodyTransformTags.CONTENT_TAG.equals(transform)) {
+                visitPart(getMessage(), contentTypes, handler);
+            } else {
+                visitPart(getMessage(), Collections.singletonList("text"), handler);
+            }
+        } catch (MessagingException ex) {
+            throw new SieveMailException(ex);
+        } catch (IOException ex) {
+            throw new SieveMailException(ex);
+        }
+    }
+
+    private boolean visitPart(Part part, List<String> contentTypes,
+            BodyHandler handler) throws MessagingException, IOException, SieveException {
+        final Object content = part.getContent();
+        if (content instanceof Multipart) {
+            final Multipart multipart = (Multipart) content;
+            for (int i = 0; i < multipart.getCount(); i++) {
+                if (visitPart(multipart.getBodyPart(i), contentTypes, handler)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (MailUtils.isContentTypeMatched(new ContentType(part
+                .getContentType()).getBaseType(), contentTypes)) {
+            final String text;
+            if (content instanceof InputStream) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final InputStream in = (InputStream) content;
+                final byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                in.close();
+                text = out.toString("ISO-8859-1");
+            } else {
+                text = content.toString();
+            }
+            return visitText(text, handler);
+        } else {
+            return false;
+        }
+    }
+
+    private boolean visitText(String text, BodyHandler handler) throws SieveException {
+        final char[] chars = text.toCharArray();
+        return handler.startPart() || handler.text(chars, 0, chars.length)
+                || handler.endPart();
+    }
+
+    public void setContext(SieveContext context) {
+        // headers may have changed since the last evaluation
+        headerIndex = null;
+    }
 }
@@ -0,0 +1,323 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * <p>Delivers through another {@link Poster} without waiting.
+ * {@link #postAsync(String, MimeMessage)} queues the mail and answers a
+ * future, completed once the mail has been delivered.</p>
+ * <p>Queued mails are grouped by store. Mails for a store are delivered in
+ * the order queued, one group at a time, while other stores are delivered
+ * concurrently by the executor. When the poster is a {@link BatchPoster},
+ * all the mails queued for a store are delivered in a single call.</p>
+ * <p>At most <code>capacity</code> mails are queued. Further posts wait
+ * until earlier mails have been delivered.</p>
+ * <p>A thread waiting for a delivery, or for room in the queue, delivers
+ * any store which the executor has not yet started itself. The executor may
+ * therefore be a bounded pool whose threads also post and wait.</p>
+ */
+public class AsyncPoster implements Poster {
+
+    /** Default maximum number of mails queued */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final Poster poster;
+
+    private final Executor executor;
+
+    private final Semaphore capacity;
+
+    /** Interval between looking for undelivered stores while the queue is full */
+    private static final long HELP_INTERVAL_MILLIS = 20;
+
+    /** Mails queued by store, present while the store is being delivered */
+    private final Map<String, List<Delivery>> queues = new HashMap<String, List<Delivery>>();
+
+    /** Delivers each store present in the queues, guarded by the queues */
+    private final Map<String, Drain> drains = new HashMap<String, Drain>();
+
+    /**
+     * Constructs a poster queueing at most {@link #DEFAULT_CAPACITY} mails.
+     * @param poster delivers the mails, not null
+     * @param executor runs deliveries, not null
+     */
+    public AsyncPoster(Poster poster, Executor executor) {
+        this(poster, executor, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param poster delivers the mails, not null
+     * @param executor runs deliveries, not null
+     * @param capacity maximum number of mails queued, positive
+     */
+    public AsyncPoster(Poster poster, Executor executor, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.poster = poster;
+        this.executor = executor;
+        this.capacity = new Semaphore(capacity);
+    }
+
+    /**
+     * Posts the mail, waiting until it has been delivered.
+     * @see Poster#post(String, MimeMessage)
+     */
+    public void post(String uri, MimeMessage mail) throws MessagingException {
+        await(postAsync(uri, mail));
+    }
+
+    /**
+     * Queues the mail for delivery, waiting while the queue is full.
+     * 
+     * @param uri indicates the destination to which the mail to added
+     * @param mail not null
+     * @return completed when the mail has been delivered, with the 
+     * failure when it could not be
+     * @throws MessagingException when interrupted while waiting
+     */
+    public Future<Void> postAsync(String uri, MimeMessage mail) throws MessagingException {
+        acquire(uri);
+        final Delivery delivery = new Delivery(uri, mail);
+        final String store = getStore(uri);
+        final boolean idle;
+        final Drain drain;
+        synchronized (queues) {
+            List<Delivery> queue = queues.get(store);
+            idle = queue == null;
+            if (idle) {
+                queue = new LinkedList<Delivery>();
+                queues.put(store, queue);
+                drains.put(store, new Drain(store));
+            }
+            queue.add(delivery);
+            drain = drains.get(store);
+            delivery.drain = drain;
+        }
+        if (idle) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                drain.run();
+            }
+        }
+        return delivery;
+    }
+
+    /**
+     * Takes a place in the queue, waiting while it is full. Meanwhile this
+     * thread delivers any store not yet started, which may otherwise wait
+     * behind this thread for the executor.
+     */
+    private void acquire(final String uri) throws MessagingException {
+        try {
+            while (!capacity.tryAcquire()) {
+                final Drain drain = getWaitingDrain();
+                if (drain != null) {
+                    drain.run();
+                } else if (capacity.tryAcquire(HELP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting to post to " + uri, e);
+        }
+    }
+
+    /**
+     * @return a drain not yet started, or null
+     */
+    private Drain getWaitingDrain() {
+        synchronized (queues) {
+            for (final Drain drain : drains.values()) {
+                if (!drain.started.get()) {
+                    return drain;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the store holding the collection indicated by the URI. Mails for
+     * the same store are delivered together. 
+     * 
+     * @param uri not null
+     * @return the URI up to its path, by default
+     */
+    protected String getStore(String uri) {
+        final int scheme = uri.indexOf("://");
+        if (scheme < 0) {
+            return uri;
+        }
+        final int path = uri.indexOf('/', scheme + 3);
+        return path < 0 ? uri : uri.substring(0, path);
+    }
+
+    /**
+     * Waits until the mail has been delivered. A mail queued by an 
+     * {@link AsyncPoster} whose store has not yet been started is delivered
+     * by the calling thread.
+     * 
+     * @param delivery not null
+     * @throws MessagingException when the mail could not be delivered,
+     * or when interrupted
+     */
+    public static void await(Future<?> delivery) throws MessagingException {
+        if (delivery instanceof Delivery && !delivery.isDone()) {
+            ((Delivery) delivery).drain.run();
+        }
+        try {
+            delivery.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for delivery", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            } else if (cause instanceof Exception) {
+                throw new MessagingException("Delivery failed", (Exception) cause);
+            } else {
+                throw (Error) cause;
+            }
+        }
+    }
+
+    private void deliver(final List<Delivery> batch) {
+        try {
+            if (batch.size() > 1 && poster instanceof BatchPoster) {
+                final List<String> uris = new ArrayList<String>(batch.size());
+                final List<MimeMessage> mails = new ArrayList<MimeMessage>(batch.size());
+                for (final Delivery delivery : batch) {
+                    uris.add(delivery.uri);
+                    mails.add(delivery.mail);
+                }
+                try {
+                    ((BatchPoster) poster).post(uris, mails);
+                    for (final Delivery delivery : batch) {
+                        delivery.delivered();
+                    }
+                } catch (Throwable t) {
+                    for (final Delivery delivery : batch) {
+                        delivery.failed(t);
+                    }
+                }
+            } else {
+                for (final Delivery delivery : batch) {
+                    try {
+                        poster.post(delivery.uri, delivery.mail);
+                        delivery.delivered();
+                    } catch (Throwable t) {
+                        delivery.failed(t);
+                    }
+                }
+            }
+        } finally {
+            capacity.release(batch.size());
+        }
+    }
+
+    /**
+     * Delivers the mails queued for a store until none remain. Only the
+     * first thread to run a drain delivers.
+     */
+    private final class Drain implements Runnable {
+
+        private final String store;
+
+        final AtomicBoolean started = new AtomicBoolean();
+
+        Drain(final String store) {
+            this.store = store;
+        }
+
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            while (true) {
+                final List<Delivery> batch;
+                synchronized (queues) {
+                    batch = queues.get(store);
+                    if (batch.isEmpty()) {
+                        queues.remove(store);
+                        drains.remove(store);
+                        return;
+                    }
+                    // Mails posted from now on wait for this batch
+                    queues.put(store, new LinkedList<Delivery>());
+                }
+                deliver(batch);
+            }
+        }
+    }
+
+    /**
+     * A queued mail, completed by the delivery.
+     */
+    private static final class Delivery extends FutureTask<Void> {
+
+        private static final Runnable NONE = new Runnable() {
+            public void run() {
+            }
+        };
+
+        final String uri;
+
+        final MimeMessage mail;
+
+        /** Delivers the store of the mail, set when queued */
+        volatile Drain drain;
+
+        Delivery(final String uri, final MimeMessage mail) {
+            super(NONE, null);
+            this.uri = uri;
+            this.mail = mail;
+        }
+
+        void delivered() {
+            set(null);
+        }
+
+        void failed(Throwable t) {
+            setException(t);
+        }
+    }
+}
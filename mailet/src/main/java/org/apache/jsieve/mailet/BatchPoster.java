@@ -0,0 +1,46 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Experimental interface.
+ * A {@link Poster} able to deliver several mails to one store at once.
+ */
+public interface BatchPoster extends Poster {
+
+    /**
+     * Experimental batch delivery.
+     * Each mail is attached to the collection indicated by the URI at the
+     * same index. All the URIs address the same store, as given by
+     * {@link AsyncPoster#getStore(String)}. The mails should be delivered
+     * in order.
+     * 
+     * @param uris destinations, not null
+     * @param mails not null, the same size as the URIs
+     * @throws MessagingException when any mail cannot be delivered
+     */
+    public void post(List<String> uris, List<MimeMessage> mails) throws MessagingException;
+}
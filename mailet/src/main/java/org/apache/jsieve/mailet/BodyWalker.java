@@ -0,0 +1,423 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mailet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.MailUtils;
+import org.apache.jsieve.mail.optional.BodyHandler;
+
+/**
+ * <p>
+ * Walks the parts of a MIME message, passing the text of the selected parts
+ * to a {@link BodyHandler} in chunks.
+ * </p>
+ * <p>
+ * Multipart and <code>message/rfc822</code> parts are walked recursively. Each
+ * selected leaf part has its transfer encoding decoded incrementally and is
+ * read using the charset it declares, so memory use does not depend on the
+ * size of the message. Parts which are not selected are skipped without being
+ * decoded.
+ * </p>
+ * <p>
+ * The decoded text of the parts may be kept in {@link DecodedParts} supplied
+ * by the caller, so that several body tests evaluated against the same
+ * message share a single decoding. At most {@link #MAXIMUM_CACHED_LENGTH}
+ * characters are kept for a message. Text beyond that is decoded again by
+ * each walk needing it.
+ * </p>
+ * <p>
+ * An optional limit bounds the number of decoded characters read in one walk.
+ * Text beyond the limit is not passed to the handler. Raw bodies are read a
+ * character for each byte.
+ * </p>
+ */
+public class BodyWalker {
+
+    /** No limit on the number of characters read */
+    public static final long UNLIMITED = -1;
+
+    /** Most decoded characters kept for a message */
+    public static final int MAXIMUM_CACHED_LENGTH = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final String DEFAULT_CHARSET = "us-ascii";
+
+    /** Used for raw bodies and unsupported charsets, maps every byte */
+    private static final String BYTE_CHARSET = "ISO-8859-1";
+
+    private static final String HEADER_SEPARATOR = "\r\n\r\n";
+
+    private final BodyHandler handler;
+
+    private final DecodedParts cache;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private long remaining;
+
+    /**
+     * Constructs a walker.
+     * 
+     * @param handler receives the text of selected parts, not null
+     * @param limit maximum number of decoded characters to read, or
+     *            {@link #UNLIMITED}
+     * @param cache decoded parts of the message, or null to decode every time
+     */
+    public BodyWalker(final BodyHandler handler, final long limit,
+            final DecodedParts cache) {
+        this.handler = handler;
+        this.remaining = limit < 0 ? Long.MAX_VALUE : limit;
+        this.cache = cache;
+    }
+
+    /**
+     * Passes the undecoded body of the message to the handler as a single
+     * part.
+     * 
+     * @param message not null
+     * @throws MessagingException
+     * @throws IOException
+     * @throws SieveException
+     */
+    public void walkRaw(final MimeMessage message) throws MessagingException,
+            IOException, SieveException {
+        InputStream in = null;
+        try {
+            in = message.getRawInputStream();
+        } catch (MessagingException e) {
+            // Messages built in memory have no raw content until written
+        }
+        if (!handler.startPart()) {
+            final boolean isDone;
+            if (in == null) {
+                isDone = writeBody(message);
+            } else {
+                isDone = read(new InputStreamReader(in, BYTE_CHARSET), null);
+            }
+            if (!isDone) {
+                handler.endPart();
+            }
+        }
+    }
+
+    /**
+     * Passes the text of each leaf part selected by the given content types to
+     * the handler.
+     * 
+     * @param part not null
+     * @param contentTypes not null
+     * @return true when the handler is done, false otherwise
+     * @throws MessagingException
+     * @throws IOException
+     * @throws SieveException
+     */
+    public boolean walk(final Part part, final List<String> contentTypes)
+            throws MessagingException, IOException, SieveException {
+        if (remaining <= 0) {
+            return true;
+        } else if (part.isMimeType("multipart/*")) {
+            final Object content = part.getContent();
+            if (content instanceof Multipart) {
+                final Multipart multipart = (Multipart) content;
+                final int count = multipart.getCount();
+                for (int i = 0; i < count; i++) {
+                    if (walk(multipart.getBodyPart(i), contentTypes)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } else if (part.isMimeType("message/rfc822")) {
+            final Object content = part.getContent();
+            return content instanceof Part
+                    && walk((Part) content, contentTypes);
+        } else if (MailUtils.isContentTypeMatched(mimeType(part), contentTypes)) {
+            return handler.startPart() || readPart(part) || handler.endPart();
+        } else {
+            return false;
+        }
+    }
+
+    private boolean readPart(final Part part) throws MessagingException,
+            IOException, SieveException {
+        Decoded decoded = null;
+        int offset = 0;
+        if (cache != null) {
+            decoded = cache.parts.get(part);
+            if (decoded == null) {
+                decoded = new Decoded();
+                cache.parts.put(part, decoded);
+            } else {
+                final int length = (int) Math.min(decoded.text.length(), remaining);
+                remaining -= length;
+                for (offset = 0; offset < length; offset += BUFFER_SIZE) {
+                    final int count = Math.min(BUFFER_SIZE, length - offset);
+                    decoded.text.getChars(offset, offset + count, buffer, 0);
+                    if (handler.text(buffer, 0, count)) {
+                        return true;
+                    }
+                }
+                if (decoded.isComplete || remaining <= 0) {
+                    return false;
+                }
+                offset = decoded.text.length();
+            }
+        }
+        final Reader reader = new InputStreamReader(part.getInputStream(),
+                charset(part));
+        // Only the text beyond that kept is decoded again
+        while (offset > 0) {
+            final long skipped = reader.skip(offset);
+            if (skipped <= 0) {
+                reader.close();
+                return false;
+            }
+            offset -= skipped;
+        }
+        return read(reader, decoded);
+    }
+
+    /**
+     * Passes the text read to the handler, until the limit is reached,
+     * closing the reader.
+     * 
+     * @param copy collects the text read while the cache has room, or null
+     * @return true when the handler is done, false otherwise
+     */
+    private boolean read(final Reader reader, final Decoded copy)
+            throws IOException, SieveException {
+        try {
+            while (remaining > 0) {
+                final int read = reader.read(buffer, 0, (int) Math.min(
+                        BUFFER_SIZE, remaining));
+                if (read < 0) {
+                    if (copy != null && !copy.isTruncated) {
+                        copy.isComplete = true;
+                    }
+                    break;
+                }
+                remaining -= read;
+                if (copy != null && !copy.isTruncated) {
+                    if (cache.reserve(read)) {
+                        copy.text.append(buffer, 0, read);
+                    } else {
+                        // Later text may not be kept once some is missing
+                        copy.isTruncated = true;
+                    }
+                }
+                if (handler.text(buffer, 0, read)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the message, passing the text after its headers to the handler
+     * as it is written, so that the message is not copied.
+     * 
+     * @return true when the handler is done, false otherwise
+     */
+    private boolean writeBody(final MimeMessage message)
+            throws MessagingException, IOException, SieveException {
+        final BodyOutputStream out = new BodyOutputStream();
+        try {
+            message.writeTo(out);
+            out.flushText();
+        } catch (StopWriting e) {
+            if (e.getCause() instanceof SieveException) {
+                throw (SieveException) e.getCause();
+            }
+        }
+        return out.isDone;
+    }
+
+    /**
+     * Answers the MIME type of the part, without parameters.
+     */
+    private static String mimeType(final Part part) throws MessagingException {
+        try {
+            return new ContentType(part.getContentType()).getBaseType();
+        } catch (MessagingException e) {
+            // Malformed content type, RFC 2045 default
+            return "text/plain";
+        }
+    }
+
+    /**
+     * Answers the Java charset for the charset declared by the part.
+     */
+    private static String charset(final Part part) {
+        String charset = null;
+        try {
+            charset = new ContentType(part.getContentType())
+                    .getParameter("charset");
+        } catch (MessagingException e) {
+            // Malformed content type, use the default
+        }
+        final String javaCharset = MimeUtility
+                .javaCharset(charset == null ? DEFAULT_CHARSET : charset);
+        try {
+            if (Charset.isSupported(javaCharset)) {
+                return javaCharset;
+            }
+        } catch (IllegalArgumentException e) {
+            // Illegal name, fall back
+        }
+        return BYTE_CHARSET;
+    }
+
+    /**
+     * Skips the headers of a message being written, then passes each byte of
+     * its body to the handler as a character.
+     */
+    private final class BodyOutputStream extends OutputStream {
+
+        /** Number of characters of the header separator matched */
+        private int matched;
+
+        private int count;
+
+        private boolean isDone;
+
+        public void write(int b) throws IOException {
+            if (matched < HEADER_SEPARATOR.length()) {
+                if (b == HEADER_SEPARATOR.charAt(matched)) {
+                    matched++;
+                } else {
+                    matched = b == '\r' ? 1 : 0;
+                }
+            } else if (remaining <= 0) {
+                flushText();
+                throw new StopWriting(null);
+            } else {
+                buffer[count++] = (char) (b & 0xFF);
+                remaining--;
+                if (count == BUFFER_SIZE) {
+                    flushText();
+                }
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        /**
+         * Passes the buffered text to the handler.
+         */
+        void flushText() throws StopWriting {
+            if (count > 0) {
+                final int length = count;
+                count = 0;
+                try {
+                    if (handler.text(buffer, 0, length)) {
+                        isDone = true;
+                        throw new StopWriting(null);
+                    }
+                } catch (SieveException e) {
+                    throw new StopWriting(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Abandons writing a message once no more of it is needed.
+     */
+    private static final class StopWriting extends IOException {
+
+        private static final long serialVersionUID = -2213154938512418353L;
+
+        StopWriting(final SieveException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * The decoded text of the parts of a message, shared by walks over the
+     * message.
+     * <h4>Thread Safety</h4>
+     * <p>An instance is used by one thread at a time.</p>
+     */
+    public static final class DecodedParts {
+
+        private final Map<Part, Decoded> parts = new IdentityHashMap<Part, Decoded>();
+
+        private int length;
+
+        /**
+         * Discards the text kept, as when the message changes.
+         */
+        public void clear() {
+            parts.clear();
+            length = 0;
+        }
+
+        /**
+         * Makes room for more text.
+         * @return true when kept within {@link BodyWalker#MAXIMUM_CACHED_LENGTH}
+         */
+        private boolean reserve(final int count) {
+            if (count > MAXIMUM_CACHED_LENGTH - length) {
+                return false;
+            }
+            length += count;
+            return true;
+        }
+    }
+
+    /**
+     * The text decoded from the start of a part.
+     */
+    private static final class Decoded {
+
+        final StringBuilder text = new StringBuilder();
+
+        /** Set when the text is all of the part */
+        boolean isComplete;
+
+        /** Set when no more text may be kept */
+        boolean isTruncated;
+    }
+}
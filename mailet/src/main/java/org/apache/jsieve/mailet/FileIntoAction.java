@@ -79,20 +79,7 @@ public class FileIntoAction implements MailAction {
             recipient = ActionUtils.getSoleRecipient(aMail);
             MimeMessage localMessage = createMimeMessage(aMail, recipient);
             
-            if (!(destinationMailbox.length() > 0 
-                    && destinationMailbox.charAt(0) == HIERARCHY_DELIMITER)) {
-                destinationMailbox =  HIERARCHY_DELIMITER + destinationMailbox;
-            }
-            
-            final String mailbox = destinationMailbox.replace(HIERARCHY_DELIMITER, '/');
-            final String host;
-            if (mailbox.charAt(0) == '/') {
-                host = "@localhost";
-            } else {
-                host = "@localhost/";
-            }
-            final String url = "mailbox://" + recipient.getUser() + host + mailbox;
-            //TODO: copying this message so many times seems a waste
+            final String url = getMailboxUri(recipient, destinationMailbox);
             context.post(url, localMessage);
             delivered = true;
         }
@@ -121,21 +108,53 @@ public class FileIntoAction implements MailAction {
         }
     }
     
+    /**
+     * Gets the URI posted to when filing a mail for the recipient into the
+     * destination.
+     * 
+     * @param recipient not null
+     * @param destination mailbox name, not null
+     * @return mailbox URI, not null
+     */
+    static String getMailboxUri(MailAddress recipient, String destination) {
+        String destinationMailbox = destination;
+        if (!(destinationMailbox.length() > 0 
+                && destinationMailbox.charAt(0) == HIERARCHY_DELIMITER)) {
+            destinationMailbox =  HIERARCHY_DELIMITER + destinationMailbox;
+        }
+        
+        final String mailbox = destinationMailbox.replace(HIERARCHY_DELIMITER, '/');
+        final String host;
+        if (mailbox.charAt(0) == '/') {
+            host = "@localhost";
+        } else {
+            host = "@localhost/";
+        }
+        return "mailbox://" + recipient.getUser() + host + mailbox;
+    }
+
+    /**
+     * Gets the message filed for the recipient: a view of the message of the
+     * mail with qmail's de facto standard Delivered-To header added.
+     * 
+     * @param aMail not null
+     * @param recipient not null
+     * @return view of the message, not null
+     * @throws MessagingException
+     */
+    static MimeMessage getDeliveredMessage(Mail aMail, MailAddress recipient) throws MessagingException {
+        return new HeaderOverlayMessage(aMail.getMessage(), "Delivered-To", recipient.toString());
+    }
+
     private static MimeMessage createMimeMessage(Mail aMail, MailAddress recipient) throws MessagingException {
+        final MimeMessage view = getDeliveredMessage(aMail, recipient);
+        if (view.getMessageID() != null) {
+            // Filed without copying the message
+            return view;
+        }
         // Adapted from LocalDelivery Mailet
-        // Add qmail's de facto standard Delivered-To header
-        MimeMessage localMessage = new MimeMessage(aMail.getMessage())
-        {
-            protected void updateHeaders() throws MessagingException
-            {
-                if (getMessageID() == null)
-                    super.updateHeaders();
-                else
-                    modified = false;
-            }
-        };
-        localMessage.addHeader("Delivered-To", recipient.toString());
-
+        // Only a copy can be given a Message-ID
+        final MimeMessage localMessage = new MimeMessage(view);
         localMessage.saveChanges();
         return localMessage;
     }
@@ -0,0 +1,340 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import javax.activation.DataHandler;
+import javax.mail.Address;
+import javax.mail.Flags;
+import javax.mail.IllegalWriteException;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * <p>A read only view of a message with extra headers placed before its own.
+ * The content and headers of the message are read through the view, so that
+ * headers may be added for each recipient without changing, copying or
+ * encoding the message again.</p>
+ * <p>The view cannot be changed. Copy it to a new {@link MimeMessage} to
+ * make changes.</p>
+ */
+final class HeaderOverlayMessage extends MimeMessage {
+
+    private static final String HEADER_CHARSET = "ISO-8859-1";
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final MimeMessage message;
+
+    private final InternetHeaders overlay = new InternetHeaders();
+
+    /**
+     * Constructs a view of the message with one extra header.
+     * @param message not null
+     * @param name header name, not null
+     * @param value header value, not null
+     */
+    HeaderOverlayMessage(final MimeMessage message, final String name,
+            final String value) {
+        super((Session) null);
+        this.message = message;
+        overlay.addHeader(name, value);
+    }
+
+    @Override
+    public String[] getHeader(String name) throws MessagingException {
+        final String[] extra = overlay.getHeader(name);
+        final String[] values = message.getHeader(name);
+        if (extra == null) {
+            return values;
+        } else if (values == null) {
+            return extra;
+        }
+        final String[] result = new String[extra.length + values.length];
+        System.arraycopy(extra, 0, result, 0, extra.length);
+        System.arraycopy(values, 0, result, extra.length, values.length);
+        return result;
+    }
+
+    @Override
+    public String getHeader(String name, String delimiter)
+            throws MessagingException {
+        final String[] values = getHeader(name);
+        if (values == null) {
+            return null;
+        } else if (values.length == 1 || delimiter == null) {
+            return values[0];
+        }
+        final StringBuilder result = new StringBuilder(values[0]);
+        for (int i = 1; i < values.length; i++) {
+            result.append(delimiter).append(values[i]);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public Enumeration getAllHeaders() throws MessagingException {
+        return join(overlay.getAllHeaders(), message.getAllHeaders());
+    }
+
+    @Override
+    public Enumeration getMatchingHeaders(String[] names)
+            throws MessagingException {
+        return join(overlay.getMatchingHeaders(names), message
+                .getMatchingHeaders(names));
+    }
+
+    @Override
+    public Enumeration getNonMatchingHeaders(String[] names)
+            throws MessagingException {
+        return join(overlay.getNonMatchingHeaders(names), message
+                .getNonMatchingHeaders(names));
+    }
+
+    @Override
+    public Enumeration getAllHeaderLines() throws MessagingException {
+        return join(overlay.getAllHeaderLines(), message.getAllHeaderLines());
+    }
+
+    @Override
+    public Enumeration getMatchingHeaderLines(String[] names)
+            throws MessagingException {
+        return join(overlay.getMatchingHeaderLines(names), message
+                .getMatchingHeaderLines(names));
+    }
+
+    @Override
+    public Enumeration getNonMatchingHeaderLines(String[] names)
+            throws MessagingException {
+        return join(overlay.getNonMatchingHeaderLines(names), message
+                .getNonMatchingHeaderLines(names));
+    }
+
+    private static Enumeration join(Enumeration first, Enumeration second) {
+        final Vector<Object> result = new Vector<Object>();
+        while (first.hasMoreElements()) {
+            result.add(first.nextElement());
+        }
+        while (second.hasMoreElements()) {
+            result.add(second.nextElement());
+        }
+        return result.elements();
+    }
+
+    /**
+     * Writes the extra headers, then the message as it is.
+     */
+    @Override
+    public void writeTo(OutputStream out, String[] ignoreList)
+            throws IOException, MessagingException {
+        final Enumeration lines = ignoreList == null ? overlay
+                .getAllHeaderLines() : overlay
+                .getNonMatchingHeaderLines(ignoreList);
+        while (lines.hasMoreElements()) {
+            out.write(((String) lines.nextElement()).getBytes(HEADER_CHARSET));
+            out.write(CRLF);
+        }
+        message.writeTo(out, ignoreList);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException,
+            MessagingException {
+        writeTo(out, null);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException, MessagingException {
+        return message.getInputStream();
+    }
+
+    @Override
+    public InputStream getRawInputStream() throws MessagingException {
+        return message.getRawInputStream();
+    }
+
+    @Override
+    protected InputStream getContentStream() throws MessagingException {
+        return message.getRawInputStream();
+    }
+
+    @Override
+    public DataHandler getDataHandler() throws MessagingException {
+        return message.getDataHandler();
+    }
+
+    @Override
+    public Object getContent() throws IOException, MessagingException {
+        return message.getContent();
+    }
+
+    @Override
+    public int getSize() throws MessagingException {
+        return message.getSize();
+    }
+
+    @Override
+    public int getLineCount() throws MessagingException {
+        return message.getLineCount();
+    }
+
+    @Override
+    public boolean isMimeType(String mimeType) throws MessagingException {
+        return message.isMimeType(mimeType);
+    }
+
+    @Override
+    public String getContentType() throws MessagingException {
+        return message.getContentType();
+    }
+
+    @Override
+    public String getEncoding() throws MessagingException {
+        return message.getEncoding();
+    }
+
+    @Override
+    public String getDisposition() throws MessagingException {
+        return message.getDisposition();
+    }
+
+    @Override
+    public String getContentID() throws MessagingException {
+        return message.getContentID();
+    }
+
+    @Override
+    public String getContentMD5() throws MessagingException {
+        return message.getContentMD5();
+    }
+
+    @Override
+    public String[] getContentLanguage() throws MessagingException {
+        return message.getContentLanguage();
+    }
+
+    @Override
+    public String getDescription() throws MessagingException {
+        return message.getDescription();
+    }
+
+    @Override
+    public String getFileName() throws MessagingException {
+        return message.getFileName();
+    }
+
+    @Override
+    public String getMessageID() throws MessagingException {
+        return message.getMessageID();
+    }
+
+    @Override
+    public String getSubject() throws MessagingException {
+        return message.getSubject();
+    }
+
+    @Override
+    public Address[] getFrom() throws MessagingException {
+        return message.getFrom();
+    }
+
+    @Override
+    public Address getSender() throws MessagingException {
+        return message.getSender();
+    }
+
+    @Override
+    public Address[] getReplyTo() throws MessagingException {
+        return message.getReplyTo();
+    }
+
+    @Override
+    public Address[] getRecipients(RecipientType type)
+            throws MessagingException {
+        return message.getRecipients(type);
+    }
+
+    @Override
+    public Address[] getAllRecipients() throws MessagingException {
+        return message.getAllRecipients();
+    }
+
+    @Override
+    public Date getSentDate() throws MessagingException {
+        return message.getSentDate();
+    }
+
+    @Override
+    public Date getReceivedDate() throws MessagingException {
+        return message.getReceivedDate();
+    }
+
+    @Override
+    public Flags getFlags() throws MessagingException {
+        return message.getFlags();
+    }
+
+    @Override
+    public void setHeader(String name, String value) throws MessagingException {
+        throw new IllegalWriteException("Message view cannot be changed");
+    }
+
+    @Override
+    public void addHeader(String name, String value) throws MessagingException {
+        throw new IllegalWriteException("Message view cannot be changed");
+    }
+
+    @Override
+    public void addHeaderLine(String line) throws MessagingException {
+        throw new IllegalWriteException("Message view cannot be changed");
+    }
+
+    @Override
+    public void removeHeader(String name) throws MessagingException {
+        throw new IllegalWriteException("Message view cannot be changed");
+    }
+
+    @Override
+    public void setDataHandler(DataHandler dataHandler)
+            throws MessagingException {
+        throw new IllegalWriteException("Message view cannot be changed");
+    }
+
+    @Override
+    public void setFlags(Flags flags, boolean set) throws MessagingException {
+        throw new IllegalWriteException("Message view cannot be changed");
+    }
+
+    /**
+     * The view is never changed so there is nothing to save.
+     */
+    @Override
+    public void saveChanges() throws MessagingException {
+    }
+}
@@ -32,7 +32,8 @@ import org.apache.mailet.Mail;
  */
 public class KeepAction extends FileIntoAction implements MailAction {
     
-    private static final String INBOX = "INBOX";
+    /** Destination of kept mail */
+    static final String INBOX = "INBOX";
 
     public void execute(Action action, Mail mail, ActionContext context)
             throws MessagingException {
@@ -0,0 +1,51 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Experimental interface.
+ * A {@link Poster} able to attach one mail to several collections at once,
+ * so that the mail need be written only once.
+ */
+public interface MultiRecipientPoster extends Poster {
+
+    /**
+     * Experimental multi-recipient delivery.
+     * The same mail is attached to each collection indicated by the URIs.
+     * The mail filed for each recipient is given as a view of the shared
+     * mail adding the <code>Delivered-To</code> header for that recipient,
+     * just as a mail posted for a single recipient. The views differ from
+     * the shared mail only by their headers, so its content need be written
+     * only once. Neither the mail nor the views may be changed.
+     * 
+     * @param uris destinations, one for each recipient, not null
+     * @param mail shared mail, not null
+     * @param views mail filed into the collection indicated by the URI at
+     * the same index, not null, the same size as the URIs
+     * @throws MessagingException when the mail cannot be delivered
+     */
+    public void post(List<String> uris, MimeMessage mail, List<MimeMessage> views) throws MessagingException;
+}
@@ -0,0 +1,219 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mailet;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+
+/**
+ * <p>A mail as delivered to a single recipient, with its own view of the
+ * message. The sender and remote addresses are read from the original mail.
+ * Everything else starts as in the original but is changed on this mail
+ * only, so that the mails of several recipients may be delivered
+ * concurrently.</p>
+ * <p>{@link #applyTo(Mail)} copies the changes back to the original.</p>
+ * <h4>Thread Safety</h4>
+ * <p>An instance is created, used and applied by one thread at a time.
+ * The original mail must not change while it is in use.</p>
+ */
+final class RecipientMail implements Mail {
+
+    private static final long serialVersionUID = -4177519542365233165L;
+
+    private final Mail mail;
+
+    private transient MimeMessage message;
+
+    private String name;
+
+    private Collection<MailAddress> recipients;
+
+    private String state;
+
+    private String errorMessage;
+
+    private Date lastUpdated;
+
+    private final Map<String, Serializable> attributes = new HashMap<String, Serializable>();
+
+    /** Names of the attributes set or removed */
+    private final Set<String> changedAttributes = new LinkedHashSet<String>();
+
+    private boolean stateChanged;
+
+    private boolean errorMessageChanged;
+
+    /**
+     * @param mail original mail, not null
+     * @param recipient sole recipient, not null
+     * @param message view of the message for this recipient, not null
+     */
+    @SuppressWarnings("unchecked")
+    RecipientMail(final Mail mail, final MailAddress recipient,
+            final MimeMessage message) {
+        this.mail = mail;
+        this.message = message;
+        this.name = mail.getName();
+        this.recipients = Collections.singletonList(recipient);
+        this.state = mail.getState();
+        this.errorMessage = mail.getErrorMessage();
+        this.lastUpdated = mail.getLastUpdated();
+        final Iterator<String> names = mail.getAttributeNames();
+        while (names.hasNext()) {
+            final String name = names.next();
+            attributes.put(name, mail.getAttribute(name));
+        }
+    }
+
+    /**
+     * Copies the state, error message and attributes changed on this mail
+     * to the original.
+     * 
+     * @param original not null
+     */
+    void applyTo(final Mail original) {
+        if (stateChanged) {
+            original.setState(state);
+        }
+        if (errorMessageChanged) {
+            original.setErrorMessage(errorMessage);
+        }
+        for (final String name : changedAttributes) {
+            final Serializable value = attributes.get(name);
+            if (value == null) {
+                original.removeAttribute(name);
+            } else {
+                original.setAttribute(name, value);
+            }
+        }
+    }
+
+    public MimeMessage getMessage() throws MessagingException {
+        return message;
+    }
+
+    public void setMessage(MimeMessage message) {
+        this.message = message;
+    }
+
+    public long getMessageSize() throws MessagingException {
+        return mail.getMessageSize();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection getRecipients() {
+        return recipients;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setRecipients(Collection recipients) {
+        this.recipients = recipients;
+    }
+
+    public MailAddress getSender() {
+        return mail.getSender();
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+        stateChanged = true;
+    }
+
+    public String getRemoteHost() {
+        return mail.getRemoteHost();
+    }
+
+    public String getRemoteAddr() {
+        return mail.getRemoteAddr();
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String message) {
+        errorMessage = message;
+        errorMessageChanged = true;
+    }
+
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(Date lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
+    public Serializable getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator getAttributeNames() {
+        return Collections.unmodifiableSet(attributes.keySet()).iterator();
+    }
+
+    public boolean hasAttributes() {
+        return !attributes.isEmpty();
+    }
+
+    public Serializable removeAttribute(String name) {
+        changedAttributes.add(name);
+        return attributes.remove(name);
+    }
+
+    public void removeAllAttributes() {
+        changedAttributes.addAll(attributes.keySet());
+        attributes.clear();
+    }
+
+    public Serializable setAttribute(String name, Serializable object) {
+        changedAttributes.add(name);
+        if (object == null) {
+            return attributes.remove(name);
+        }
+        return attributes.put(name, object);
+    }
+}
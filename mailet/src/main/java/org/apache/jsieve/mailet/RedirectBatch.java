@@ -0,0 +1,176 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.MailetContext;
+
+/**
+ * <p>Collects the redirects of a mail during its evaluation so that each
+ * redirected message is sent once from each sender, to every distinct
+ * address it is redirected to.</p>
+ * <p>Redirects are sent by {@link #flush(MailetContext)}, which completes
+ * the futures answered when they were added.</p>
+ * <h4>Thread Safety</h4>
+ * <p>An instance maybe safe accessed concurrently by multiple threads.</p>
+ */
+final class RedirectBatch {
+
+    private static final Runnable NONE = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private final Map<Send, Send> sends = new LinkedHashMap<Send, Send>();
+
+    private final AtomicLong sent;
+
+    private final AtomicLong avoided;
+
+    /**
+     * @param sent counts mails sent, not null
+     * @param avoided counts redirects sent along with another, not null
+     */
+    RedirectBatch(final AtomicLong sent, final AtomicLong avoided) {
+        this.sent = sent;
+        this.avoided = avoided;
+    }
+
+    /**
+     * Adds a redirect, to be sent on the next flush.
+     * 
+     * @param sender possibly null
+     * @param recipients not null
+     * @param message not null
+     * @return completed when sent, with the failure when it could not be
+     */
+    synchronized Future<Void> add(final MailAddress sender,
+            final Collection<MailAddress> recipients, final MimeMessage message) {
+        final Send key = new Send(sender, message);
+        Send send = sends.get(key);
+        if (send == null) {
+            send = key;
+            sends.put(send, send);
+        } else {
+            avoided.incrementAndGet();
+        }
+        send.recipients.addAll(recipients);
+        final Sent result = new Sent();
+        send.results.add(result);
+        return result;
+    }
+
+    /**
+     * Sends the redirects added since the last flush.
+     * 
+     * @param context sends the mails, not null
+     */
+    void flush(final MailetContext context) {
+        final List<Send> pending;
+        synchronized (this) {
+            if (sends.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<Send>(sends.keySet());
+            sends.clear();
+        }
+        for (final Send send : pending) {
+            try {
+                context.sendMail(send.sender, send.recipients, send.message);
+                sent.incrementAndGet();
+                for (final Sent result : send.results) {
+                    result.complete(null);
+                }
+            } catch (Exception e) {
+                for (final Sent result : send.results) {
+                    result.complete(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A message from a sender, compared by identity of the message.
+     */
+    private static final class Send {
+
+        final MailAddress sender;
+
+        final MimeMessage message;
+
+        final Set<MailAddress> recipients = new LinkedHashSet<MailAddress>();
+
+        final List<Sent> results = new ArrayList<Sent>();
+
+        Send(final MailAddress sender, final MimeMessage message) {
+            this.sender = sender;
+            this.message = message;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj instanceof Send) {
+                final Send other = (Send) obj;
+                return message == other.message
+                        && (sender == null ? other.sender == null : sender
+                                .equals(other.sender));
+            }
+            return false;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(message) * 31
+                    + (sender == null ? 0 : sender.hashCode());
+        }
+    }
+
+    /**
+     * Completed when the redirect has been sent.
+     */
+    private static final class Sent extends FutureTask<Void> {
+
+        Sent() {
+            super(NONE, null);
+        }
+
+        void complete(Exception failure) {
+            if (failure == null) {
+                set(null);
+            } else {
+                setException(failure);
+            }
+        }
+    }
+}
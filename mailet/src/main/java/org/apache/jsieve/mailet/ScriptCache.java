@@ -0,0 +1,270 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.jsieve.mailet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jsieve.CompiledScript;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.parser.generated.ParseException;
+
+/**
+ * <p>Bounded cache of compiled Sieve scripts.</p>
+ * <p>
+ * Entries are keyed by script URI. Each entry records a fingerprint of the
+ * script source from which it was compiled. A lookup whose source has a different
+ * fingerprint replaces the stale entry, so edited scripts take effect on the
+ * next delivery without explicit invalidation. When the cache is full, the
+ * least recently used entry is evicted.
+ * </p>
+ * <h4>Thread Safety</h4>
+ * <p>
+ * Instances may safely be accessed concurrently by multiple threads.
+ * Parsing is performed outside the cache lock. Concurrent lookups of the
+ * same source for a URI wait for a single compilation.
+ * </p>
+ */
+public class ScriptCache {
+
+    /** Default maximum number of cached scripts */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-1";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int maximumSize;
+
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE} scripts.
+     */
+    public ScriptCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructs a cache.
+     * @param maximumSize maximum number of scripts held, greater than zero
+     */
+    public ScriptCache(final int maximumSize) {
+        super();
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                final boolean evict = size() > ScriptCache.this.maximumSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        });
+    }
+
+    /**
+     * Gets the compiled script for the given URI, compiling the source only when
+     * no entry exists or when the cached entry was compiled from different source.
+     * A lookup of the same source while another thread compiles it waits for
+     * that compilation.
+     * 
+     * @param uri identifies the script, not null
+     * @param source script source, not null. This stream is read fully and closed.
+     * @param factory compiles the script on a miss, not null
+     * @return compiled script, not null
+     * @throws IOException when the source cannot be read
+     * @throws ParseException when the script cannot be parsed
+     */
+    public CompiledScript get(final String uri, final InputStream source, final SieveFactory factory) 
+            throws IOException, ParseException {
+        final byte[] script = read(source);
+        final byte[] fingerprint = fingerprint(script);
+        final Entry entry;
+        final boolean compile;
+        synchronized (entries) {
+            final Entry cached = entries.get(uri);
+            compile = cached == null || !Arrays.equals(cached.fingerprint, fingerprint);
+            if (compile) {
+                entry = new Entry(fingerprint, script, factory);
+                entries.put(uri, entry);
+            } else {
+                entry = cached;
+            }
+        }
+        if (compile) {
+            misses.incrementAndGet();
+            entry.script.run();
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            return entry.script.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + uri + " to compile");
+        } catch (ExecutionException e) {
+            // Compile again on the next lookup
+            synchronized (entries) {
+                if (entries.get(uri) == entry) {
+                    entries.remove(uri);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Removes any entry for the given script.
+     * @param uri identifies the script, not null
+     */
+    public void invalidate(final String uri) {
+        entries.remove(uri);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of scripts currently cached.
+     * @return number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the maximum number of scripts cached.
+     * @return maximum number of entries
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups which required compilation.
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of entries evicted to keep within the maximum size.
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "ScriptCache size: " + size() + "/" + maximumSize + " hits: "
+                + getHitCount() + " misses: " + getMissCount() + " evictions: "
+                + getEvictionCount();
+    }
+
+    private static byte[] read(final InputStream source) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            source.close();
+        }
+    }
+
+    private static byte[] fingerprint(final byte[] script) {
+        try {
+            return MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(script);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A script compiled, or being compiled, from source with the fingerprint.
+     */
+    private static final class Entry {
+        private final byte[] fingerprint;
+        private final FutureTask<CompiledScript> script;
+
+        private Entry(final byte[] fingerprint, final byte[] source, final SieveFactory factory) {
+            this.fingerprint = fingerprint;
+            this.script = new FutureTask<CompiledScript>(new Callable<CompiledScript>() {
+                public CompiledScript call() throws ParseException {
+                    return factory.compile(new ByteArrayInputStream(source));
+                }
+            });
+        }
+    }
+}
@@ -21,13 +21,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Future;
 
 import javax.mail.Header;
 import javax.mail.MessagingException;
@@ -41,13 +41,18 @@ import org.apache.james.mime4j.dom.address.MailboxList;
 import org.apache.james.mime4j.dom.field.ParseException;
 import org.apache.james.mime4j.field.address.AddressBuilder;
 import org.apache.jsieve.SieveContext;
+import org.apache.jsieve.comparators.KeyListMatcher;
+import org.apache.jsieve.comparators.MatchTypeTags;
 import org.apache.jsieve.exception.InternetAddressException;
 import org.apache.jsieve.exception.SieveException;
 import org.apache.jsieve.mail.Action;
 import org.apache.jsieve.mail.AddressImpl;
+import org.apache.jsieve.mail.HeaderIndex;
 import org.apache.jsieve.mail.MailAdapter;
-import org.apache.jsieve.mail.MailUtils;
 import org.apache.jsieve.mail.SieveMailException;
+import org.apache.jsieve.tests.BodyTransformTags;
+import org.apache.jsieve.mail.optional.BodyAccessors;
+import org.apache.jsieve.mail.optional.BodyHandler;
 import org.apache.jsieve.mail.optional.EnvelopeAccessors;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
@@ -58,9 +63,12 @@ import org.apache.mailet.MailetContext;
  * for use in a Mailet environment.
  * </p>
  */
-public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionContext
+public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, BodyAccessors, ActionContext
 {
     private static final Log LOG = LogFactory.getLog(SieveMailAdapter.class);
+
+    /** Content types selected by the :text body transform */
+    private static final List<String> TEXT_CONTENT_TYPES = Collections.singletonList("text");
     
     private Log log = LOG;
     
@@ -81,7 +89,30 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
     
     private final Poster poster;
 
-    private String contentText;
+    /**
+     * Maximum number of decoded body characters searched by body tests.
+     */
+    private long bodyScanLimit = BodyWalker.UNLIMITED;
+
+    /**
+     * Index of the message headers, built on first use in each evaluation.
+     */
+    private HeaderIndex headerIndex;
+
+    /**
+     * Collects redirects of the mail, or null to send each at once.
+     */
+    private RedirectBatch redirectBatch;
+
+    /**
+     * Decoded body parts, shared by the body tests of each evaluation.
+     */
+    private final BodyWalker.DecodedParts decodedParts = new BodyWalker.DecodedParts();
+
+    /**
+     * Addresses parsed from headers, keyed by the header name requested.
+     */
+    private final Map<String, Address[]> parsedAddresses = new HashMap<String, Address[]>();
     
     /**
      * Constructor for SieveMailAdapter.
@@ -102,6 +133,25 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
         this.log = log;
     }
 
+    /**
+     * Gets the maximum number of decoded body characters searched by body tests.
+     * 
+     * @return limit, or {@link BodyWalker#UNLIMITED}
+     */
+    public long getBodyScanLimit() {
+        return bodyScanLimit;
+    }
+
+    /**
+     * Sets the maximum number of decoded body characters searched by body tests.
+     * Text beyond the limit is not searched.
+     * 
+     * @param bodyScanLimit limit, or {@link BodyWalker#UNLIMITED}
+     */
+    public void setBodyScanLimit(long bodyScanLimit) {
+        this.bodyScanLimit = bodyScanLimit;
+    }
+
     /**
      * Returns the message.
      * 
@@ -158,19 +208,134 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
      */
     public void executeActions() throws SieveException
     {
-        final List<Action> actions = getActions();
+        executeActions(getActions());
+    }
+
+    /**
+     * Executes the given actions against the mail, such as those answered
+     * for one recipient by a batch evaluation.
+     * 
+     * @param actions not null
+     * @throws SieveException
+     */
+    public void executeActions(List<Action> actions) throws SieveException
+    {
+        final List<Future<Void>> deliveries = dispatchActions(actions);
+        flushRedirects();
+        awaitDeliveries(deliveries);
+    }
+
+    /**
+     * Sets the batch collecting the redirects of the mail.
+     * 
+     * @param redirectBatch batch, or null to send each redirect at once
+     */
+    void setRedirectBatch(RedirectBatch redirectBatch)
+    {
+        this.redirectBatch = redirectBatch;
+    }
+
+    /**
+     * Sends the redirects collected since the last flush.
+     */
+    public void flushRedirects()
+    {
+        final RedirectBatch batch = redirectBatch;
+        if (batch != null) {
+            batch.flush(getMailetContext());
+        }
+    }
+
+    /**
+     * Executes the given actions against the mail without waiting for mails
+     * posted through an {@link AsyncPoster} to be delivered. Redirects of
+     * the mail collected by a batch are sent by {@link #flushRedirects()}.
+     * 
+     * @param actions not null
+     * @return deliveries still in flight, not null
+     * @throws SieveException when an action fails, once the deliveries
+     * already queued are complete
+     */
+    public List<Future<Void>> dispatchActions(List<Action> actions) throws SieveException
+    {
+        final Deliveries deliveries = new Deliveries();
         for (final Action action: actions) {
             getMailetContext().log("Executing action: " + action.toString());
             try
             {
-                dispatcher.execute(action, getMail(), this);
+                dispatcher.execute(action, getMail(), deliveries);
             }
             catch (MessagingException e)
             {
+                try {
+                    flushRedirects();
+                    awaitDeliveries(deliveries.pending);
+                } catch (SieveException ignored) {
+                    // The action failure is reported
+                }
                 throw new SieveException(e);
             }
         }
+        return deliveries.pending;
+    }
+
+    /**
+     * Waits until all the deliveries are complete.
+     * 
+     * @param deliveries not null
+     * @throws SieveException when any could not be delivered
+     */
+    public static void awaitDeliveries(List<Future<Void>> deliveries) throws SieveException
+    {
+        MessagingException failure = null;
+        for (final Future<Void> delivery: deliveries) {
+            try {
+                AsyncPoster.await(delivery);
+            } catch (MessagingException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new SieveException(failure);
+        }
+    }
+
+    /**
+     * Context for a single execution of actions, remembering the mails
+     * posted through an {@link AsyncPoster} so that they can be awaited.
+     */
+    private final class Deliveries implements ActionContext {
+
+        final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+
+        public Log getLog() {
+            return SieveMailAdapter.this.getLog();
+        }
+
+        public String getServerInfo() {
+            return SieveMailAdapter.this.getServerInfo();
+        }
+
+        public void post(String uri, MimeMessage mail) throws MessagingException {
+            if (poster instanceof AsyncPoster) {
+                pending.add(((AsyncPoster) poster).postAsync(uri, mail));
+            } else {
+                poster.post(uri, mail);
+            }
+        }
+
+        public void post(MailAddress sender, Collection<MailAddress> recipients, MimeMessage mail) throws MessagingException {
+            final RedirectBatch batch = redirectBatch;
+            if (batch != null && mail == getMail().getMessage()) {
+                pending.add(batch.add(sender, recipients, mail));
+            } else {
+                SieveMailAdapter.this.post(sender, recipients, mail);
+            }
+        }
     }
+
     /**
      * Sets the actions.
      * 
@@ -210,20 +375,7 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
      */
     public List<String> getHeaderNames() throws SieveMailException
     {
-        Set<String> headerNames = new HashSet<String>();
-        try
-        {
-            Enumeration allHeaders = getMessage().getAllHeaders();
-            while (allHeaders.hasMoreElements())
-            {
-                headerNames.add(((Header) allHeaders.nextElement()).getName());
-            }
-            return new ArrayList<String>(headerNames);
-        }
-        catch (MessagingException ex)
-        {
-            throw new SieveMailException(ex);
-        }
+        return getHeaderIndex().getHeaderNames();
     }
     
     /**
@@ -231,7 +383,37 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
      */
     public List<String> getMatchingHeader(String name) throws SieveMailException
     {
-        return MailUtils.getMatchingHeader(this, name);
+        return getHeaderIndex().getMatchingHeader(name);
+    }
+
+    /**
+     * Returns the index of the message headers, building it from a single
+     * pass over the headers when first needed.
+     * 
+     * @return HeaderIndex, not null
+     * @throws SieveMailException
+     */
+    protected HeaderIndex getHeaderIndex() throws SieveMailException
+    {
+        if (headerIndex == null)
+        {
+            final HeaderIndex index = new HeaderIndex();
+            try
+            {
+                Enumeration allHeaders = getMessage().getAllHeaders();
+                while (allHeaders.hasMoreElements())
+                {
+                    final Header header = (Header) allHeaders.nextElement();
+                    index.add(header.getName(), header.getValue());
+                }
+            }
+            catch (MessagingException ex)
+            {
+                throw new SieveMailException(ex);
+            }
+            headerIndex = index;
+        }
+        return headerIndex;
     }
     
     /**
@@ -339,7 +521,9 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
     protected void setMail(Mail mail)
     {
         fieldMail = mail;
-        contentText = null;
+        headerIndex = null;
+        decodedParts.clear();
+        parsedAddresses.clear();
     }
     
     /**
@@ -391,19 +575,32 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
         }
     }
     
-    public Address[] parseAddresses(String arg) throws SieveMailException, InternetAddressException {
-        try {
-            final MailboxList list = new AddressList(AddressBuilder.DEFAULT.parseAddressList(arg), true).flatten();
-            final int size = list.size();
-            final Address[] results = new Address[size];
-            for (int i=0;i<size;i++) {
-                final Mailbox mailbox = list.get(i);
-                results[i] = new AddressImpl(mailbox.getLocalPart(), mailbox.getDomain());
+    /**
+     * Parses the values of the matching headers, reusing the addresses parsed
+     * earlier in the same evaluation.
+     * 
+     * @see org.apache.jsieve.mail.MailAdapter#parseAddresses(String)
+     */
+    public Address[] parseAddresses(String headerName) throws SieveMailException, InternetAddressException {
+        Address[] results = parsedAddresses.get(headerName);
+        if (results == null) {
+            final List<Address> addresses = new ArrayList<Address>();
+            try {
+                for (final String value: getMatchingHeader(headerName)) {
+                    final MailboxList list = new AddressList(AddressBuilder.DEFAULT.parseAddressList(value), true).flatten();
+                    final int size = list.size();
+                    for (int i=0;i<size;i++) {
+                        final Mailbox mailbox = list.get(i);
+                        addresses.add(new AddressImpl(mailbox.getLocalPart(), mailbox.getDomain()));
+                    }
+                }
+            } catch (ParseException e) {
+                throw new InternetAddressException(e);
             }
-            return null;
-        } catch (ParseException e) {
-            throw new InternetAddressException(e);
+            results = addresses.toArray(new Address[addresses.size()]);
+            parsedAddresses.put(headerName, results);
         }
+        return results;
     }
 
     public Log getLog() {
@@ -423,11 +620,61 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
 
 
     public boolean isInBodyText(String phraseCaseInsensitive) throws SieveMailException {
+        return isInBodyText(Collections.singletonList(phraseCaseInsensitive));
+    }
+
+    /**
+     * Streams the text parts of the message through a single search for all
+     * the phrases.
+     * 
+     * @see org.apache.jsieve.mail.optional.BodyAccessors#isInBodyText(List)
+     */
+    public boolean isInBodyText(List<String> phrasesCaseInsensitive) throws SieveMailException {
+        if (phrasesCaseInsensitive.isEmpty()) {
+            return false;
+        }
+        final KeyListMatcher.Scanner scanner = KeyListMatcher.compile(
+                MatchTypeTags.CONTAINS_TAG, phrasesCaseInsensitive, true).scanner();
+        final BodyHandler handler = new BodyHandler() {
+            public boolean startPart() {
+                scanner.reset();
+                return scanner.isMatched();
+            }
+
+            public boolean text(char[] chars, int offset, int length) {
+                return scanner.scan(chars, offset, length);
+            }
+
+            public boolean endPart() {
+                return scanner.isMatched();
+            }
+        };
         try {
-            if (contentText == null) {
-                contentText = getMessage().getContent().toString().toLowerCase();
+            visitBody(BodyTransformTags.TEXT_TAG, null, handler);
+        } catch (SieveMailException e) {
+            throw e;
+        } catch (SieveException e) {
+            throw new SieveMailException(e);
+        }
+        return scanner.isMatched();
+    }
+
+    /**
+     * Walks the message with a {@link BodyWalker}, sharing decoded parts
+     * between the body tests of an evaluation.
+     * 
+     * @see org.apache.jsieve.mail.optional.BodyAccessors#visitBody(String, List, BodyHandler)
+     */
+    public void visitBody(String transform, List<String> contentTypes, BodyHandler handler) throws SieveException {
+        final BodyWalker walker = new BodyWalker(handler, bodyScanLimit, decodedParts);
+        try {
+            if (BodyTransformTags.RAW_TAG.equals(transform)) {
+                walker.walkRaw(getMessage());
+            } else if (BodyTransformTags.CONTENT_TAG.equals(transform)) {
+                walker.walk(getMessage(), contentTypes);
+            } else {
+                walker.walk(getMessage(), TEXT_CONTENT_TYPES);
             }
-            return contentText.contains(phraseCaseInsensitive);
         } catch (MessagingException e) {
             throw new SieveMailException(e);
         } catch (IOException e) {
@@ -435,5 +682,10 @@ public class SieveMailAdapter implements MailAdapter, EnvelopeAccessors, ActionC
         }
     }
 
-    public void setContext(SieveContext context) {}
+    public void setContext(SieveContext context) {
+        // headers and body may have changed since the last evaluation
+        headerIndex = null;
+        decodedParts.clear();
+        parsedAddresses.clear();
+    }
 }
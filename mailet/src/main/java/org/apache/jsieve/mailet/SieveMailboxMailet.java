@@ -24,26 +24,42 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.activation.DataHandler;
-import javax.mail.Header;
 import javax.mail.MessagingException;
-import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 
 import org.apache.commons.logging.Log;
+import org.apache.jsieve.CompiledScript;
 import org.apache.jsieve.ConfigurationManager;
 import org.apache.jsieve.SieveConfigurationException;
 import org.apache.jsieve.SieveFactory;
 import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.ActionFileInto;
+import org.apache.jsieve.mail.ActionKeep;
 import org.apache.jsieve.parser.generated.ParseException;
 import org.apache.jsieve.parser.generated.TokenMgrError;
 import org.apache.mailet.Mail;
@@ -63,6 +79,26 @@ import org.apache.mailet.base.RFC2822Headers;
  * <td>
  * Enables verbose logging.
  * </td></tr>
+ * <tr><td>scriptCacheSize</td><td>No - defaults to 1000</td><td>maximum number of compiled scripts cached</td>
+ * <td>
+ * Compiled scripts are cached by URI and reused until their source changes.
+ * Zero disables caching.
+ * </td></tr>
+ * <tr><td>optimizationThreshold</td><td>No - defaults to 10</td><td>evaluations after which a compiled script is optimized</td>
+ * <td>
+ * Cached scripts evaluated this many times are optimized in the background,
+ * then evaluated in their optimized form. Zero never optimizes scripts.
+ * </td></tr>
+ * <tr><td>bodyScanLimit</td><td>No - defaults to unlimited</td><td>maximum number of decoded body characters</td>
+ * <td>
+ * Body tests stop searching a message once this many decoded characters have been read.
+ * </td></tr>
+ * <tr><td>recipientThreads</td><td>No - defaults to 0</td><td>maximum number of recipients delivered at once</td>
+ * <td>
+ * Scripts are loaded and actions executed for this many recipients of a mail
+ * concurrently. Zero delivers to recipients one after another, unless an
+ * executor is set by {@link #setRecipientExecutor(Executor)}.
+ * </td></tr>
  * </table>
  */
 public class SieveMailboxMailet extends GenericMailet {
@@ -88,12 +124,38 @@ public class SieveMailboxMailet extends GenericMailet {
     /** Indicates whether this mailet should log minimal information */
     private boolean quiet = true;
 
+    /** Default evaluations after which a compiled script is optimized */
+    private static final int DEFAULT_OPTIMIZATION_THRESHOLD = 10;
+
+    private int optimizationThreshold = DEFAULT_OPTIMIZATION_THRESHOLD;
+
     private SieveFactory factory;
 
     private ActionDispatcher actionDispatcher;
 
     private Log log;
 
+    /** Compiled scripts, or null when caching is disabled */
+    private ScriptCache scriptCache;
+
+    /** Maximum number of decoded body characters searched by body tests */
+    private long bodyScanLimit = BodyWalker.UNLIMITED;
+
+    /** Delivers to recipients concurrently, or null to deliver one after another */
+    private Executor recipientExecutor;
+
+    /** Executor created from the init parameters, shut down on destroy */
+    private ExecutorService ownedRecipientExecutor;
+
+    /** Maximum number of recipients of a mail delivered at once, zero for no limit */
+    private int recipientThreads = 0;
+
+    /** Number of redirected mails sent */
+    private final AtomicLong redirectsSent = new AtomicLong();
+
+    /** Number of redirects sent along with another redirect of the same mail */
+    private final AtomicLong redirectsAvoided = new AtomicLong();
+
     /**
      * For SDI
      */
@@ -127,13 +189,74 @@ public class SieveMailboxMailet extends GenericMailet {
     }
     
     /**
-     * For SDI
+     * For SDI.
+     * When the poster is an {@link AsyncPoster}, mails filed for the
+     * recipients of a mail are delivered together, and failures are reported
+     * once all have completed. When the poster is a {@link MultiRecipientPoster},
+     * recipients whose scripts file the mail into the same mailboxes are
+     * delivered by one post for each mailbox.
      * @param poster not null
      */
     public void setPoster(Poster poster) {
         this.poster = poster;
     }
 
+    /**
+     * Gets the cache of compiled scripts.
+     * @return cache, or null when caching is disabled
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache of compiled scripts.
+     * @param scriptCache cache, or null to disable caching
+     */
+    public void setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Gets the executor delivering to recipients concurrently.
+     * @return executor, or null when recipients are delivered one after another
+     */
+    public Executor getRecipientExecutor() {
+        return recipientExecutor;
+    }
+
+    /**
+     * Sets the executor delivering to the recipients of a mail concurrently.
+     * Any executor may be used, including one running each task on a new
+     * thread. The number of recipients of a mail delivered at once is still
+     * bounded by the <code>recipientThreads</code> init parameter, when set.
+     * Since actions then run concurrently, the {@link Poster} must be thread safe.
+     * @param recipientExecutor executor, or null to deliver to recipients
+     * one after another
+     */
+    public void setRecipientExecutor(Executor recipientExecutor) {
+        this.recipientExecutor = recipientExecutor;
+    }
+
+    /**
+     * Gets the number of redirected mails sent. The redirects of a mail are
+     * collected while its scripts are evaluated, then each redirected
+     * message is sent once to all the distinct addresses.
+     * @return count of mails sent
+     */
+    public long getRedirectsSent() {
+        return redirectsSent.get();
+    }
+
+    /**
+     * Gets the number of redirects which did not need a mail of their own,
+     * since the same message was already being redirected.
+     * @return count of sends avoided
+     */
+    public long getRedirectsAvoided() {
+        return redirectsAvoided.get();
+    }
+
     /**
      * Is this mailet GHOSTing all mail it processes?
      * @return true when mailet consumes all mail, false otherwise
@@ -216,6 +339,7 @@ public class SieveMailboxMailet extends GenericMailet {
             }
             log = new CommonsLoggingAdapter(this, logLevel);
             configurationManager.setLog(log);
+            configurationManager.setOptimizationThreshold(optimizationThreshold);
             factory = configurationManager.build();
         } catch (SieveConfigurationException e) {
             throw new MessagingException("Failed to load standard Sieve configuration.", e);
@@ -233,7 +357,7 @@ public class SieveMailboxMailet extends GenericMailet {
      */
     @SuppressWarnings("unchecked")
     @Override
-    public void service(Mail mail) throws MessagingException {
+    public void service(final Mail mail) throws MessagingException {
         Collection<MailAddress> recipients = mail.getRecipients();
         Collection<MailAddress> errors = new Vector<MailAddress>();
 
@@ -252,44 +376,34 @@ public class SieveMailboxMailet extends GenericMailet {
                             + ">"));
         }
 
-        Enumeration headers;
-        InternetHeaders deliveredTo = new InternetHeaders();
-        if (deliveryHeader != null) {
-            // Copy any Delivered-To headers from the message
-            headers = message
-                    .getMatchingHeaders(new String[] { deliveryHeader });
-            while (headers.hasMoreElements()) {
-                Header header = (Header) headers.nextElement();
-                deliveredTo.addHeader(header.getName(), header.getValue());
-            }
+        if (resetReturnPath && recipientExecutor != null && recipients.size() > 1) {
+            // Save the change once, rather than as each recipient
+            // concurrently copies the message
+            message.saveChanges();
         }
 
-        for (Iterator<MailAddress> i = recipients.iterator(); i.hasNext();) {
-            MailAddress recipient = i.next();
-            try {
-                if (deliveryHeader != null) {
-                    // Add qmail's de facto standard Delivered-To header
-                    message.addHeader(deliveryHeader, recipient.toString());
-                }
-
-                storeMail(mail.getSender(), recipient, mail);
-
-                if (deliveryHeader != null) {
-                    if (i.hasNext()) {
-                        // Remove headers but leave all placeholders
-                        message.removeHeader(deliveryHeader);
-                        headers = deliveredTo.getAllHeaders();
-                        // And restore any original Delivered-To headers
-                        while (headers.hasMoreElements()) {
-                            Header header = (Header) headers.nextElement();
-                            message.addHeader(header.getName(), header
-                                    .getValue());
-                        }
+        if (deliveryHeader == null && recipients.size() > 1) {
+            // Every recipient sees the same message so evaluate all at once
+            storeMailBatch(mail, recipients, errors);
+        } else {
+            final List<MailAddress> all = new ArrayList<MailAddress>(recipients);
+            final List<RecipientMail> recipientMails = createRecipientMails(mail, all);
+            final boolean[] failed = new boolean[all.size()];
+            forEachRecipient(all.size(), new RecipientTask() {
+                public void run(int index) {
+                    try {
+                        storeMail(mail.getSender(), all.get(index), recipientMails.get(index));
+                    } catch (Exception ex) {
+                        log("Error while storing mail.", ex);
+                        failed[index] = true;
                     }
                 }
-            } catch (Exception ex) {
-                log("Error while storing mail.", ex);
-                errors.add(recipient);
+            });
+            applyRecipientMails(mail, recipientMails);
+            for (int i = 0; i < failed.length; i++) {
+                if (failed[i]) {
+                    errors.add(all.get(i));
+                }
             }
         }
 
@@ -342,6 +456,369 @@ public class SieveMailboxMailet extends GenericMailet {
  
     }
     
+    /**
+     * Delivers a mail to several recipients, evaluating all their scripts
+     * against a single adapter so that headers, addresses and body parts
+     * are derived from the message once. The actions of each recipient are
+     * then executed against a mail for that recipient alone, with redirects
+     * from all the recipients sent together. Recipients whose script cannot
+     * be loaded or evaluated are delivered one at a time by
+     * {@link #storeMail(MailAddress, MailAddress, Mail)}, which reports the
+     * failure. When a recipient executor is set, scripts are loaded and
+     * actions executed for the recipients concurrently.
+     * 
+     * @param mail not null
+     * @param recipients not null
+     * @param errors recipients which could not be delivered are added, not null
+     * @throws MessagingException when the message cannot be read
+     */
+    protected void storeMailBatch(final Mail mail, Collection<MailAddress> recipients,
+            Collection<MailAddress> errors) throws MessagingException {
+        final List<MailAddress> all = new ArrayList<MailAddress>(recipients);
+        final List<RecipientMail> recipientMails = createRecipientMails(mail, all);
+        final CompiledScript[] compiled = new CompiledScript[all.size()];
+        final boolean[] failed = new boolean[all.size()];
+        forEachRecipient(all.size(), new RecipientTask() {
+            public void run(int index) {
+                final MailAddress recipient = all.get(index);
+                try {
+                    compiled[index] = compile(recipient, locator.get(getScriptUri(recipient)));
+                } catch (Exception ex) {
+                    failed[index] = !storeMailReportingErrors(recipient, recipientMails.get(index));
+                }
+            }
+        });
+
+        final List<Integer> batched = new ArrayList<Integer>(all.size());
+        final List<CompiledScript> scripts = new ArrayList<CompiledScript>(all.size());
+        for (int i = 0; i < compiled.length; i++) {
+            if (compiled[i] != null) {
+                batched.add(i);
+                scripts.add(compiled[i]);
+            }
+        }
+        if (!batched.isEmpty()) {
+            final SieveMailAdapter aMailAdapter = createMailAdapter(mail);
+            List<List<Action>> evaluated = null;
+            try {
+                evaluated = factory.evaluate(aMailAdapter, scripts);
+            } catch (SieveException ex) {
+                if (isInfoLoggingOn()) {
+                    log("Cannot evaluate Sieve scripts in batch. Evaluating for each recipient.", ex);
+                }
+            }
+
+            final List<List<Action>> results = evaluated;
+            final boolean[] coalesced = new boolean[batched.size()];
+            if (results != null && poster instanceof MultiRecipientPoster) {
+                coalesceDeliveries(mail, all, recipientMails, batched, results, coalesced, failed);
+            }
+            final RedirectBatch redirects = new RedirectBatch(redirectsSent, redirectsAvoided);
+            final List<List<Future<Void>>> deliveries = new ArrayList<List<Future<Void>>>(batched.size());
+            for (int index = 0; index < batched.size(); index++) {
+                deliveries.add(null);
+            }
+            forEachRecipient(batched.size(), new RecipientTask() {
+                public void run(int index) {
+                    final int i = batched.get(index);
+                    final MailAddress recipient = all.get(i);
+                    final RecipientMail recipientMail = recipientMails.get(i);
+                    final List<Action> actions = results == null ? null : results.get(index);
+                    if (actions == null) {
+                        // Evaluate again alone so that the failure is reported
+                        failed[i] = !storeMailReportingErrors(recipient, recipientMail);
+                    } else if (!coalesced[index]) {
+                        try {
+                            try {
+                                deliveries.set(index, createMailAdapter(recipientMail, redirects)
+                                        .dispatchActions(actions));
+                            } catch (SieveException ex) {
+                                handleFailure(recipient, recipientMail, ex);
+                            }
+                        } catch (Exception ex) {
+                            log("Error while storing mail.", ex);
+                            failed[i] = true;
+                        }
+                    }
+                }
+            });
+
+            // Redirects from all recipients are sent together
+            redirects.flush(getMailetContext());
+
+            // Mails posted asynchronously for all recipients are now in 
+            // flight together, so wait for them before reporting failures
+            for (int index = 0; index < batched.size(); index++) {
+                final List<Future<Void>> pending = deliveries.get(index);
+                if (pending != null) {
+                    final int i = batched.get(index);
+                    final MailAddress recipient = all.get(i);
+                    try {
+                        try {
+                            SieveMailAdapter.awaitDeliveries(pending);
+                        } catch (SieveException ex) {
+                            handleFailure(recipient, recipientMails.get(i), ex);
+                        }
+                    } catch (Exception ex) {
+                        log("Error while storing mail.", ex);
+                        failed[i] = true;
+                    }
+                }
+            }
+        }
+
+        applyRecipientMails(mail, recipientMails);
+        for (int i = 0; i < failed.length; i++) {
+            if (failed[i]) {
+                errors.add(all.get(i));
+            }
+        }
+    }
+
+    /**
+     * Creates the mail delivered to each recipient. Each has its own view
+     * of the message, carrying the delivery header when one is configured,
+     * and its own state, so that recipients may be delivered concurrently
+     * without changing the original mail.
+     * 
+     * @param mail original mail, not null
+     * @param recipients not null
+     * @return a mail for each recipient, in order
+     * @throws MessagingException
+     */
+    private List<RecipientMail> createRecipientMails(Mail mail, List<MailAddress> recipients)
+            throws MessagingException {
+        final MimeMessage message = mail.getMessage();
+        final List<RecipientMail> result = new ArrayList<RecipientMail>(recipients.size());
+        for (final MailAddress recipient : recipients) {
+            if (deliveryHeader == null) {
+                result.add(new RecipientMail(mail, recipient, message));
+            } else {
+                // Add qmail's de facto standard Delivered-To header
+                // to the message seen by this recipient only
+                result.add(new RecipientMail(mail, recipient, new HeaderOverlayMessage(
+                        message, deliveryHeader, recipient.toString())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies the changes made while delivering to each recipient, in order,
+     * to the original mail.
+     */
+    private void applyRecipientMails(Mail mail, List<RecipientMail> recipientMails) {
+        for (final RecipientMail recipientMail : recipientMails) {
+            recipientMail.applyTo(mail);
+        }
+    }
+
+    /**
+     * Files the mail once for each group of recipients whose actions file it
+     * into the same mailboxes, through the {@link MultiRecipientPoster}.
+     * Each recipient is filed the same view of the mail, carrying its
+     * Delivered-To header, as when filed alone by {@link FileIntoAction}.
+     * Recipients in a group are marked as coalesced. Failures are handled
+     * for each recipient in the group.
+     * 
+     * @param mail not null
+     * @param all recipients, not null
+     * @param recipientMails mail delivered to each recipient, not null
+     * @param batched indexes of the recipients evaluated, not null
+     * @param results actions for each recipient evaluated, not null
+     * @param coalesced set for the recipients delivered, not null
+     * @param failed set for the recipients in error, not null
+     */
+    private void coalesceDeliveries(Mail mail, List<MailAddress> all, List<RecipientMail> recipientMails,
+            List<Integer> batched, List<List<Action>> results, boolean[] coalesced, boolean[] failed) {
+        final Map<List<String>, List<Integer>> groups = new LinkedHashMap<List<String>, List<Integer>>();
+        for (int index = 0; index < batched.size(); index++) {
+            final List<String> destinations = getDestinations(results.get(index));
+            if (destinations != null) {
+                List<Integer> group = groups.get(destinations);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(destinations, group);
+                }
+                group.add(index);
+            }
+        }
+
+        final MultiRecipientPoster multiRecipientPoster = (MultiRecipientPoster) poster;
+        for (final Map.Entry<List<String>, List<Integer>> entry : groups.entrySet()) {
+            final List<Integer> group = entry.getValue();
+            if (group.size() < 2) {
+                continue;
+            }
+            for (final Integer index : group) {
+                coalesced[index] = true;
+            }
+            try {
+                final MimeMessage message = mail.getMessage();
+                // Each recipient is filed the same view as when alone
+                final List<MimeMessage> views = new ArrayList<MimeMessage>(group.size());
+                for (final Integer index : group) {
+                    final int i = batched.get(index);
+                    views.add(FileIntoAction.getDeliveredMessage(recipientMails.get(i), all.get(i)));
+                }
+                for (final String destination : entry.getKey()) {
+                    final List<String> uris = new ArrayList<String>(group.size());
+                    for (final Integer index : group) {
+                        uris.add(FileIntoAction.getMailboxUri(all.get(batched.get(index)), destination));
+                    }
+                    multiRecipientPoster.post(uris, message, views);
+                }
+            } catch (MessagingException e) {
+                for (final Integer index : group) {
+                    final int i = batched.get(index);
+                    final MailAddress recipient = all.get(i);
+                    try {
+                        handleFailure(recipient, recipientMails.get(i), new SieveException(e));
+                    } catch (Exception ex) {
+                        log("Error while storing mail.", ex);
+                        failed[i] = true;
+                    }
+                }
+            } finally {
+                // As when filed for each recipient
+                for (final Integer index : group) {
+                    recipientMails.get(batched.get(index)).setState(Mail.GHOST);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the mailboxes into which the actions file the mail, when that is
+     * all they do through the standard actions.
+     * 
+     * @param actions not null
+     * @return mailbox names in order, or null when the actions do anything else
+     */
+    private List<String> getDestinations(List<Action> actions) {
+        if (actions.isEmpty()) {
+            return null;
+        }
+        final List<String> destinations = new ArrayList<String>(actions.size());
+        for (final Action action : actions) {
+            final MailAction mailAction = actionDispatcher.getMethodMap().get(action.getClass());
+            if (action.getClass() == ActionKeep.class && mailAction != null
+                    && mailAction.getClass() == KeepAction.class) {
+                destinations.add(KeepAction.INBOX);
+            } else if (action.getClass() == ActionFileInto.class && mailAction != null
+                    && mailAction.getClass() == FileIntoAction.class) {
+                destinations.add(((ActionFileInto) action).getDestination());
+            } else {
+                return null;
+            }
+        }
+        return destinations;
+    }
+
+    /**
+     * Delivery to a single recipient of a mail.
+     */
+    private interface RecipientTask {
+        /**
+         * Delivers to a recipient, handling any failure.
+         * @param index of the recipient
+         */
+        public void run(int index);
+    }
+
+    /**
+     * Runs the task for each recipient, on the recipient executor when one is
+     * set, and waits until all have completed. At most
+     * <code>recipientThreads</code> tasks are submitted at once. Tasks which
+     * the executor rejects run on the calling thread.
+     * 
+     * @param count number of recipients
+     * @param task not null
+     */
+    private void forEachRecipient(final int count, final RecipientTask task) {
+        final Executor executor = recipientExecutor;
+        if (executor == null || count < 2) {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+            return;
+        }
+
+        final int limit = recipientThreads > 0 ? Math.min(recipientThreads, count) : count;
+        final CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+        Throwable failure = null;
+        boolean interrupted = false;
+        int next = 0;
+        int pending = 0;
+        while (next < count || pending > 0) {
+            if (next < count && pending < limit) {
+                final int index = next++;
+                try {
+                    completion.submit(new Callable<Void>() {
+                        public Void call() {
+                            task.run(index);
+                            return null;
+                        }
+                    });
+                    pending++;
+                } catch (RejectedExecutionException e) {
+                    task.run(index);
+                }
+            } else {
+                try {
+                    completion.take().get();
+                } catch (InterruptedException e) {
+                    // Every recipient must be accounted for before returning
+                    interrupted = true;
+                    continue;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+                pending--;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Delivers to a single recipient, logging any failure.
+     * @return true when delivered, false when the recipient is in error
+     */
+    private boolean storeMailReportingErrors(MailAddress recipient, Mail mail) {
+        try {
+            storeMail(mail.getSender(), recipient, mail);
+            return true;
+        } catch (Exception ex) {
+            log("Error while storing mail.", ex);
+            return false;
+        }
+    }
+
+    private SieveMailAdapter createMailAdapter(Mail aMail) {
+        return createMailAdapter(aMail, new RedirectBatch(redirectsSent, redirectsAvoided));
+    }
+
+    /**
+     * @param redirects collects the redirects of the mail, not null
+     */
+    private SieveMailAdapter createMailAdapter(Mail aMail, RedirectBatch redirects) {
+        SieveMailAdapter aMailAdapter = new SieveMailAdapter(aMail,
+                getMailetContext(), actionDispatcher, poster);
+        aMailAdapter.setLog(log);
+        aMailAdapter.setBodyScanLimit(bodyScanLimit);
+        aMailAdapter.setRedirectBatch(redirects);
+        return aMailAdapter;
+    }
+
     protected void sieveMessage(MailAddress recipient, Mail aMail) throws MessagingException {
         String username = getUsername(recipient);
         try {
@@ -361,15 +838,13 @@ public class SieveMailboxMailet extends GenericMailet {
     
     private void sieveMessageEvaluate(MailAddress recipient, Mail aMail, InputStream ins) throws MessagingException, IOException {    
             try {
-                SieveMailAdapter aMailAdapter = new SieveMailAdapter(aMail,
-                        getMailetContext(), actionDispatcher, poster);
-                aMailAdapter.setLog(log);
+                SieveMailAdapter aMailAdapter = createMailAdapter(aMail);
                 // This logging operation is potentially costly
                 if (verbose) {
                     log("Evaluating " + aMailAdapter.toString() + "against \""
                             + getScriptUri(recipient) + "\"");
                 }
-                factory.evaluate(aMailAdapter, factory.parse(ins));
+                factory.evaluate(aMailAdapter, compile(recipient, ins));
             } catch (SieveException ex) {
                 handleFailure(recipient, aMail, ex);
             }
@@ -382,6 +857,25 @@ public class SieveMailboxMailet extends GenericMailet {
             }
     }
     
+    /**
+     * Compiles the script for the given recipient, reusing a cached 
+     * compilation when the script source is unchanged.
+     * 
+     * @param recipient not null
+     * @param ins script source, not null
+     * @return compiled script, not null
+     * @throws ParseException
+     * @throws IOException
+     */
+    private CompiledScript compile(MailAddress recipient, InputStream ins) throws ParseException, IOException {
+        final ScriptCache cache = scriptCache;
+        if (cache == null) {
+            return factory.compile(ins);
+        } else {
+            return cache.get(getScriptUri(recipient), ins, factory);
+        }
+    }
+    
     protected void storeMessageInbox(String username, MimeMessage message) throws MessagingException {
         String url = "mailbox://" + username + "/";
         poster.post(url, message);
@@ -404,9 +898,86 @@ public class SieveMailboxMailet extends GenericMailet {
         this.verbose = getInitParameter("verbose", false);
         this.quiet = getInitParameter("quiet", false);
         
+        final String scriptCacheSize = getInitParameter("scriptCacheSize");
+        final int cacheSize;
+        if (scriptCacheSize == null) {
+            cacheSize = ScriptCache.DEFAULT_MAXIMUM_SIZE;
+        } else {
+            try {
+                cacheSize = Integer.parseInt(scriptCacheSize.trim());
+            } catch (NumberFormatException e) {
+                throw new MailetException("Init parameter scriptCacheSize must be a number: " + scriptCacheSize);
+            }
+        }
+        if (scriptCache == null && cacheSize > 0) {
+            scriptCache = new ScriptCache(cacheSize);
+        }
+
+        final String optimizationThreshold = getInitParameter("optimizationThreshold");
+        if (optimizationThreshold != null) {
+            try {
+                this.optimizationThreshold = Integer.parseInt(optimizationThreshold.trim());
+            } catch (NumberFormatException e) {
+                throw new MailetException("Init parameter optimizationThreshold must be a number: " + optimizationThreshold);
+            }
+        }
+
+        final String bodyScanLimit = getInitParameter("bodyScanLimit");
+        if (bodyScanLimit != null) {
+            try {
+                this.bodyScanLimit = Long.parseLong(bodyScanLimit.trim());
+            } catch (NumberFormatException e) {
+                throw new MailetException("Init parameter bodyScanLimit must be a number: " + bodyScanLimit);
+            }
+        }
+
+        final String recipientThreads = getInitParameter("recipientThreads");
+        if (recipientThreads != null) {
+            try {
+                this.recipientThreads = Integer.parseInt(recipientThreads.trim());
+            } catch (NumberFormatException e) {
+                throw new MailetException("Init parameter recipientThreads must be a number: " + recipientThreads);
+            }
+        }
+        if (recipientExecutor == null && this.recipientThreads > 0) {
+            ownedRecipientExecutor = Executors.newFixedThreadPool(this.recipientThreads,
+                    new RecipientThreadFactory());
+            recipientExecutor = ownedRecipientExecutor;
+        }
+        
         actionDispatcher = new ActionDispatcher();
     }
     
+    /**
+     * Shuts down the recipient threads created from the init parameters.
+     * @see org.apache.mailet.base.GenericMailet#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (ownedRecipientExecutor != null) {
+            ownedRecipientExecutor.shutdown();
+            if (recipientExecutor == ownedRecipientExecutor) {
+                recipientExecutor = null;
+            }
+            ownedRecipientExecutor = null;
+        }
+        super.destroy();
+    }
+
+    /**
+     * Creates daemon threads so that recipient delivery never keeps the
+     * container running.
+     */
+    private static final class RecipientThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "jsieve-recipient-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     /**
      * Return the username to use for sieve processing for the given MailAddress
      * 
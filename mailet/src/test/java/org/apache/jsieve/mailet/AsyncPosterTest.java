@@ -0,0 +1,231 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncPosterTest {
+
+    @Test
+    public void testStoreDeliveredInOrder() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final MockPoster poster = new MockPoster();
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, executor);
+        final List<Future<Void>> deliveries = new ArrayList<Future<Void>>();
+        deliveries.add(asyncPoster.postAsync("mailbox://a@localhost/1", createMessage()));
+        deliveries.add(asyncPoster.postAsync("mailbox://b@localhost/1", createMessage()));
+        deliveries.add(asyncPoster.postAsync("mailbox://a@localhost/2", createMessage()));
+        deliveries.add(asyncPoster.postAsync("mailbox://a@localhost/3", createMessage()));
+        Assert.assertTrue(poster.getUris().isEmpty());
+        // One drain for each store
+        Assert.assertEquals(2, executor.size());
+
+        executor.runAll();
+        for (final Future<Void> delivery : deliveries) {
+            Assert.assertTrue(delivery.isDone());
+            AsyncPoster.await(delivery);
+        }
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/1", "mailbox://a@localhost/2",
+                "mailbox://a@localhost/3", "mailbox://b@localhost/1"), poster.getUris());
+    }
+
+    @Test
+    public void testStoreDeliveredInOrderByBatch() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final RecordingBatchPoster poster = new RecordingBatchPoster();
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, executor);
+        asyncPoster.postAsync("mailbox://a@localhost/1", createMessage());
+        asyncPoster.postAsync("mailbox://a@localhost/2", createMessage());
+        asyncPoster.postAsync("mailbox://a@localhost/3", createMessage());
+
+        executor.runAll();
+        Assert.assertEquals(1, poster.batches.size());
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/1", "mailbox://a@localhost/2",
+                "mailbox://a@localhost/3"), poster.batches.get(0));
+    }
+
+    @Test
+    public void testRejectedDeliveredInline() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        final MockPoster poster = new MockPoster() {
+            @Override
+            public synchronized void post(String uri, MimeMessage mail) throws MessagingException {
+                threads.add(Thread.currentThread());
+                super.post(uri, mail);
+            }
+        };
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        final Future<Void> delivery = asyncPoster.postAsync("mailbox://a@localhost/1",
+                createMessage());
+        Assert.assertTrue(delivery.isDone());
+        AsyncPoster.await(delivery);
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/1"), poster.getUris());
+        Assert.assertEquals(Arrays.asList(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void testAwaitDeliversWhenNotStarted() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final MockPoster poster = new MockPoster();
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, executor);
+        final Future<Void> delivery = asyncPoster.postAsync("mailbox://a@localhost/1",
+                createMessage());
+
+        // The executor never runs the drain, as when its threads all wait
+        AsyncPoster.await(delivery);
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/1"), poster.getUris());
+        executor.runAll();
+        Assert.assertEquals(1, poster.getUris().size());
+    }
+
+    @Test
+    public void testCapacityDeliversWhenNotStarted() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final MockPoster poster = new MockPoster();
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, executor, 1);
+        asyncPoster.postAsync("mailbox://a@localhost/1", createMessage());
+        Assert.assertTrue(poster.getUris().isEmpty());
+
+        asyncPoster.postAsync("mailbox://b@localhost/1", createMessage());
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/1"), poster.getUris());
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/1", "mailbox://b@localhost/1"),
+                poster.getUris());
+    }
+
+    @Test
+    public void testCapacityLimitsQueue() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockPoster poster = new MockPoster() {
+            @Override
+            public void post(String uri, MimeMessage mail) throws MessagingException {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new MessagingException("Interrupted", e);
+                }
+                super.post(uri, mail);
+            }
+        };
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, new Executor() {
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        }, 2);
+        final Future<Void> first = asyncPoster.postAsync("mailbox://a@localhost/1", createMessage());
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        final Future<Void> second = asyncPoster.postAsync("mailbox://a@localhost/2", createMessage());
+
+        final List<Future<Void>> third = new ArrayList<Future<Void>>();
+        final Thread poster3 = new Thread() {
+            public void run() {
+                try {
+                    third.add(asyncPoster.postAsync("mailbox://b@localhost/1", createMessage()));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        poster3.start();
+        poster3.join(200);
+        // Two mails are queued so the third waits
+        Assert.assertTrue(poster3.isAlive());
+
+        release.countDown();
+        poster3.join(10000);
+        Assert.assertFalse(poster3.isAlive());
+        AsyncPoster.await(first);
+        AsyncPoster.await(second);
+        AsyncPoster.await(third.get(0));
+        Assert.assertEquals(3, poster.getUris().size());
+    }
+
+    private static MimeMessage createMessage() throws MessagingException {
+        final MimeMessage message = new MimeMessage(Session
+                .getDefaultInstance(new Properties()));
+        message.setText("Hello world\r\n");
+        return message;
+    }
+
+    /**
+     * Holds tasks until run.
+     */
+    private static final class QueuedExecutor implements Executor {
+
+        private final List<Runnable> tasks = new LinkedList<Runnable>();
+
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            while (true) {
+                final Runnable task;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        return;
+                    }
+                    task = tasks.remove(0);
+                }
+                task.run();
+            }
+        }
+    }
+
+    private static final class RecordingBatchPoster implements BatchPoster {
+
+        final List<List<String>> batches = new ArrayList<List<String>>();
+
+        public synchronized void post(List<String> uris, List<MimeMessage> mails) {
+            batches.add(new ArrayList<String>(uris));
+        }
+
+        public synchronized void post(String uri, MimeMessage mail) {
+            batches.add(Arrays.asList(uri));
+        }
+    }
+}
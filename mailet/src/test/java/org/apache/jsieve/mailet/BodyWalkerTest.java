@@ -0,0 +1,208 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.jsieve.mail.optional.BodyHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BodyWalkerTest {
+
+    private static final List<String> TEXT = Collections.singletonList("text");
+
+    @Test
+    public void testRawInMemory() throws Exception {
+        final Handler handler = new Handler();
+        new BodyWalker(handler, BodyWalker.UNLIMITED, null)
+                .walkRaw(createMessage("Hello world\r\n"));
+        Assert.assertEquals("Hello world\r\n", handler.text.toString());
+        Assert.assertEquals(1, handler.parts);
+    }
+
+    @Test
+    public void testRawInMemoryIsLimited() throws Exception {
+        final Handler handler = new Handler();
+        new BodyWalker(handler, 5, null).walkRaw(createMessage("Hello world"));
+        Assert.assertEquals("Hello", handler.text.toString());
+        Assert.assertEquals(1, handler.parts);
+    }
+
+    @Test
+    public void testRawInMemoryLongerThanBuffer() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("line ").append(i).append("\r\n");
+        }
+        final Handler handler = new Handler();
+        new BodyWalker(handler, BodyWalker.UNLIMITED, null)
+                .walkRaw(createMessage(body.toString()));
+        Assert.assertEquals(body.toString(), handler.text.toString());
+    }
+
+    @Test
+    public void testRawInMemoryStopsWhenDone() throws Exception {
+        final Handler handler = new Handler() {
+            public boolean text(char[] chars, int offset, int length) {
+                super.text(chars, offset, length);
+                return true;
+            }
+        };
+        new BodyWalker(handler, BodyWalker.UNLIMITED, null)
+                .walkRaw(createMessage("Hello world"));
+        Assert.assertEquals("Hello world", handler.text.toString());
+        Assert.assertEquals(0, handler.parts);
+    }
+
+    @Test
+    public void testLargePartDecodedOnce() throws Exception {
+        final String body = repeat("wibble wobble\r\n", 20000);
+        final CountingPart part = new CountingPart(body, "us-ascii");
+        final BodyWalker.DecodedParts cache = new BodyWalker.DecodedParts();
+        for (int i = 0; i < 3; i++) {
+            final Handler handler = new Handler();
+            new BodyWalker(handler, BodyWalker.UNLIMITED, cache).walk(part,
+                    TEXT);
+            Assert.assertEquals(body, handler.text.toString());
+        }
+        Assert.assertEquals(1, part.decoded);
+    }
+
+    @Test
+    public void testInterruptedPartContinued() throws Exception {
+        final String body = repeat("wibble wobble\r\n", 2000);
+        final CountingPart part = new CountingPart(body, "us-ascii");
+        final BodyWalker.DecodedParts cache = new BodyWalker.DecodedParts();
+        final Handler first = new Handler() {
+            public boolean text(char[] chars, int offset, int length) {
+                super.text(chars, offset, length);
+                return true;
+            }
+        };
+        new BodyWalker(first, BodyWalker.UNLIMITED, cache).walk(part, TEXT);
+        Assert.assertTrue(first.text.length() < body.length());
+
+        final Handler second = new Handler();
+        new BodyWalker(second, BodyWalker.UNLIMITED, cache).walk(part, TEXT);
+        Assert.assertEquals(body, second.text.toString());
+        final Handler third = new Handler();
+        new BodyWalker(third, BodyWalker.UNLIMITED, cache).walk(part, TEXT);
+        Assert.assertEquals(body, third.text.toString());
+        Assert.assertEquals(2, part.decoded);
+    }
+
+    @Test
+    public void testPartBeyondCacheDecodedAgain() throws Exception {
+        final String body = repeat("wibble wobble\r\n", BodyWalker.MAXIMUM_CACHED_LENGTH / 10);
+        final CountingPart part = new CountingPart(body, "us-ascii");
+        final BodyWalker.DecodedParts cache = new BodyWalker.DecodedParts();
+        for (int i = 0; i < 2; i++) {
+            final Handler handler = new Handler();
+            new BodyWalker(handler, BodyWalker.UNLIMITED, cache).walk(part,
+                    TEXT);
+            Assert.assertEquals(body, handler.text.toString());
+        }
+        Assert.assertEquals(2, part.decoded);
+    }
+
+    @Test
+    public void testLimitCountsCharactersWhetherCachedOrNot() throws Exception {
+        final CountingPart part = new CountingPart("\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9", "utf-8");
+        final BodyWalker.DecodedParts cache = new BodyWalker.DecodedParts();
+        final Handler decoded = new Handler();
+        new BodyWalker(decoded, 3, cache).walk(part, TEXT);
+        final Handler cached = new Handler();
+        new BodyWalker(cached, 3, cache).walk(part, TEXT);
+        final Handler uncached = new Handler();
+        new BodyWalker(uncached, 3, null).walk(part, TEXT);
+        Assert.assertEquals("\u00e9\u00e9\u00e9", decoded.text.toString());
+        Assert.assertEquals("\u00e9\u00e9\u00e9", cached.text.toString());
+        Assert.assertEquals("\u00e9\u00e9\u00e9", uncached.text.toString());
+    }
+
+    private static String repeat(final String text, final int count) {
+        final StringBuilder result = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+
+    private MimeMessage createMessage(final String body) throws Exception {
+        final MimeMessage message = new MimeMessage(Session
+                .getDefaultInstance(new Properties()));
+        message.setSubject("Test");
+        message.setText(body);
+        return message;
+    }
+
+    /**
+     * Counts the decodings of its content.
+     */
+    private static final class CountingPart extends MimeBodyPart {
+
+        int decoded;
+
+        CountingPart(final String text, final String charset)
+                throws MessagingException {
+            setText(text, charset);
+            updateHeaders();
+        }
+
+        public InputStream getInputStream() throws IOException,
+                MessagingException {
+            decoded++;
+            return super.getInputStream();
+        }
+    }
+
+    private static class Handler implements BodyHandler {
+
+        final StringBuilder text = new StringBuilder();
+
+        /** Number of parts ended */
+        int parts;
+
+        public boolean startPart() {
+            return false;
+        }
+
+        public boolean text(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+            return false;
+        }
+
+        public boolean endPart() {
+            parts++;
+            return false;
+        }
+    }
+}
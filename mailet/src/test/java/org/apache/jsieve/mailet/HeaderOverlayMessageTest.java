@@ -0,0 +1,98 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+import javax.mail.IllegalWriteException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeaderOverlayMessageTest {
+
+    private MimeMessage message;
+
+    private byte[] original;
+
+    @Before
+    public void setUp() throws Exception {
+        message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setSubject("Test");
+        message.addHeader("Delivered-To", "list@example.org");
+        message.setText("Hello world\r\n");
+        message.saveChanges();
+        original = toBytes(message);
+    }
+
+    @Test
+    public void testHeaderPlacedBeforeOwn() throws Exception {
+        final MimeMessage view = new HeaderOverlayMessage(message,
+                "Delivered-To", "a@example.org");
+        final String[] values = view.getHeader("Delivered-To");
+        Assert.assertEquals(2, values.length);
+        Assert.assertEquals("a@example.org", values[0]);
+        Assert.assertEquals("list@example.org", values[1]);
+        Assert.assertEquals("Test", view.getSubject());
+        Assert.assertTrue(new String(toBytes(view), "ISO-8859-1")
+                .startsWith("Delivered-To: a@example.org\r\n"));
+    }
+
+    @Test
+    public void testMessageNotChanged() throws Exception {
+        final MimeMessage a = new HeaderOverlayMessage(message,
+                "Delivered-To", "a@example.org");
+        final MimeMessage b = new HeaderOverlayMessage(message,
+                "Delivered-To", "b@example.org");
+        Assert.assertEquals("a@example.org", a.getHeader("Delivered-To")[0]);
+        Assert.assertEquals("b@example.org", b.getHeader("Delivered-To")[0]);
+        toBytes(a);
+        toBytes(b);
+        new MimeMessage(a).saveChanges();
+
+        Assert.assertEquals(1, message.getHeader("Delivered-To").length);
+        Assert.assertArrayEquals(original, toBytes(message));
+    }
+
+    @Test
+    public void testCopyCarriesHeader() throws Exception {
+        final MimeMessage copy = new MimeMessage(new HeaderOverlayMessage(
+                message, "Delivered-To", "a@example.org"));
+        Assert.assertEquals("a@example.org", copy.getHeader("Delivered-To")[0]);
+        Assert.assertEquals("Hello world\r\n", copy.getContent());
+    }
+
+    @Test(expected = IllegalWriteException.class)
+    public void testCannotBeChanged() throws Exception {
+        new HeaderOverlayMessage(message, "Delivered-To", "a@example.org")
+                .addHeader("Delivered-To", "b@example.org");
+    }
+
+    private static byte[] toBytes(MimeMessage message) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,52 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>MockLocator</code> answers scripts set for users.
+ */
+public class MockLocator implements ResourceLocator {
+
+    private final Map<String, String> scripts = new HashMap<String, String>();
+
+    /**
+     * @param user local part of the address, not null
+     * @param script source, not null
+     */
+    public void setScript(String user, String script) {
+        scripts.put("//" + user + "@localhost/sieve", script);
+    }
+
+    public InputStream get(String uri) throws IOException {
+        final String script = scripts.get(uri);
+        if (script == null) {
+            throw new FileNotFoundException(uri);
+        }
+        return new ByteArrayInputStream(script.getBytes("UTF-8"));
+    }
+}
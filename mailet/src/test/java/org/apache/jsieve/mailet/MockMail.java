@@ -0,0 +1,158 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+
+/**
+ * <code>MockMail</code>
+ */
+public class MockMail implements Mail {
+
+    private static final long serialVersionUID = -2587391233526478364L;
+
+    private String name = "mock";
+
+    private transient MimeMessage message;
+
+    private MailAddress sender;
+
+    private Collection<MailAddress> recipients = new ArrayList<MailAddress>();
+
+    private String state = Mail.DEFAULT;
+
+    private String errorMessage;
+
+    private Date lastUpdated = new Date();
+
+    private final Map<String, Serializable> attributes = new HashMap<String, Serializable>();
+
+    public MockMail(MailAddress sender, List<MailAddress> recipients,
+            MimeMessage message) {
+        this.sender = sender;
+        this.recipients = new ArrayList<MailAddress>(recipients);
+        this.message = message;
+    }
+
+    public Serializable getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator getAttributeNames() {
+        return attributes.keySet().iterator();
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public MimeMessage getMessage() throws MessagingException {
+        return message;
+    }
+
+    public long getMessageSize() throws MessagingException {
+        return message.getSize();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection getRecipients() {
+        return recipients;
+    }
+
+    public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+
+    public String getRemoteHost() {
+        return "localhost";
+    }
+
+    public MailAddress getSender() {
+        return sender;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public boolean hasAttributes() {
+        return !attributes.isEmpty();
+    }
+
+    public void removeAllAttributes() {
+        attributes.clear();
+    }
+
+    public Serializable removeAttribute(String name) {
+        return attributes.remove(name);
+    }
+
+    public Serializable setAttribute(String name, Serializable object) {
+        return attributes.put(name, object);
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public void setLastUpdated(Date lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
+    public void setMessage(MimeMessage message) {
+        this.message = message;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setRecipients(Collection recipients) {
+        this.recipients = recipients;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,63 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.mailet.MailetConfig;
+import org.apache.mailet.MailetContext;
+
+/**
+ * <code>MockMailetConfig</code>
+ */
+public class MockMailetConfig implements MailetConfig {
+
+    private final MailetContext context;
+
+    private final Map<String, String> parameters = new HashMap<String, String>();
+
+    public MockMailetConfig(MailetContext context) {
+        this.context = context;
+    }
+
+    public String getInitParameter(String name) {
+        return parameters.get(name);
+    }
+
+    public void setInitParameter(String name, String value) {
+        parameters.put(name, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator getInitParameterNames() {
+        return parameters.keySet().iterator();
+    }
+
+    public MailetContext getMailetContext() {
+        return context;
+    }
+
+    public String getMailetName() {
+        return "SieveMailboxMailet";
+    }
+}
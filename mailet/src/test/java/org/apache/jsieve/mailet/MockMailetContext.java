@@ -0,0 +1,172 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.LookupException;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.MailetContext;
+
+/**
+ * <code>MockMailetContext</code> records the mails sent.
+ */
+public class MockMailetContext implements MailetContext {
+
+    /**
+     * A mail sent through the context.
+     */
+    public static final class Sent {
+
+        public final MailAddress sender;
+
+        public final List<MailAddress> recipients;
+
+        public final MimeMessage message;
+
+        public final String state;
+
+        Sent(MailAddress sender, Collection<MailAddress> recipients,
+                MimeMessage message, String state) {
+            this.sender = sender;
+            this.recipients = new ArrayList<MailAddress>(recipients);
+            this.message = message;
+            this.state = state;
+        }
+    }
+
+    private final List<Sent> sent = new ArrayList<Sent>();
+
+    /**
+     * @return the mails sent, in order
+     */
+    public synchronized List<Sent> getSent() {
+        return new ArrayList<Sent>(sent);
+    }
+
+    public void bounce(Mail mail, String s) throws MessagingException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    public void bounce(Mail mail, String s, MailAddress mailaddress)
+            throws MessagingException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    public List<String> dnsLookup(String s, RecordType recordType)
+            throws LookupException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    public Object getAttribute(String s) {
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator getAttributeNames() {
+        return Collections.EMPTY_LIST.iterator();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection getMailServers(String s) {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    public int getMajorVersion() {
+        return 2;
+    }
+
+    public int getMinorVersion() {
+        return 5;
+    }
+
+    public MailAddress getPostmaster() {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator getSMTPHostAddresses(String s) {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    public String getServerInfo() {
+        return "Mock";
+    }
+
+    public boolean isLocalEmail(MailAddress mailaddress) {
+        return false;
+    }
+
+    public boolean isLocalServer(String s) {
+        return s.equals("localhost");
+    }
+
+    public boolean isLocalUser(String s) {
+        return false;
+    }
+
+    public void log(String s) {
+    }
+
+    public void log(String s, Throwable throwable) {
+    }
+
+    public void log(LogLevel logLevel, String s) {
+    }
+
+    public void log(LogLevel logLevel, String s, Throwable throwable) {
+    }
+
+    public void removeAttribute(String s) {
+    }
+
+    public void sendMail(MimeMessage mimemessage) throws MessagingException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    public void sendMail(Mail mail) throws MessagingException {
+        throw new UnsupportedOperationException("Not yet implemented!");
+    }
+
+    @SuppressWarnings("unchecked")
+    public void sendMail(MailAddress sender, Collection recipients,
+            MimeMessage message) throws MessagingException {
+        sendMail(sender, recipients, message, Mail.DEFAULT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void sendMail(MailAddress sender,
+            Collection recipients, MimeMessage message, String state)
+            throws MessagingException {
+        sent.add(new Sent(sender, recipients, message, state));
+    }
+
+    public void setAttribute(String s, Object obj) {
+    }
+}
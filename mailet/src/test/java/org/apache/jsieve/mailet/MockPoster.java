@@ -0,0 +1,87 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * <code>MockPoster</code> records the mails posted.
+ */
+public class MockPoster implements Poster {
+
+    /**
+     * A mail posted to a URI.
+     */
+    public static final class Posted {
+
+        public final String uri;
+
+        public final MimeMessage mail;
+
+        Posted(String uri, MimeMessage mail) {
+            this.uri = uri;
+            this.mail = mail;
+        }
+    }
+
+    private final List<Posted> posted = new ArrayList<Posted>();
+
+    public synchronized void post(String uri, MimeMessage mail)
+            throws MessagingException {
+        posted.add(new Posted(uri, mail));
+    }
+
+    /**
+     * @return the mails posted, in order
+     */
+    public synchronized List<Posted> getPosted() {
+        return new ArrayList<Posted>(posted);
+    }
+
+    /**
+     * @return the URIs posted to, in order
+     */
+    public synchronized List<String> getUris() {
+        final List<String> uris = new ArrayList<String>(posted.size());
+        for (final Posted post : posted) {
+            uris.add(post.uri);
+        }
+        return uris;
+    }
+
+    /**
+     * @param uri not null
+     * @return the mail last posted to the URI, or null
+     */
+    public synchronized MimeMessage getMail(String uri) {
+        MimeMessage result = null;
+        for (final Posted post : posted) {
+            if (post.uri.equals(uri)) {
+                result = post.mail;
+            }
+        }
+        return result;
+    }
+}
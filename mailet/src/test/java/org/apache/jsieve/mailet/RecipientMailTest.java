@@ -0,0 +1,91 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.Collections;
+
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecipientMailTest {
+
+    private Mail mail;
+
+    private MailAddress recipient;
+
+    @Before
+    public void setUp() throws Exception {
+        mail = SieveMailboxMailetTest.createMail("a", "b");
+        mail.setAttribute("kept", "value");
+        mail.setAttribute("removed", "value");
+        recipient = new MailAddress("a@example.org");
+    }
+
+    @Test
+    public void testSoleRecipient() throws Exception {
+        final RecipientMail recipientMail = new RecipientMail(mail, recipient,
+                mail.getMessage());
+        Assert.assertEquals(Collections.singletonList(recipient), recipientMail.getRecipients());
+        Assert.assertEquals(2, mail.getRecipients().size());
+    }
+
+    @Test
+    public void testOwnMessage() throws Exception {
+        final MimeMessage view = new HeaderOverlayMessage(mail.getMessage(),
+                "Delivered-To", recipient.toString());
+        final RecipientMail recipientMail = new RecipientMail(mail, recipient, view);
+        Assert.assertSame(view, recipientMail.getMessage());
+        Assert.assertEquals("a@example.org", recipientMail.getMessage().getHeader("Delivered-To")[0]);
+        Assert.assertNull(mail.getMessage().getHeader("Delivered-To"));
+    }
+
+    @Test
+    public void testChangesAppliedLater() throws Exception {
+        final RecipientMail recipientMail = new RecipientMail(mail, recipient,
+                mail.getMessage());
+        recipientMail.setState(Mail.GHOST);
+        recipientMail.setAttribute("added", "value");
+        recipientMail.removeAttribute("removed");
+        Assert.assertEquals(Mail.DEFAULT, mail.getState());
+        Assert.assertNull(mail.getAttribute("added"));
+        Assert.assertEquals("value", mail.getAttribute("removed"));
+
+        recipientMail.applyTo(mail);
+        Assert.assertEquals(Mail.GHOST, mail.getState());
+        Assert.assertEquals("value", mail.getAttribute("added"));
+        Assert.assertNull(mail.getAttribute("removed"));
+        Assert.assertEquals("value", mail.getAttribute("kept"));
+    }
+
+    @Test
+    public void testUnchangedNotApplied() throws Exception {
+        final RecipientMail recipientMail = new RecipientMail(mail, recipient,
+                mail.getMessage());
+        mail.setState(Mail.ERROR);
+        recipientMail.applyTo(mail);
+        Assert.assertEquals(Mail.ERROR, mail.getState());
+    }
+}
@@ -0,0 +1,211 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jsieve.Block;
+import org.apache.jsieve.Command;
+import org.apache.jsieve.Commands;
+import org.apache.jsieve.CompiledScript;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.parser.generated.ParseException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptCacheTest {
+
+    private CountingFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new CountingFactory(new ConfigurationManager());
+    }
+
+    @Test
+    public void testHitOnUnchangedSource() throws Exception {
+        final ScriptCache cache = new ScriptCache(10);
+        final CompiledScript first = cache.get("a", source("keep;"), factory);
+        final CompiledScript second = cache.get("a", source("keep;"), factory);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, factory.compiled.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRecompileOnChangedSource() throws Exception {
+        final ScriptCache cache = new ScriptCache(10);
+        final CompiledScript first = cache.get("a", source("keep;"), factory);
+        final CompiledScript second = cache.get("a", source("discard;"), factory);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(second, cache.get("a", source("discard;"), factory));
+        Assert.assertEquals(2, factory.compiled.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        final ScriptCache cache = new ScriptCache(2);
+        cache.get("a", source("keep;"), factory);
+        cache.get("b", source("keep;"), factory);
+        cache.get("a", source("keep;"), factory);
+        cache.get("c", source("keep;"), factory);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+
+        cache.get("a", source("keep;"), factory);
+        cache.get("c", source("keep;"), factory);
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        cache.get("b", source("keep;"), factory);
+        Assert.assertEquals(4, cache.getMissCount());
+        Assert.assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final ScriptCache cache = new ScriptCache(10);
+        cache.get("a", source("keep;"), factory);
+        cache.get("b", source("keep;"), factory);
+        cache.invalidate("a");
+        Assert.assertEquals(1, cache.size());
+        cache.get("a", source("keep;"), factory);
+        Assert.assertEquals(3, cache.getMissCount());
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        final ScriptCache cache = new ScriptCache(10);
+        try {
+            cache.get("a", source("fail"), factory);
+            Assert.fail("Compilation should fail");
+        } catch (ParseException e) {
+            // expected
+        }
+        Assert.assertEquals(0, cache.size());
+        try {
+            cache.get("a", source("fail"), factory);
+            Assert.fail("Compilation should fail");
+        } catch (ParseException e) {
+            // expected
+        }
+        Assert.assertEquals(2, factory.compiled.get());
+    }
+
+    @Test
+    public void testConcurrentMissesCompileOnce() throws Exception {
+        final ScriptCache cache = new ScriptCache(10);
+        factory.entered = new CountDownLatch(1);
+        factory.release = new CountDownLatch(1);
+        final List<CompiledScript> results = new ArrayList<CompiledScript>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            final Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        final CompiledScript result = cache.get("a", source("keep;"), factory);
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+            if (i == 0) {
+                Assert.assertTrue(factory.entered.await(10, TimeUnit.SECONDS));
+            }
+        }
+        threads.get(1).join(200);
+        // The second lookup waits for the first compilation
+        Assert.assertTrue(threads.get(1).isAlive());
+        factory.release.countDown();
+        for (final Thread thread : threads) {
+            thread.join(10000);
+        }
+        Assert.assertEquals(2, results.size());
+        Assert.assertSame(results.get(0), results.get(1));
+        Assert.assertEquals(1, factory.compiled.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    private static InputStream source(String script) throws Exception {
+        return new ByteArrayInputStream(script.getBytes("UTF-8"));
+    }
+
+    /**
+     * Counts compilations, each answering a new empty script.
+     */
+    private static final class CountingFactory extends SieveFactory {
+
+        final AtomicInteger compiled = new AtomicInteger();
+
+        volatile CountDownLatch entered;
+
+        volatile CountDownLatch release;
+
+        CountingFactory(ConfigurationManager configurationManager) throws Exception {
+            super(configurationManager.getCommandManager(), configurationManager
+                    .getComparatorManager(), configurationManager.getTestManager(),
+                    configurationManager.getLog());
+        }
+
+        @Override
+        public CompiledScript compile(InputStream inputStream) throws ParseException {
+            compiled.incrementAndGet();
+            if (entered != null) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new ParseException("Interrupted");
+                }
+            }
+            try {
+                if (inputStream.read() == 'f') {
+                    throw new ParseException("Cannot compile");
+                }
+            } catch (IOException e) {
+                throw new ParseException(e.getMessage());
+            }
+            return new CompiledScript(new Block(new Commands(new ArrayList<Command>())));
+        }
+    }
+}
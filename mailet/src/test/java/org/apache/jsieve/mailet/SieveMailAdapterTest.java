@@ -0,0 +1,178 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.jsieve.CompiledScript;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mail.Action;
+import org.apache.jsieve.mail.ActionFileInto;
+import org.apache.jsieve.mail.ActionKeep;
+import org.apache.jsieve.mail.ActionRedirect;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SieveMailAdapterTest {
+
+    private MockPoster poster;
+
+    private MockMailetContext context;
+
+    private ActionDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        poster = new MockPoster();
+        context = new MockMailetContext();
+        dispatcher = new ActionDispatcher();
+    }
+
+    @Test
+    public void testExecuteBatchActions() throws Exception {
+        final SieveFactory factory = new ConfigurationManager().build();
+        final List<CompiledScript> scripts = new ArrayList<CompiledScript>();
+        scripts.add(compile(factory, "keep;"));
+        scripts.add(compile(factory, "require \"fileinto\"; fileinto \"x\";"));
+
+        final Mail mail = SieveMailboxMailetTest.createMail("a", "b");
+        final List<List<Action>> results = factory.evaluate(
+                new SieveMailAdapter(mail, context, dispatcher, poster), scripts);
+        Assert.assertEquals(2, results.size());
+        // Evaluation alone executes nothing
+        Assert.assertTrue(poster.getUris().isEmpty());
+
+        new SieveMailAdapter(createMail(mail, "a"), context, dispatcher, poster)
+                .executeActions(results.get(0));
+        new SieveMailAdapter(createMail(mail, "b"), context, dispatcher, poster)
+                .executeActions(results.get(1));
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/INBOX",
+                "mailbox://b@localhost/x"), poster.getUris());
+    }
+
+    @Test
+    public void testDispatchActionsWithoutWaiting() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        final Mail mail = SieveMailboxMailetTest.createMail("a");
+        final SieveMailAdapter adapter = new SieveMailAdapter(mail, context,
+                dispatcher, asyncPoster);
+
+        final List<Future<Void>> deliveries = adapter.dispatchActions(Arrays
+                .<Action> asList(new ActionKeep(), new ActionFileInto("x")));
+        Assert.assertEquals(2, deliveries.size());
+        Assert.assertTrue(poster.getUris().isEmpty());
+        Assert.assertEquals(Mail.GHOST, mail.getState());
+
+        SieveMailAdapter.awaitDeliveries(deliveries);
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/INBOX",
+                "mailbox://a@localhost/x"), poster.getUris());
+    }
+
+    @Test
+    public void testExecuteActionsWaitsForDeliveries() throws Exception {
+        final AsyncPoster asyncPoster = new AsyncPoster(poster, new Executor() {
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+        final SieveMailAdapter adapter = new SieveMailAdapter(SieveMailboxMailetTest
+                .createMail("a"), context, dispatcher, asyncPoster);
+        adapter.executeActions(Arrays.<Action> asList(new ActionKeep(),
+                new ActionFileInto("x")));
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/INBOX",
+                "mailbox://a@localhost/x"), poster.getUris());
+    }
+
+    @Test
+    public void testDispatchFailureReported() throws Exception {
+        final SieveMailAdapter adapter = new SieveMailAdapter(SieveMailboxMailetTest
+                .createMail("a"), context, dispatcher, new Poster() {
+            public void post(String uri, MimeMessage mail) throws MessagingException {
+                if (uri.endsWith("/x")) {
+                    throw new MessagingException("Mailbox unavailable");
+                }
+                poster.post(uri, mail);
+            }
+        });
+        try {
+            adapter.dispatchActions(Arrays.<Action> asList(new ActionKeep(),
+                    new ActionFileInto("x")));
+            Assert.fail("Failure should be reported");
+        } catch (SieveException e) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/INBOX"), poster.getUris());
+    }
+
+    @Test
+    public void testRedirectsSentOnFlush() throws Exception {
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong avoided = new AtomicLong();
+        final RedirectBatch redirects = new RedirectBatch(sent, avoided);
+        final Mail mail = SieveMailboxMailetTest.createMail("a", "b");
+        final List<Future<Void>> deliveries = new ArrayList<Future<Void>>();
+        for (final String user : new String[] {"a", "b"}) {
+            final SieveMailAdapter adapter = new SieveMailAdapter(createMail(mail, user),
+                    context, dispatcher, poster);
+            adapter.setRedirectBatch(redirects);
+            deliveries.addAll(adapter.dispatchActions(Arrays
+                    .<Action> asList(new ActionRedirect("x@example.net"))));
+        }
+        Assert.assertEquals(2, deliveries.size());
+        Assert.assertTrue(context.getSent().isEmpty());
+
+        redirects.flush(context);
+        SieveMailAdapter.awaitDeliveries(deliveries);
+        Assert.assertEquals(1, context.getSent().size());
+        Assert.assertSame(mail.getMessage(), context.getSent().get(0).message);
+        Assert.assertEquals(1, sent.get());
+        Assert.assertEquals(1, avoided.get());
+    }
+
+    private static CompiledScript compile(SieveFactory factory, String script)
+            throws Exception {
+        return factory.compile(new ByteArrayInputStream(script.getBytes("UTF-8")));
+    }
+
+    private static Mail createMail(Mail mail, String user) throws Exception {
+        return new RecipientMail(mail, new MailAddress(user
+                + "@example.org"), mail.getMessage());
+    }
+}
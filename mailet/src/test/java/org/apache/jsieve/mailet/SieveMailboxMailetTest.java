@@ -0,0 +1,295 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.jsieve.mailet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.MailetException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SieveMailboxMailetTest {
+
+    private MockPoster poster;
+
+    private MockLocator locator;
+
+    private MockMailetContext context;
+
+    private MockMailetConfig config;
+
+    private SieveMailboxMailet mailet;
+
+    @Before
+    public void setUp() throws Exception {
+        poster = new MockPoster();
+        locator = new MockLocator();
+        context = new MockMailetContext();
+        config = new MockMailetConfig(context);
+        mailet = new SieveMailboxMailet(poster, locator);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mailet.destroy();
+    }
+
+    @Test
+    public void testManyRecipientsConcurrently() throws Exception {
+        config.setInitParameter("recipientThreads", "2");
+        mailet.init(config);
+        locator.setScript("a", "require \"fileinto\"; fileinto \"a\";");
+        locator.setScript("b", "keep;");
+
+        final Mail mail = createMail("a", "b", "c");
+        mailet.service(mail);
+
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/a",
+                "mailbox://b@localhost/INBOX", "mailbox://c@localhost/"), sorted(poster.getUris()));
+        Assert.assertEquals(Mail.GHOST, mail.getState());
+        Assert.assertTrue(context.getSent().isEmpty());
+    }
+
+    @Test
+    public void testManyRecipientsConcurrentlyWithDeliveryHeader() throws Exception {
+        config.setInitParameter("recipientThreads", "2");
+        config.setInitParameter("addDeliveryHeader", "Delivered-To");
+        mailet.init(config);
+        locator.setScript("a", "require \"fileinto\"; fileinto \"a\";");
+        locator.setScript("b", "keep;");
+
+        final Mail mail = createMail("a", "b", "c");
+        mailet.service(mail);
+
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/a",
+                "mailbox://b@localhost/INBOX", "mailbox://c@localhost/"), sorted(poster.getUris()));
+        Assert.assertEquals(Mail.GHOST, mail.getState());
+        Assert.assertTrue(context.getSent().isEmpty());
+    }
+
+    @Test
+    public void testDeliveryHeaderForEachRecipient() throws Exception {
+        config.setInitParameter("recipientThreads", "2");
+        config.setInitParameter("addDeliveryHeader", "Delivered-To");
+        mailet.init(config);
+        locator.setScript("a", "keep;");
+
+        final Mail mail = createMail("a", "b", "c");
+        final MimeMessage message = mail.getMessage();
+        mailet.service(mail);
+
+        for (final String user : new String[] {"a", "b", "c"}) {
+            final String uri = "a".equals(user) ? "mailbox://a@localhost/INBOX"
+                    : "mailbox://" + user + "@localhost/";
+            final MimeMessage posted = poster.getMail(uri);
+            Assert.assertNotNull(uri, posted);
+            final String[] deliveredTo = posted.getHeader("Delivered-To");
+            Assert.assertNotNull(uri, deliveredTo);
+            for (final String value : deliveredTo) {
+                Assert.assertEquals(uri, user + "@example.org", value);
+            }
+        }
+        Assert.assertSame(message, mail.getMessage());
+        Assert.assertNull(message.getHeader("Delivered-To"));
+    }
+
+    @Test
+    public void testManyRecipientsConcurrentlyReportErrors() throws Exception {
+        config.setInitParameter("recipientThreads", "2");
+        mailet.init(config);
+        mailet.setPoster(new Poster() {
+            public void post(String uri, MimeMessage mail) throws MessagingException {
+                if (uri.startsWith("mailbox://b@")) {
+                    throw new MessagingException("Mailbox unavailable");
+                }
+                poster.post(uri, mail);
+            }
+        });
+
+        final Mail mail = createMail("a", "b", "c");
+        mailet.service(mail);
+
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/", "mailbox://c@localhost/"),
+                sorted(poster.getUris()));
+        Assert.assertEquals(1, context.getSent().size());
+        Assert.assertEquals(Collections.singletonList(new MailAddress("b@example.org")),
+                context.getSent().get(0).recipients);
+        Assert.assertEquals(Mail.ERROR, context.getSent().get(0).state);
+    }
+
+    @Test
+    public void testCoalescedDeliveriesFileSameView() throws Exception {
+        final RecordingMultiRecipientPoster multiPoster = new RecordingMultiRecipientPoster();
+        mailet = new SieveMailboxMailet(multiPoster, locator);
+        mailet.init(config);
+        locator.setScript("a", "keep;");
+        locator.setScript("b", "keep;");
+        locator.setScript("c", "require \"fileinto\"; fileinto \"c\";");
+
+        final Mail mail = createMail("a", "b", "c");
+        final MimeMessage message = mail.getMessage();
+        mailet.service(mail);
+
+        Assert.assertEquals(1, multiPoster.uris.size());
+        Assert.assertEquals(Arrays.asList("mailbox://a@localhost/INBOX",
+                "mailbox://b@localhost/INBOX"), multiPoster.uris.get(0));
+        Assert.assertSame(message, multiPoster.mails.get(0));
+        final List<MimeMessage> views = multiPoster.views.get(0);
+        Assert.assertEquals("a@example.org", views.get(0).getHeader("Delivered-To")[0]);
+        Assert.assertEquals("b@example.org", views.get(1).getHeader("Delivered-To")[0]);
+
+        // Recipients not coalesced are filed alone with the same header
+        Assert.assertEquals(Arrays.asList("mailbox://c@localhost/c"), multiPoster.getUris());
+        final MimeMessage filed = multiPoster.getMail("mailbox://c@localhost/c");
+        Assert.assertArrayEquals(new String[] {"c@example.org"}, filed.getHeader("Delivered-To"));
+        Assert.assertEquals(views.get(0).getContent(), filed.getContent());
+
+        Assert.assertNull(message.getHeader("Delivered-To"));
+        Assert.assertEquals(Mail.GHOST, mail.getState());
+        Assert.assertTrue(context.getSent().isEmpty());
+    }
+
+    @Test
+    public void testRedirectsToSameAddressSentOnce() throws Exception {
+        config.setInitParameter("recipientThreads", "2");
+        mailet.init(config);
+        locator.setScript("a", "redirect \"x@example.net\";");
+        locator.setScript("b", "redirect \"x@example.net\";");
+        locator.setScript("c", "keep;");
+
+        final Mail mail = createMail("a", "b", "c");
+        final MimeMessage message = mail.getMessage();
+        mailet.service(mail);
+
+        final List<MockMailetContext.Sent> sent = context.getSent();
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(Collections.singletonList(new MailAddress("x@example.net")),
+                sent.get(0).recipients);
+        Assert.assertSame(message, sent.get(0).message);
+        Assert.assertEquals(1, mailet.getRedirectsSent());
+        Assert.assertEquals(1, mailet.getRedirectsAvoided());
+        Assert.assertEquals(Arrays.asList("mailbox://c@localhost/INBOX"), poster.getUris());
+        Assert.assertEquals(Mail.GHOST, mail.getState());
+    }
+
+    @Test
+    public void testFiledMessageIsViewNotCopy() throws Exception {
+        mailet.init(config);
+        locator.setScript("a", "require \"fileinto\"; fileinto \"x\";");
+
+        final Mail mail = createMail("a");
+        final MimeMessage message = mail.getMessage();
+        mailet.service(mail);
+
+        final MimeMessage filed = poster.getMail("mailbox://a@localhost/x");
+        Assert.assertTrue(filed instanceof HeaderOverlayMessage);
+        Assert.assertEquals(message.getMessageID(), filed.getMessageID());
+        Assert.assertArrayEquals(new String[] {"a@example.org"}, filed.getHeader("Delivered-To"));
+        Assert.assertNull(message.getHeader("Delivered-To"));
+    }
+
+    @Test
+    public void testFiledMessageWithoutMessageIdIsGivenOne() throws Exception {
+        mailet.init(config);
+        locator.setScript("a", "require \"fileinto\"; fileinto \"x\";");
+
+        final Mail mail = createMail("a");
+        mail.getMessage().removeHeader("Message-ID");
+        mailet.service(mail);
+
+        final MimeMessage filed = poster.getMail("mailbox://a@localhost/x");
+        Assert.assertNotNull(filed.getMessageID());
+        Assert.assertArrayEquals(new String[] {"a@example.org"}, filed.getHeader("Delivered-To"));
+    }
+
+    @Test
+    public void testOptimizedScriptsDeliverSame() throws Exception {
+        config.setInitParameter("optimizationThreshold", "1");
+        mailet.init(config);
+        locator.setScript("a", "require \"fileinto\"; if allof (size :under 1M,"
+                + " header :contains \"Subject\" \"Test\") { fileinto \"a\"; }");
+
+        final int count = 20;
+        for (int i = 0; i < count; i++) {
+            mailet.service(createMail("a"));
+        }
+        Assert.assertEquals(count, poster.getUris().size());
+        for (final String uri : poster.getUris()) {
+            Assert.assertEquals("mailbox://a@localhost/a", uri);
+        }
+    }
+
+    @Test(expected = MailetException.class)
+    public void testOptimizationThresholdMustBeNumber() throws Exception {
+        config.setInitParameter("optimizationThreshold", "often");
+        mailet.init(config);
+    }
+
+    static Mail createMail(String... users) throws Exception {
+        final MimeMessage message = new MimeMessage(Session
+                .getDefaultInstance(new Properties()));
+        message.setSubject("Test");
+        message.setFrom(new InternetAddress("sender@example.org"));
+        message.setText("Hello world\r\n");
+        message.saveChanges();
+        final List<MailAddress> recipients = new ArrayList<MailAddress>(users.length);
+        for (final String user : users) {
+            recipients.add(new MailAddress(user + "@example.org"));
+        }
+        return new MockMail(new MailAddress("sender@example.org"), recipients, message);
+    }
+
+    static List<String> sorted(List<String> values) {
+        final List<String> result = new ArrayList<String>(values);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static final class RecordingMultiRecipientPoster extends MockPoster
+            implements MultiRecipientPoster {
+
+        final List<List<String>> uris = new ArrayList<List<String>>();
+
+        final List<MimeMessage> mails = new ArrayList<MimeMessage>();
+
+        final List<List<MimeMessage>> views = new ArrayList<List<MimeMessage>>();
+
+        public synchronized void post(List<String> uris, MimeMessage mail,
+                List<MimeMessage> views) throws MessagingException {
+            this.uris.add(new ArrayList<String>(uris));
+            this.mails.add(mail);
+            this.views.add(new ArrayList<MimeMessage>(views));
+        }
+    }
+}
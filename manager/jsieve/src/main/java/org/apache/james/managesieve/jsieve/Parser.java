@@ -20,7 +20,6 @@
 
 package org.apache.james.managesieve.jsieve;
 
-import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -80,7 +79,7 @@ public class Parser implements SieveParser {
      */
     public List<String> parse(String content) throws SyntaxException {
         try {
-            _sieveFactory.parse(new ByteArrayInputStream(content.getBytes()));
+            _sieveFactory.parse(content);
         } catch (ParseException ex) {
             throw new SyntaxException(ex);
         }